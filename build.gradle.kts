@@ -10,6 +10,7 @@ plugins {
     id("application")
     alias(libs.plugins.shadow)
     alias(libs.plugins.javafxplugin)
+    alias(libs.plugins.jmh)
 }
 
 java {
@@ -40,6 +41,11 @@ val nativePlatforms = listOf(
     "macos-aarch64"
 )
 
+val nativeTransportPlatforms = listOf(
+    "linux-x86_64",
+    "linux-aarch_64"
+)
+
 dependencies {
     compileOnly(libs.lombok)
 
@@ -55,6 +61,14 @@ dependencies {
     implementation(libs.atlantafx)
     implementation(libs.checker.qual)
     implementation(libs.netty.transport.nethernet)
+    // Keeps the native transports and everything pulling in Netty on the protocol's Netty version
+    implementation(platform(libs.netty.bom))
+    implementation(libs.netty.epoll)
+    implementation(libs.netty.io.uring)
+
+    testImplementation(platform(libs.junit.bom))
+    testImplementation(libs.junit.jupiter)
+    testRuntimeOnly(libs.junit.platform.launcher)
 
     nativePlatforms.forEach { platform ->
         runtimeOnly(libs.webrtc.java) {
@@ -63,6 +77,19 @@ dependencies {
             }
         }
     }
+
+    nativeTransportPlatforms.forEach { platform ->
+        runtimeOnly(libs.netty.epoll) {
+            artifact {
+                classifier = platform
+            }
+        }
+        runtimeOnly(libs.netty.io.uring) {
+            artifact {
+                classifier = platform
+            }
+        }
+    }
 }
 
 application {
@@ -81,11 +108,64 @@ tasks.shadowJar {
     }
 }
 
+tasks.test {
+    useJUnitPlatform()
+}
+
 tasks.named<JavaExec>("run") {
     workingDir = projectDir.resolve("run")
     workingDir.mkdir()
 }
 
+tasks.register<JavaExec>("transportBenchmark") {
+    group = "benchmark"
+    description = "Compares loopback UDP packets/sec between the NIO, epoll and io_uring transports."
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("org.cloudburstmc.proxypass.network.TransportBenchmark")
+    args = (project.findProperty("benchmarkArgs") as String?)?.split(" ") ?: emptyList()
+}
+
+tasks.register<JavaExec>("decodeCapture") {
+    group = "application"
+    description = "Renders a packet capture file or capture directory as text or JSON."
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("org.cloudburstmc.proxypass.network.bedrock.capture.CaptureDecoder")
+    args = (project.findProperty("captureArgs") as String?)?.split(" ") ?: emptyList()
+}
+
+tasks.register<JavaExec>("replayCapture") {
+    group = "benchmark"
+    description = "Replays a packet capture against a live server or to connecting clients."
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("org.cloudburstmc.proxypass.network.bedrock.replay.CaptureReplay")
+    args = (project.findProperty("replayArgs") as String?)?.split(" ") ?: emptyList()
+}
+
+tasks.register<JavaExec>("botLoad") {
+    group = "benchmark"
+    description = "Drives simulated clients through a ProxyPass listener and reports latency and throughput."
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("org.cloudburstmc.proxypass.network.bedrock.bot.BotLoadGenerator")
+    args = (project.findProperty("botArgs") as String?)?.split(" ") ?: emptyList()
+}
+
+tasks.register<JavaExec>("standInServer") {
+    group = "benchmark"
+    description = "Runs an offline stand-in Bedrock server streaming synthetic or captured traffic."
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("org.cloudburstmc.proxypass.network.bedrock.standin.StandInServer")
+    args = (project.findProperty("serverArgs") as String?)?.split(" ") ?: emptyList()
+}
+
+// Benchmarks live in src/jmh/java, select them with e.g. -PjmhIncludes=ForwardingBenchmark
+jmh {
+    jmhVersion.set("1.37")
+    includes.set((project.findProperty("jmhIncludes") as String?)?.split(",") ?: emptyList())
+    profilers.set(listOf("gc"))
+    resultFormat.set("JSON")
+    jvmArgs.set(listOf("-Dio.netty.leakDetection.level=disabled"))
+}
+
 listOf("distZip", "distTar", "startScripts").forEach { taskName ->
     tasks.named(taskName) {
         dependsOn("shadowJar")
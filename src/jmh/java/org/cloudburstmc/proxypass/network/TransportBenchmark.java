@@ -0,0 +1,115 @@
+package org.cloudburstmc.proxypass.network;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.util.ReferenceCountUtil;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Loopback UDP benchmark comparing the packets per second each available {@link IoTransport} can receive.
+ * <p>
+ * Usage: {@code TransportBenchmark [seconds] [packetSize] [senders] [listeners]}
+ */
+public class TransportBenchmark {
+    private static final Logger log = LogManager.getLogger(TransportBenchmark.class);
+    private static final int BURST = 64;
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int packetSize = args.length > 1 ? Integer.parseInt(args[1]) : 512;
+        int senders = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        int listeners = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+        for (IoTransport transport : IoTransport.values()) {
+            if (!transport.isAvailable()) {
+                log.info("{}: not available ({})", transport, String.valueOf(transport.unavailabilityCause()));
+                continue;
+            }
+            int transportListeners = transport.getReusePortOption() != null ? listeners : 1;
+            long received = run(transport, seconds, packetSize, senders, transportListeners);
+            log.info("{}: {} packets/sec with {} listener(s), {} sender(s), {} byte packets",
+                    transport, received / seconds, transportListeners, senders, packetSize);
+        }
+    }
+
+    private static long run(IoTransport transport, int seconds, int packetSize, int senders, int listeners) throws InterruptedException {
+        EventLoopGroup group = transport.newEventLoopGroup(listeners + senders);
+        LongAdder received = new LongAdder();
+        List<Channel> channels = new ArrayList<>();
+        try {
+            InetSocketAddress address = null;
+            for (int i = 0; i < listeners; i++) {
+                Bootstrap bootstrap = new Bootstrap()
+                        .group(group)
+                        .channel(transport.getDatagramChannel())
+                        .option(ChannelOption.SO_RCVBUF, 4 * 1024 * 1024)
+                        .handler(new ChannelInboundHandlerAdapter() {
+                            @Override
+                            public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                                received.increment();
+                                ReferenceCountUtil.release(msg);
+                            }
+                        });
+                if (listeners > 1) {
+                    bootstrap.option(transport.getReusePortOption(), true);
+                }
+                Channel channel = bootstrap.bind(address == null ? new InetSocketAddress("127.0.0.1", 0) : address)
+                        .sync().channel();
+                if (address == null) {
+                    address = (InetSocketAddress) channel.localAddress();
+                }
+                channels.add(channel);
+            }
+
+            ByteBuf payload = Unpooled.unreleasableBuffer(Unpooled.directBuffer(packetSize).writeZero(packetSize));
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+            for (int i = 0; i < senders; i++) {
+                Channel sender = new Bootstrap()
+                        .group(group)
+                        .channel(transport.getDatagramChannel())
+                        .handler(new ChannelInboundHandlerAdapter())
+                        .bind(new InetSocketAddress("127.0.0.1", 0))
+                        .sync().channel();
+                channels.add(sender);
+                sendBursts(sender, address, payload, deadline);
+            }
+
+            long start = received.sum();
+            Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+            return received.sum() - start;
+        } finally {
+            channels.forEach(Channel::close);
+            group.shutdownGracefully(0, 1, TimeUnit.SECONDS).syncUninterruptibly();
+        }
+    }
+
+    private static void sendBursts(Channel channel, InetSocketAddress target, ByteBuf payload, long deadline) {
+        channel.eventLoop().execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!channel.isActive() || System.nanoTime() > deadline) {
+                    return;
+                }
+                for (int i = 0; i < BURST && channel.isWritable(); i++) {
+                    channel.write(new DatagramPacket(payload.duplicate(), target), channel.voidPromise());
+                }
+                channel.flush();
+                channel.eventLoop().execute(this);
+            }
+        });
+    }
+}
@@ -0,0 +1,94 @@
+package org.cloudburstmc.proxypass.network.bedrock.capture;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Appending frames to a {@link CaptureStore} and reading them back with {@link CaptureStoreReader}. Every operation
+ * writes a fresh store of {@code FRAMES} frames over several segments, then reads all of them back. Correctness is
+ * covered by CaptureStoreTest.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CaptureStoreBenchmark {
+    private static final int FRAMES = 2000;
+    private static final int PROTOCOL_VERSION = 800;
+
+    @Param({"65536", "1048576"})
+    public int segmentSize;
+
+    private ByteBuf[] frames;
+    private Path directory;
+
+    @Setup
+    public void setup() throws IOException {
+        Random random = new Random(0);
+        this.frames = new ByteBuf[FRAMES];
+        for (int i = 0; i < FRAMES; i++) {
+            // Mostly small packets with an occasional one larger than the smaller segment size
+            int length = random.nextInt(100) < 98 ? 1 + random.nextInt(2000) : 70000 + random.nextInt(10000);
+            byte[] payload = new byte[length];
+            random.nextBytes(payload);
+
+            ByteBuf body = PooledByteBufAllocator.DEFAULT.heapBuffer(length).writeBytes(payload);
+            ByteBuf frame = PooledByteBufAllocator.DEFAULT.directBuffer();
+            CaptureFormat.writeFrame(frame, i, (i & 1) == 0, i % 300, PROTOCOL_VERSION, body, 0, length);
+            body.release();
+            this.frames[i] = frame;
+        }
+        this.directory = Files.createTempDirectory("capture-store-benchmark");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        for (ByteBuf frame : this.frames) {
+            frame.release();
+        }
+        delete(this.directory);
+    }
+
+    @Benchmark
+    public long roundTrip() throws IOException {
+        Path store = Files.createTempDirectory(this.directory, "store");
+        try {
+            try (CaptureStore writer = new CaptureStore(store, this.segmentSize)) {
+                for (ByteBuf frame : this.frames) {
+                    writer.append(frame);
+                }
+            }
+
+            long bytes = 0;
+            try (CaptureStoreReader reader = new CaptureStoreReader(store)) {
+                Iterator<CaptureFrame> iterator = reader.all();
+                while (iterator.hasNext()) {
+                    bytes += iterator.next().payload().length;
+                }
+            }
+            return bytes;
+        } finally {
+            delete(store);
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> walk = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) walk.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package org.cloudburstmc.proxypass.network.bedrock.compression;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerAdapter;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.cloudburstmc.protocol.bedrock.netty.codec.compression.BatchCompression;
+import org.cloudburstmc.protocol.bedrock.netty.codec.compression.ZlibCompression;
+import org.cloudburstmc.protocol.common.util.Zlib;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compressing and decompressing one batch with the zlib compression of the protocol library ({@code library}) and
+ * with {@link PooledZlibCompression}. {@code gc.alloc.rate.norm} shows the heap allocated per batch.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchCompressionBenchmark {
+
+    @Param({"library", "pooled"})
+    public String implementation;
+
+    @Param({"256", "4096", "65536"})
+    public int batchSize;
+
+    private EmbeddedChannel channel;
+    private ChannelHandlerContext ctx;
+    private BatchCompression compression;
+    private ByteBuf batch;
+    private ByteBuf compressed;
+
+    @Setup
+    public void setup() throws Exception {
+        Random random = new Random(0);
+        // Half random, half runs of a repeated byte, roughly as compressible as game traffic
+        byte[] bytes = new byte[this.batchSize];
+        random.nextBytes(bytes);
+        for (int i = 0; i < bytes.length; i += 32) {
+            Arrays.fill(bytes, i, Math.min(i + 16, bytes.length), (byte) i);
+        }
+
+        this.channel = new EmbeddedChannel(new ChannelHandlerAdapter() {
+        });
+        this.ctx = this.channel.pipeline().firstContext();
+        if (this.implementation.equals("library")) {
+            this.compression = new ZlibCompression(Zlib.RAW);
+        } else {
+            this.compression = new PooledZlibCompression(true);
+        }
+        this.compression.setLevel(7);
+
+        this.batch = this.ctx.alloc().directBuffer(bytes.length).writeBytes(bytes);
+        this.compressed = this.compression.encode(this.ctx, this.batch.duplicate());
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.batch.release();
+        this.compressed.release();
+        this.channel.finishAndReleaseAll();
+    }
+
+    @Benchmark
+    public void compress(Blackhole blackhole) throws Exception {
+        ByteBuf out = this.compression.encode(this.ctx, this.batch.duplicate());
+        blackhole.consume(out.readableBytes());
+        out.release();
+    }
+
+    @Benchmark
+    public void decompress(Blackhole blackhole) throws Exception {
+        ByteBuf out = this.compression.decode(this.ctx, this.compressed.duplicate());
+        blackhole.consume(out.readableBytes());
+        out.release();
+    }
+}
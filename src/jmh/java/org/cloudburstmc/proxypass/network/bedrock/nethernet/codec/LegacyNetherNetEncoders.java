@@ -0,0 +1,141 @@
+package org.cloudburstmc.proxypass.network.bedrock.nethernet.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToByteEncoder;
+import io.netty.util.concurrent.FastThreadLocal;
+import org.cloudburstmc.protocol.bedrock.data.PacketCompressionAlgorithm;
+import org.cloudburstmc.protocol.bedrock.netty.BedrockPacketWrapper;
+import org.cloudburstmc.protocol.bedrock.netty.codec.compression.BatchCompression;
+import org.cloudburstmc.protocol.bedrock.netty.codec.compression.CompressionStrategy;
+import org.cloudburstmc.protocol.common.util.VarInts;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The NetherNet encoders as they were before they stopped copying every frame, kept as the baseline of
+ * {@link NetherNetCodecBenchmark}.
+ */
+final class LegacyNetherNetEncoders {
+
+    private LegacyNetherNetEncoders() {
+    }
+
+    static class PacketEncoder extends MessageToByteEncoder<BedrockPacketWrapper> {
+
+        @Override
+        protected void encode(ChannelHandlerContext ctx, BedrockPacketWrapper wrapper, ByteBuf out) throws Exception {
+            VarInts.writeUnsignedInt(out, wrapper.getPacketBuffer().readableBytes());
+            out.writeBytes(wrapper.getPacketBuffer());
+        }
+    }
+
+    static class CompressionEncoder extends MessageToByteEncoder<ByteBuf> {
+        private final CompressionStrategy strategy;
+        private final boolean prefixed;
+        private final int threshold;
+
+        CompressionEncoder(CompressionStrategy strategy, boolean prefixed, int threshold) {
+            this.strategy = strategy;
+            this.prefixed = prefixed;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected void encode(ChannelHandlerContext ctx, ByteBuf msg, ByteBuf out) throws Exception {
+            BatchCompression compression;
+            if (msg.readableBytes() > this.threshold) {
+                compression = this.strategy.getDefaultCompression();
+            } else {
+                compression = this.strategy.getCompression(PacketCompressionAlgorithm.NONE);
+            }
+
+            ByteBuf compressed = compression.encode(ctx, msg);
+
+            try {
+                if (this.prefixed) {
+                    out.writeByte(switch (compression.getAlgorithm()) {
+                        case PacketCompressionAlgorithm.ZLIB -> 0x00;
+                        case PacketCompressionAlgorithm.SNAPPY -> 0x01;
+                        default -> (byte) 0xff;
+                    });
+                }
+                out.writeBytes(compressed);
+            } finally {
+                compressed.release();
+            }
+        }
+    }
+
+    static class EncryptionEncoder extends MessageToByteEncoder<ByteBuf> {
+        private static final FastThreadLocal<MessageDigest> DIGEST = new FastThreadLocal<MessageDigest>() {
+            @Override
+            protected MessageDigest initialValue() {
+                try {
+                    return MessageDigest.getInstance("SHA-256");
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                }
+            }
+        };
+
+        private final AtomicLong packetCounter = new AtomicLong();
+        private final SecretKey key;
+        private final Cipher cipher;
+
+        EncryptionEncoder(SecretKey key, Cipher cipher) {
+            this.key = key;
+            this.cipher = cipher;
+        }
+
+        @Override
+        protected void encode(ChannelHandlerContext ctx, ByteBuf msg, ByteBuf out) throws Exception {
+            ByteBuf buf = ctx.alloc().ioBuffer(msg.readableBytes() + 8);
+            try {
+                ByteBuffer trailer = ByteBuffer.wrap(generateTrailer(msg, this.key, this.packetCounter));
+                ByteBuffer inBuffer = msg.nioBuffer();
+                ByteBuffer outBuffer = buf.nioBuffer(0, msg.readableBytes() + 8);
+
+                int index = this.cipher.update(inBuffer, outBuffer);
+                index += this.cipher.update(trailer, outBuffer);
+
+                buf.writerIndex(index);
+
+                // The original retained buf here and never released it, which would leak a buffer per iteration
+                out.writeBytes(buf);
+            } finally {
+                buf.release();
+            }
+        }
+
+        static byte[] generateTrailer(ByteBuf buf, SecretKey key, AtomicLong counter) {
+            try {
+                MessageDigest digest = DIGEST.get();
+                ByteBuf counterBuf = ByteBufAllocator.DEFAULT.directBuffer(8);
+                byte[] result;
+                try {
+                    counterBuf.writeLongLE(counter.getAndIncrement());
+                    ByteBuffer keyBuffer = ByteBuffer.wrap(key.getEncoded());
+
+                    digest.update(counterBuf.nioBuffer(0, 8));
+                    digest.update(buf.nioBuffer(buf.readerIndex(), buf.readableBytes()));
+                    digest.update(keyBuffer);
+                    byte[] hash = digest.digest();
+                    result = Arrays.copyOf(hash, 8);
+                } finally {
+                    counterBuf.release();
+                    digest.reset();
+                }
+                return result;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
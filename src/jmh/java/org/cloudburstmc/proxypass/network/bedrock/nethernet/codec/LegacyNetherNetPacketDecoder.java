@@ -0,0 +1,38 @@
+package org.cloudburstmc.proxypass.network.bedrock.nethernet.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import org.cloudburstmc.protocol.common.util.VarInts;
+
+import java.util.List;
+
+/**
+ * The NetherNet frame decoder as it was before it kept its state across calls, kept as the baseline of
+ * {@link NetherNetDecoderBenchmark}.
+ */
+class LegacyNetherNetPacketDecoder extends ByteToMessageDecoder {
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+        if (!in.isReadable()) return;
+
+        in.markReaderIndex();
+        int length;
+        try {
+            length = VarInts.readUnsignedInt(in);
+        } catch (Exception e) {
+            // Not enough bytes for VarInt or invalid
+            in.resetReaderIndex();
+            return;
+        }
+
+        if (in.readableBytes() < length) {
+            // Not enough bytes for the full packet
+            in.resetReaderIndex();
+            return;
+        }
+
+        out.add(in.readRetainedSlice(length));
+    }
+}
@@ -0,0 +1,115 @@
+package org.cloudburstmc.proxypass.network.bedrock.nethernet.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.cloudburstmc.protocol.bedrock.netty.BedrockPacketWrapper;
+import org.cloudburstmc.protocol.bedrock.netty.codec.compression.CompressionStrategy;
+import org.cloudburstmc.protocol.bedrock.netty.codec.compression.NoopCompression;
+import org.cloudburstmc.protocol.bedrock.netty.codec.compression.SimpleCompressionStrategy;
+import org.cloudburstmc.protocol.bedrock.util.EncryptionUtils;
+import org.cloudburstmc.proxypass.network.bedrock.nethernet.initializer.NetherNetBedrockChannelInitializer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outbound NetherNet encoding of one packet: length prefix, trailer and encryption, compression and its prefix, in
+ * the order {@link org.cloudburstmc.proxypass.network.bedrock.nethernet.peer.NetherNetBedrockPeer} builds the pipeline.
+ * Compares the encoders before ({@code legacy}) and after they stopped copying every frame.
+ * <p>
+ * The {@code pooled} allocator is what the proxy runs with. The {@code unpooled} one prefers heap buffers, so
+ * {@code gc.alloc.rate.norm} also counts the bytes of every intermediate buffer that is not an {@code ioBuffer}, on top
+ * of the digest arrays and handler garbage it counts with either allocator.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NetherNetCodecBenchmark {
+
+    @Param({"legacy", "current"})
+    public String implementation;
+
+    @Param({"64", "1024", "16384"})
+    public int payloadSize;
+
+    @Param({"pooled", "unpooled"})
+    public String allocator;
+
+    @Param({"none", "zlib"})
+    public String compression;
+
+    private EmbeddedChannel channel;
+    private ByteBufAllocator alloc;
+    private byte[] payload;
+
+    @Setup
+    public void setup() throws Exception {
+        Random random = new Random(0);
+        // Half random, half runs of a repeated byte, roughly as compressible as game traffic
+        this.payload = new byte[this.payloadSize];
+        random.nextBytes(this.payload);
+        for (int i = 0; i < this.payload.length; i += 32) {
+            Arrays.fill(this.payload, i, Math.min(i + 16, this.payload.length), (byte) i);
+        }
+
+        byte[] keyBytes = new byte[32];
+        random.nextBytes(keyBytes);
+        SecretKey key = new SecretKeySpec(keyBytes, "AES");
+
+        this.alloc = switch (this.allocator) {
+            case "pooled" -> PooledByteBufAllocator.DEFAULT;
+            case "unpooled" -> new UnpooledByteBufAllocator(false);
+            default -> throw new IllegalArgumentException("Unknown allocator " + this.allocator);
+        };
+        CompressionStrategy strategy = switch (this.compression) {
+            case "none" -> new SimpleCompressionStrategy(new NoopCompression());
+            case "zlib" -> NetherNetBedrockChannelInitializer.getCompression();
+            default -> throw new IllegalArgumentException("Unknown compression " + this.compression);
+        };
+
+        ChannelHandler compressionEncoder;
+        ChannelHandler encryptionEncoder;
+        ChannelHandler packetEncoder;
+        if (this.implementation.equals("legacy")) {
+            compressionEncoder = new LegacyNetherNetEncoders.CompressionEncoder(strategy, true, 1);
+            encryptionEncoder = new LegacyNetherNetEncoders.EncryptionEncoder(key, EncryptionUtils.createCipher(true, true, key));
+            packetEncoder = new LegacyNetherNetEncoders.PacketEncoder();
+        } else {
+            compressionEncoder = new NetherNetCompressionEncoder(strategy, true, 1);
+            encryptionEncoder = new NetherNetEncryptionEncoder(key, EncryptionUtils.createCipher(true, true, key));
+            packetEncoder = new NetherNetPacketEncoder();
+        }
+
+        this.channel = new EmbeddedChannel();
+        this.channel.config().setAllocator(this.alloc);
+        this.channel.pipeline().addLast(compressionEncoder, encryptionEncoder, packetEncoder);
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.channel.finishAndReleaseAll();
+    }
+
+    @Benchmark
+    public void encode(Blackhole blackhole) {
+        // A packet decoded on the other leg owns its buffer once the wrapper is released, as the forwarded payloads do
+        ByteBuf packetBuffer = this.alloc.buffer(this.payload.length).writeBytes(this.payload);
+        this.channel.writeOutbound(new BedrockPacketWrapper(0, 0, 0, null, packetBuffer));
+
+        ByteBuf frame = this.channel.readOutbound();
+        blackhole.consume(frame.readableBytes());
+        frame.release();
+    }
+}
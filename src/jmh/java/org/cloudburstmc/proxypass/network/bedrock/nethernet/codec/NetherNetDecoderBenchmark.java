@@ -0,0 +1,92 @@
+package org.cloudburstmc.proxypass.network.bedrock.nethernet.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.cloudburstmc.protocol.common.util.VarInts;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Splitting a NetherNet byte stream into frames when it arrives in data channel messages that do not line up with
+ * the frames. Compares the decoder that re-reads the length and catches an exception on a split length
+ * ({@code legacy}) with the one that keeps its state across messages.
+ * <p>
+ * One operation is one stream of about 2.5 MB, 2000 frames of mostly movement sized packets with some larger ones,
+ * fed in messages of {@code messageSize} bytes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NetherNetDecoderBenchmark {
+    private static final int FRAMES = 2000;
+
+    @Param({"legacy", "current"})
+    public String implementation;
+
+    @Param({"8", "128", "1200", "16384"})
+    public int messageSize;
+
+    private EmbeddedChannel channel;
+    private ByteBuf stream;
+    private long frames;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(0);
+        this.stream = PooledByteBufAllocator.DEFAULT.directBuffer();
+        byte[] payload = new byte[65536];
+        random.nextBytes(payload);
+        for (int i = 0; i < FRAMES; i++) {
+            int roll = random.nextInt(100);
+            int length;
+            if (roll < 80) {
+                length = 20 + random.nextInt(100);
+            } else if (roll < 98) {
+                length = 200 + random.nextInt(4000);
+            } else {
+                length = 16384 + random.nextInt(49152);
+            }
+            VarInts.writeUnsignedInt(this.stream, length);
+            this.stream.writeBytes(payload, 0, length);
+        }
+
+        this.channel = new EmbeddedChannel();
+        this.channel.pipeline().addLast(
+                this.implementation.equals("legacy") ? new LegacyNetherNetPacketDecoder() : new NetherNetPacketDecoder(),
+                new ChannelInboundHandlerAdapter() {
+                    @Override
+                    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                        NetherNetDecoderBenchmark.this.frames++;
+                        ((ByteBuf) msg).release();
+                    }
+                });
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.channel.finishAndReleaseAll();
+        this.stream.release();
+    }
+
+    @Benchmark
+    public long decode() {
+        long before = this.frames;
+        int length = this.stream.writerIndex();
+        for (int offset = 0; offset < length; offset += this.messageSize) {
+            this.channel.pipeline().fireChannelRead(this.stream.retainedSlice(offset, Math.min(this.messageSize, length - offset)));
+        }
+        long decoded = this.frames - before;
+        if (decoded != FRAMES) {
+            throw new IllegalStateException("Decoded " + decoded + " of " + FRAMES + " frames");
+        }
+        return decoded;
+    }
+}
@@ -0,0 +1,272 @@
+package org.cloudburstmc.proxypass.network.bedrock.session;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+import org.cloudburstmc.math.vector.Vector2f;
+import org.cloudburstmc.math.vector.Vector3f;
+import org.cloudburstmc.netty.channel.raknet.RakMessage;
+import org.cloudburstmc.protocol.bedrock.BedrockPeer;
+import org.cloudburstmc.protocol.bedrock.BedrockServerSession;
+import org.cloudburstmc.protocol.bedrock.BedrockSessionFactory;
+import org.cloudburstmc.protocol.bedrock.codec.BedrockCodec;
+import org.cloudburstmc.protocol.bedrock.data.ClientPlayMode;
+import org.cloudburstmc.protocol.bedrock.data.InputInteractionModel;
+import org.cloudburstmc.protocol.bedrock.data.InputMode;
+import org.cloudburstmc.protocol.bedrock.data.PacketCompressionAlgorithm;
+import org.cloudburstmc.protocol.bedrock.data.PlayerAuthInputData;
+import org.cloudburstmc.protocol.bedrock.data.entity.EntityDataTypes;
+import org.cloudburstmc.protocol.bedrock.data.entity.EntityFlag;
+import org.cloudburstmc.protocol.bedrock.netty.BedrockPacketWrapper;
+import org.cloudburstmc.protocol.bedrock.netty.codec.FrameIdCodec;
+import org.cloudburstmc.protocol.bedrock.netty.codec.batch.BedrockBatchDecoder;
+import org.cloudburstmc.protocol.bedrock.netty.codec.batch.BedrockBatchEncoder;
+import org.cloudburstmc.protocol.bedrock.netty.codec.packet.BedrockPacketCodec;
+import org.cloudburstmc.protocol.bedrock.netty.codec.packet.BedrockPacketCodec_v3;
+import org.cloudburstmc.protocol.bedrock.packet.*;
+import org.cloudburstmc.proxypass.Configuration;
+import org.cloudburstmc.proxypass.ProxyPass;
+import org.cloudburstmc.proxypass.network.bedrock.peer.ProxyBedrockPeer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end cost of forwarding one batch through the proxy: batch decode on one leg, session {@code onPacket} and
+ * handler dispatch, forwarding of the original payload and batch encode on the other leg. Both legs are
+ * {@link EmbeddedChannel}s with the RakNet pipeline of the protocol library, without encryption since replayed
+ * ciphertext would not match the cipher state.
+ * <p>
+ * One operation is one batch, run with {@code -prof gc} (the default of the jmh task) for the allocation rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ForwardingBenchmark {
+    private static final BedrockPacketHandler FORWARD_ALL = new BedrockPacketHandler() {
+    };
+
+    /**
+     * chunk: one level chunk, movement: 20 entity moves, entity-data: 20 entity data updates, input: one player auth
+     * input sent by the client, mixed: a chunk, 20 moves and 5 entity data updates
+     */
+    @Param({"chunk", "movement", "entity-data", "input", "mixed"})
+    public String traffic;
+
+    @Param({"true", "false"})
+    public boolean selectiveDecode;
+
+    @Param({"none", "zlib"})
+    public String compression;
+
+    private EmbeddedChannel upstream;
+    private EmbeddedChannel downstream;
+    private ProxyServerSession upstreamSession;
+    private ProxyClientSession downstreamSession;
+    // Leg the batch is received on and the one it is forwarded to
+    private EmbeddedChannel receiving;
+    private EmbeddedChannel forwarding;
+    private RakMessage batch;
+
+    @Setup
+    public void setup() throws IOException {
+        ProxyPass proxy = new ProxyPass();
+        proxy.init(Configuration.load(new ByteArrayInputStream(("log-packets: false\nselective-decode: "
+                + this.selectiveDecode + "\n").getBytes(StandardCharsets.UTF_8))));
+        BedrockCodec codec = proxy.getDecodePolicy().getCodec();
+        PacketCompressionAlgorithm algorithm = this.compression.equals("zlib")
+                ? PacketCompressionAlgorithm.ZLIB : PacketCompressionAlgorithm.NONE;
+
+        this.upstream = newChannel(codec, algorithm, (peer, subClientId) -> {
+            this.upstreamSession = new ProxyServerSession(peer, subClientId, proxy);
+            this.link();
+            return this.upstreamSession;
+        });
+        this.downstream = newChannel(codec, algorithm, (peer, subClientId) -> {
+            this.downstreamSession = new ProxyClientSession(peer, subClientId, proxy);
+            this.link();
+            return this.downstreamSession;
+        });
+
+        boolean clientBound = !this.traffic.equals("input");
+        this.receiving = clientBound ? this.downstream : this.upstream;
+        this.forwarding = clientBound ? this.upstream : this.downstream;
+        this.batch = encodeBatch(createPackets(this.traffic), algorithm);
+
+        // Sessions may only be created once their first packet arrives
+        this.upstream.writeInbound(encodeBatch(createPackets("input"), algorithm));
+        this.downstream.writeInbound(encodeBatch(createPackets("movement"), algorithm));
+        this.drain(this.upstream, null);
+        this.drain(this.downstream, null);
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.batch.release();
+        this.upstream.finishAndReleaseAll();
+        this.downstream.finishAndReleaseAll();
+    }
+
+    @Benchmark
+    public void forward(Blackhole blackhole) {
+        this.receiving.writeInbound(this.batch.retainedDuplicate());
+        this.drain(this.forwarding, blackhole);
+    }
+
+    private void link() {
+        if (this.upstreamSession == null || this.downstreamSession == null) {
+            return;
+        }
+        this.upstreamSession.setPacketHandler(FORWARD_ALL);
+        this.downstreamSession.setPacketHandler(FORWARD_ALL);
+        this.upstreamSession.setSendSession(this.downstreamSession);
+        this.downstreamSession.setSendSession(this.upstreamSession);
+    }
+
+    // Runs the send queue tick of the peer and consumes what it wrote
+    private void drain(EmbeddedChannel channel, Blackhole blackhole) {
+        channel.advanceTimeBy(50, TimeUnit.MILLISECONDS);
+        channel.runScheduledPendingTasks();
+        Object message;
+        while ((message = channel.readOutbound()) != null) {
+            if (blackhole != null) {
+                blackhole.consume(message);
+            }
+            ReferenceCountUtil.release(message);
+        }
+    }
+
+    private static EmbeddedChannel newChannel(BedrockCodec codec, PacketCompressionAlgorithm compression,
+                                              BedrockSessionFactory sessionFactory) {
+        EmbeddedChannel channel = new EmbeddedChannel(new ChannelInitializer<Channel>() {
+            @Override
+            protected void initChannel(Channel channel) {
+                // Same order as BedrockChannelInitializer, the peer adds its flush listener when constructed
+                channel.pipeline()
+                        .addLast(FrameIdCodec.NAME, new FrameIdCodec(0xfe))
+                        .addLast(BedrockBatchDecoder.NAME, new BedrockBatchDecoder())
+                        .addLast(BedrockBatchEncoder.NAME, new BedrockBatchEncoder())
+                        .addLast(BedrockPacketCodec.NAME, new BedrockPacketCodec_v3());
+                channel.pipeline().addLast(BedrockPeer.NAME, new ProxyBedrockPeer(channel, sessionFactory));
+            }
+        });
+        BedrockPeer peer = channel.pipeline().get(BedrockPeer.class);
+        peer.setCodec(codec);
+        if (compression != PacketCompressionAlgorithm.NONE) {
+            peer.setCompression(compression);
+        }
+        return channel;
+    }
+
+    /**
+     * Encodes packets the way a vanilla client or server would send them, by writing them through a sender pipeline.
+     */
+    private static RakMessage encodeBatch(List<BedrockPacket> packets, PacketCompressionAlgorithm compression) {
+        EmbeddedChannel sender = newChannel(ProxyPass.CODEC, compression, BedrockServerSession::new);
+        for (BedrockPacket packet : packets) {
+            sender.write(new BedrockPacketWrapper(0, 0, 0, packet, null));
+        }
+        sender.flush();
+
+        // The encoder writes everything of one flush as a single batch
+        RakMessage message = sender.readOutbound();
+        ByteBuf batch = Unpooled.directBuffer(message.content().readableBytes()).writeBytes(message.content());
+        message.release();
+        sender.finishAndReleaseAll();
+        return new RakMessage(batch);
+    }
+
+    private static List<BedrockPacket> createPackets(String traffic) {
+        List<BedrockPacket> packets = new ArrayList<>();
+        switch (traffic) {
+            case "chunk" -> packets.add(createChunk());
+            case "movement" -> addMovement(packets, 20);
+            case "entity-data" -> addEntityData(packets, 20);
+            case "input" -> packets.add(createInput());
+            case "mixed" -> {
+                packets.add(createChunk());
+                addMovement(packets, 20);
+                addEntityData(packets, 5);
+            }
+            default -> throw new IllegalArgumentException("Unknown traffic " + traffic);
+        }
+        return packets;
+    }
+
+    private static LevelChunkPacket createChunk() {
+        // Half random like the stand-in server, so compression does some but not all of the work of real chunks
+        byte[] data = new byte[16384];
+        new Random(0).nextBytes(data);
+        for (int i = 0; i < data.length; i += 2) {
+            data[i] = 0;
+        }
+        LevelChunkPacket chunk = new LevelChunkPacket();
+        chunk.setChunkX(3);
+        chunk.setChunkZ(-7);
+        chunk.setDimension(0);
+        chunk.setSubChunksLength(0);
+        chunk.setCachingEnabled(false);
+        chunk.setData(Unpooled.wrappedBuffer(data));
+        return chunk;
+    }
+
+    private static void addMovement(List<BedrockPacket> packets, int count) {
+        for (int i = 0; i < count; i++) {
+            MoveEntityAbsolutePacket move = new MoveEntityAbsolutePacket();
+            move.setRuntimeEntityId(100 + i);
+            move.setPosition(Vector3f.from(12.5f + i, 64, -3.25f * i));
+            move.setRotation(Vector3f.from(0, i * 17 % 360, i * 17 % 360));
+            move.setOnGround(true);
+            packets.add(move);
+        }
+    }
+
+    private static void addEntityData(List<BedrockPacket> packets, int count) {
+        for (int i = 0; i < count; i++) {
+            SetEntityDataPacket data = new SetEntityDataPacket();
+            data.setRuntimeEntityId(100 + i);
+            data.getMetadata().put(EntityDataTypes.NAME, "Pig " + i);
+            data.getMetadata().put(EntityDataTypes.SCALE, 1f);
+            data.getMetadata().put(EntityDataTypes.WIDTH, 0.9f);
+            data.getMetadata().put(EntityDataTypes.HEIGHT, 0.9f);
+            data.getMetadata().put(EntityDataTypes.AIR_SUPPLY, (short) 300);
+            data.getMetadata().setFlag(EntityFlag.HAS_GRAVITY, true);
+            data.getMetadata().setFlag(EntityFlag.BREATHING, true);
+            data.setTick(i);
+            packets.add(data);
+        }
+    }
+
+    private static PlayerAuthInputPacket createInput() {
+        PlayerAuthInputPacket input = new PlayerAuthInputPacket();
+        input.setPosition(Vector3f.from(4, 64, 0));
+        input.setRotation(Vector3f.from(0, 90, 90));
+        input.setMotion(Vector2f.from(0, 1));
+        input.setDelta(Vector3f.ZERO);
+        input.setAnalogMoveVector(Vector2f.from(0, 1));
+        input.setRawMoveVector(Vector2f.from(0, 1));
+        input.setVehicleRotation(Vector2f.ZERO);
+        input.setInteractRotation(Vector2f.ZERO);
+        input.setCameraOrientation(Vector3f.ZERO);
+        input.getInputData().addAll(EnumSet.of(PlayerAuthInputData.UP, PlayerAuthInputData.VERTICAL_COLLISION));
+        input.setInputMode(InputMode.MOUSE);
+        input.setPlayMode(ClientPlayMode.NORMAL);
+        input.setInputInteractionModel(InputInteractionModel.CROSSHAIR);
+        input.setTick(1);
+        return input;
+    }
+}
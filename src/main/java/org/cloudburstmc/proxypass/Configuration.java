@@ -37,12 +37,44 @@ public class Configuration {
     private int maxClients = 0;
     @JsonProperty("log-to")
     private LogTo logTo = LogTo.FILE;
+    @JsonProperty("capture-packets")
+    private boolean capturePackets = false;
+    @JsonProperty("capture-segment-size")
+    private int captureSegmentSize = 64;
+    @JsonProperty("log-queue-size")
+    private int logQueueSize = 65536;
     @JsonProperty("enable-ui")
     private boolean enableUi = false;
     @JsonProperty("follow-transfers")
     private boolean followTransfers = true;
     @JsonProperty("download-packs")
     private boolean downloadPacks = true;
+    @JsonProperty("selective-decode")
+    private boolean selectiveDecode = true;
+    @JsonProperty("io-transport")
+    private String ioTransport = "auto";
+    @JsonProperty("listeners")
+    private int listeners = 1;
+    @JsonProperty("login-threads")
+    private int loginThreads = 0;
+    @JsonProperty("pack-threads")
+    private int packThreads = 0;
+    @JsonProperty("pack-virtual-threads")
+    private boolean packVirtualThreads = false;
+    @JsonProperty("pack-cache-size")
+    private long packCacheSize = 4096;
+    @JsonProperty("serve-cached-packs")
+    private boolean serveCachedPacks = false;
+    @JsonProperty("pack-download-connections")
+    private int packDownloadConnections = 4;
+    @JsonProperty("client-blob-cache-size")
+    private long clientBlobCacheSize = 64;
+    @JsonProperty("metrics-port")
+    private int metricsPort = 0;
+    @JsonProperty("forward-latency-sample-rate")
+    private int forwardLatencySampleRate = 16;
+    @JsonProperty("compression")
+    private Compression compression = new Compression();
 
     @JsonProperty("invert-ignored-list")
     private boolean invertIgnoredList = false;
@@ -97,4 +129,23 @@ public class Configuration {
         @JsonProperty("transport")
         private String transport = "raknet";
     }
+
+    @Getter
+    @ToString
+    public static class Compression {
+        private CompressionLeg client = new CompressionLeg();
+        private CompressionLeg server = new CompressionLeg();
+    }
+
+    @Getter
+    @ToString
+    public static class CompressionLeg {
+        // zlib, snappy, none or negotiated: what the server asked for, zlib toward the client
+        private String algorithm = "negotiated";
+        private int level = 7;
+        private int threshold = 256;
+        private boolean adaptive = false;
+        @JsonProperty("min-savings")
+        private long minSavings = 4096;
+    }
 }
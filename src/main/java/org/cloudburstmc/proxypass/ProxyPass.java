@@ -25,9 +25,11 @@ import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFactory;
 import io.netty.channel.ChannelFuture;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
 import io.netty.util.ResourceLeakDetector;
+import io.netty.util.concurrent.DefaultThreadFactory;
 import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
@@ -51,15 +53,25 @@ import org.cloudburstmc.protocol.bedrock.data.EncodingSettings;
 import org.cloudburstmc.protocol.bedrock.data.definitions.BlockDefinition;
 import org.cloudburstmc.protocol.bedrock.netty.initializer.BedrockChannelInitializer;
 import org.cloudburstmc.protocol.common.DefinitionRegistry;
+import org.cloudburstmc.proxypass.metrics.MetricsHttpServer;
+import org.cloudburstmc.proxypass.metrics.ProxyMetrics;
+import org.cloudburstmc.proxypass.network.IoTransport;
+import org.cloudburstmc.proxypass.network.bedrock.cache.ClientBlobCache;
 import org.cloudburstmc.proxypass.network.bedrock.jackson.ColorDeserializer;
 import org.cloudburstmc.proxypass.network.bedrock.jackson.ColorSerializer;
 import org.cloudburstmc.proxypass.network.bedrock.jackson.NbtDefinitionSerializer;
+import org.cloudburstmc.proxypass.network.bedrock.logging.PacketLogWriter;
 import org.cloudburstmc.proxypass.network.bedrock.nethernet.initializer.NetherNetBedrockChannelInitializer;
+import org.cloudburstmc.proxypass.network.bedrock.peer.ProxyBedrockPeer;
 import org.cloudburstmc.proxypass.network.bedrock.session.Account;
+import org.cloudburstmc.proxypass.network.bedrock.session.CdnDownloader;
+import org.cloudburstmc.proxypass.network.bedrock.session.PackCache;
+import org.cloudburstmc.proxypass.network.bedrock.session.PackProcessor;
 import org.cloudburstmc.proxypass.network.bedrock.session.ProxyClientSession;
 import org.cloudburstmc.proxypass.network.bedrock.session.ProxyServerSession;
 import org.cloudburstmc.proxypass.network.bedrock.session.ServerAddress;
 import org.cloudburstmc.proxypass.network.bedrock.session.UpstreamPacketHandler;
+import org.cloudburstmc.proxypass.network.bedrock.util.DecodePolicy;
 import org.cloudburstmc.proxypass.network.bedrock.util.NbtBlockDefinitionRegistry;
 import org.cloudburstmc.proxypass.network.bedrock.util.UnknownBlockDefinitionRegistry;
 import org.cloudburstmc.proxypass.ui.PacketInspector;
@@ -80,8 +92,12 @@ import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 
@@ -96,6 +112,13 @@ public class ProxyPass {
     public static final YAMLMapper YAML_MAPPER = (YAMLMapper) new YAMLMapper().disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
     public static final String MINECRAFT_VERSION;
 
+    public static final EncodingSettings ENCODING_SETTINGS = EncodingSettings.builder()
+            .maxListSize(Integer.MAX_VALUE)
+            .maxByteArraySize(Integer.MAX_VALUE)
+            .maxNetworkNBTSize(Integer.MAX_VALUE)
+            .maxItemNBTSize(Integer.MAX_VALUE)
+            .maxStringLength(Integer.MAX_VALUE)
+            .build();
     public static final BedrockCodecHelper HELPER = Bedrock_v924.CODEC.createHelper();
     public static final BedrockCodec CODEC = Bedrock_v924.CODEC
         .toBuilder()
@@ -115,6 +138,7 @@ public class ProxyPass {
             .subMotd("https://github.com/CloudburstMC/ProxyPass")
             .nintendoLimited(false);
     private static final DefaultPrettyPrinter PRETTY_PRINTER;
+    private static final int LOGIN_QUEUE_SIZE = 256;
     public static Map<Integer, String> legacyIdMap = new HashMap<>();
 
     static {
@@ -138,20 +162,25 @@ public class ProxyPass {
         JSON_MAPPER = new ObjectMapper().registerModule(MODULE).disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES).setDefaultPrettyPrinter(PRETTY_PRINTER);
         MINECRAFT_VERSION = CODEC.getMinecraftVersion();
 
-        HELPER.setEncodingSettings(EncodingSettings.builder()
-            .maxListSize(Integer.MAX_VALUE)
-            .maxByteArraySize(Integer.MAX_VALUE)
-            .maxNetworkNBTSize(Integer.MAX_VALUE)
-            .maxItemNBTSize(Integer.MAX_VALUE)
-            .maxStringLength(Integer.MAX_VALUE)
-            .build());
+        HELPER.setEncodingSettings(ENCODING_SETTINGS);
     }
 
     private final AtomicBoolean running = new AtomicBoolean(true);
 
-    private final NioEventLoopGroup eventLoopGroup = new NioEventLoopGroup();
-    
+    private IoTransport ioTransport;
+    private EventLoopGroup eventLoopGroup;
+    private ExecutorService loginExecutor;
+    private PackProcessor packProcessor;
+    private ClientBlobCache clientBlobCache;
+    private ProxyMetrics metrics;
+    @Getter(AccessLevel.NONE)
+    private MetricsHttpServer metricsServer;
+
     private final Set<Channel> clients = ConcurrentHashMap.newKeySet();
+    private final List<Channel> listeners = new ArrayList<>();
+    // RakNet listeners bound with SO_REUSEPORT, each on its own event loop
+    @Getter(AccessLevel.NONE)
+    private int listenerCount = 1;
     @Getter(AccessLevel.NONE)
     private final Set<Class<?>> ignoredPackets = Collections.newSetFromMap(new IdentityHashMap<>());
     private Channel server;
@@ -168,6 +197,7 @@ public class ProxyPass {
     private Path dataDir;
     private DefinitionRegistry<BlockDefinition> blockDefinitions;
     private DefinitionRegistry<BlockDefinition> blockDefinitionsHashed;
+    private DecodePolicy decodePolicy;
     private static Account account;
     private XboxSessionManager xboxSessionManager;
 
@@ -193,7 +223,7 @@ public class ProxyPass {
             Files.copy(ProxyPass.class.getClassLoader().getResourceAsStream("config.yml"), configPath, StandardCopyOption.REPLACE_EXISTING);
         }
 
-        configuration = Configuration.load(configPath);
+        this.init(Configuration.load(configPath));
 
         if (configuration.isEnableUi()) {
             log.info("Starting Packet Inspector UI...");
@@ -206,13 +236,15 @@ public class ProxyPass {
         onlineMode = configuration.isOnlineMode();
         saveAuthDetails = configuration.isSaveAuthDetails();
 
-        configuration.getIgnoredPackets().forEach(s -> {
-            try {
-                ignoredPackets.add(Class.forName("org.cloudburstmc.protocol.bedrock.packet." + s));
-            } catch (ClassNotFoundException e) {
-                log.warn("No packet with name {}", s);
-            }
-        });
+        int loginThreads = configuration.getLoginThreads() > 0
+                ? configuration.getLoginThreads()
+                : Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+        // Bounded so a login storm is rejected instead of queueing up crypto work without limit.
+        ThreadPoolExecutor loginPool = new ThreadPoolExecutor(loginThreads, loginThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(LOGIN_QUEUE_SIZE), new DefaultThreadFactory("proxypass-login", true));
+        loginExecutor = loginPool;
+        metrics.registerGauge("proxypass_login_queue_depth", "Logins waiting for a login thread", false,
+                () -> loginPool.getQueue().size());
 
         baseDir = Paths.get(".").toAbsolutePath();
         sessionsDir = baseDir.resolve("sessions");
@@ -220,6 +252,13 @@ public class ProxyPass {
         Files.createDirectories(sessionsDir);
         Files.createDirectories(dataDir);
 
+        clientBlobCache = new ClientBlobCache(configuration.getClientBlobCacheSize() * 1024 * 1024, metrics);
+        PackCache packCache = new PackCache(baseDir.resolve("pack-cache"), configuration.getPackCacheSize() * 1024 * 1024,
+                configuration.isServeCachedPacks(), metrics);
+        CdnDownloader cdnDownloader = new CdnDownloader(baseDir.resolve("pack-downloads"), configuration.getPackDownloadConnections(), metrics);
+        packProcessor = new PackProcessor(configuration.getPackThreads(), configuration.isPackVirtualThreads(), packCache,
+                cdnDownloader, metrics);
+
         HttpClient client = null;
         if (onlineMode) {
             log.info("Online mode is enabled. Starting auth process...");
@@ -251,6 +290,17 @@ public class ProxyPass {
 
         String listenerTransport = configuration.getProxy().getTransport();
         boolean isNetherNetListener = "nethernet".equalsIgnoreCase(listenerTransport);
+        boolean isNetherNetDestination = "nethernet".equalsIgnoreCase(configuration.getDestination().getTransport());
+
+        // Both legs of a session share an event loop, so NetherNet on either side keeps the whole proxy on NIO.
+        if (isNetherNetListener || isNetherNetDestination) {
+            this.ioTransport = IoTransport.NIO;
+        } else {
+            this.ioTransport = IoTransport.resolve(configuration.getIoTransport());
+        }
+        this.eventLoopGroup = this.ioTransport.newEventLoopGroup(0);
+        log.info("Using {} transport", this.ioTransport);
+        this.startMetrics();
 
         ADVERTISEMENT.ipv4Port(this.proxyAddress.getPort())
                 .ipv6Port(this.proxyAddress.getPort());
@@ -309,6 +359,7 @@ public class ProxyPass {
                 throw new IOException("Failed to bind NetherNet server to " + this.proxyAddress, future.cause());
             }
             this.server = future.channel();
+            this.listeners.add(this.server);
 
             if (this.xboxSessionManager != null) {
                 try {
@@ -322,38 +373,96 @@ public class ProxyPass {
             log.info("NetherNet server started on {}", proxyAddress);
 
         } else {
-            ChannelFuture future = new ServerBootstrap()
-                    .group(this.eventLoopGroup)
-                    .channelFactory(RakChannelFactory.server(NioDatagramChannel.class))
-                    .option(RakChannelOption.RAK_ADVERTISEMENT, ADVERTISEMENT.toByteBuf())
-                    .option(RakChannelOption.RAK_IP_DONT_FRAGMENT, true)
-                    .childHandler(new BedrockChannelInitializer<ProxyServerSession>() {
-                        @Override
-                        protected ProxyServerSession createSession0(BedrockPeer peer, int subClientId) {
-                            return new ProxyServerSession(peer, subClientId, ProxyPass.this);
-                        }
+            int listenerCount = 1;
+            ChannelOption<Boolean> reusePort = this.ioTransport.getReusePortOption();
+            if (configuration.getListeners() > 1) {
+                if (reusePort != null) {
+                    listenerCount = configuration.getListeners();
+                } else {
+                    log.warn("{} transport does not support SO_REUSEPORT, binding a single listener", this.ioTransport);
+                }
+            }
 
-                        @Override
-                        protected void initSession(ProxyServerSession session) {
-                            session.setPacketHandler(new UpstreamPacketHandler(session, ProxyPass.this, account));
-                        }
-                    })
-                    .bind(this.proxyAddress)
-                    .awaitUninterruptibly();
-            
-            if (!future.isSuccess()) {
-                throw new IOException("Failed to bind RakNet server to " + this.proxyAddress, future.cause());
+            for (int i = 0; i < listenerCount; i++) {
+                ServerBootstrap bootstrap = new ServerBootstrap()
+                        .group(this.eventLoopGroup)
+                        .channelFactory(RakChannelFactory.server(this.ioTransport.getDatagramChannel()))
+                        .option(RakChannelOption.RAK_ADVERTISEMENT, ADVERTISEMENT.toByteBuf())
+                        .option(RakChannelOption.RAK_IP_DONT_FRAGMENT, true)
+                        .childHandler(new BedrockChannelInitializer<ProxyServerSession>() {
+                            @Override
+                            protected BedrockPeer createPeer(Channel channel) {
+                                return new ProxyBedrockPeer(channel, this::createSession);
+                            }
+
+                            @Override
+                            protected ProxyServerSession createSession0(BedrockPeer peer, int subClientId) {
+                                return new ProxyServerSession(peer, subClientId, ProxyPass.this);
+                            }
+
+                            @Override
+                            protected void initSession(ProxyServerSession session) {
+                                session.setPacketHandler(new UpstreamPacketHandler(session, ProxyPass.this, account));
+                            }
+                        });
+
+                if (listenerCount > 1) {
+                    // Each listener is registered to the next event loop, the kernel spreads datagrams between them.
+                    bootstrap.option(reusePort, true);
+                }
+
+                ChannelFuture future = bootstrap.bind(this.proxyAddress).awaitUninterruptibly();
+
+                if (!future.isSuccess()) {
+                    throw new IOException("Failed to bind RakNet server to " + this.proxyAddress, future.cause());
+                }
+                Channel channel = future.channel();
+                channel.pipeline().remove(RakServerRateLimiter.NAME);
+                this.listeners.add(channel);
             }
-            this.server = future.channel();
-            
-            this.server.pipeline().remove(RakServerRateLimiter.NAME);
-            log.info("Bedrock server started on {}", proxyAddress);
+            this.server = this.listeners.get(0);
+            this.listenerCount = listenerCount;
+
+            log.info("Bedrock server started on {} with {} {} listener(s)", proxyAddress, listenerCount, this.ioTransport);
         }
 
         loop();
     }
 
-    public void newClient(SocketAddress socketAddress, Consumer<ProxyClientSession> sessionConsumer) {
+    /**
+     * Applies the packet related parts of the configuration without binding or connecting anything, so sessions can
+     * also be driven by embedded benchmarks.
+     */
+    public void init(Configuration configuration) {
+        this.configuration = configuration;
+
+        configuration.getIgnoredPackets().forEach(s -> {
+            try {
+                ignoredPackets.add(Class.forName("org.cloudburstmc.protocol.bedrock.packet." + s));
+            } catch (ClassNotFoundException e) {
+                log.warn("No packet with name {}", s);
+            }
+        });
+
+        decodePolicy = DecodePolicy.create(this, CODEC);
+        metrics = new ProxyMetrics(CODEC);
+    }
+
+    /**
+     * Picks the event loop for the downstream channel of a session. Upstream channels share the event loop of the
+     * listener they arrived on, so with several listeners they are spread over the group and the downstream channel
+     * joins its upstream channel's loop. With a single listener every upstream channel is on one loop, so downstream
+     * channels are spread over the group instead and forwards cross loops.
+     */
+    public EventLoop getDownstreamEventLoop(EventLoop upstreamLoop) {
+        return this.listenerCount > 1 ? upstreamLoop : this.eventLoopGroup.next();
+    }
+
+    /**
+     * Connects to the downstream server. The connection is registered to the given event loop, so both legs of a
+     * player session can share a thread. Completion is reported through the returned future.
+     */
+    public ChannelFuture newClient(SocketAddress socketAddress, EventLoop eventLoop, Consumer<ProxyClientSession> sessionConsumer) {
         String transport = this.configuration.getDestination().getTransport();
         boolean isNetherNet = "nethernet".equalsIgnoreCase(transport);
 
@@ -378,23 +487,21 @@ public class ProxyPass {
 
             channelFactory = NetherNetChannelFactory.client(new PeerConnectionFactory(), signaling);
         } else {
-            channelFactory = RakChannelFactory.client(NioDatagramChannel.class);
+            channelFactory = RakChannelFactory.client(this.ioTransport.getDatagramChannel());
         }
 
         Bootstrap bootstrap = new Bootstrap()
-                .group(this.eventLoopGroup)
+                .group(eventLoop != null ? eventLoop : this.eventLoopGroup)
                 .channelFactory(channelFactory);
 
         if (!isNetherNet) {
-            bootstrap
-                .option(RakChannelOption.RAK_PROTOCOL_VERSION, ProxyPass.CODEC.getRaknetProtocolVersion())
-                .option(RakChannelOption.RAK_COMPATIBILITY_MODE, true)
-                .option(RakChannelOption.RAK_IP_DONT_FRAGMENT, true)
-                .option(RakChannelOption.RAK_MTU_SIZES, new Integer[]{1492, 1200, 576})
-                .option(RakChannelOption.RAK_CLIENT_INTERNAL_ADDRESSES, 20)
-                .option(RakChannelOption.RAK_TIME_BETWEEN_SEND_CONNECTION_ATTEMPTS_MS, 500)
-                .option(RakChannelOption.RAK_GUID, ThreadLocalRandom.current().nextLong())
+            configureRakClient(bootstrap)
                 .handler(new BedrockChannelInitializer<ProxyClientSession>() {
+                    @Override
+                    protected BedrockPeer createPeer(Channel channel) {
+                        return new ProxyBedrockPeer(channel, this::createSession);
+                    }
+
                     @Override
                     protected ProxyClientSession createSession0(BedrockPeer peer, int subClientId) {
                         return new ProxyClientSession(peer, subClientId, ProxyPass.this);
@@ -421,15 +528,48 @@ public class ProxyPass {
                 });
         }
 
-        ChannelFuture future = bootstrap.connect(socketAddress).awaitUninterruptibly();
+        // Never block here, this is usually called from the event loop the client is registered to.
+        ChannelFuture future = bootstrap.connect(socketAddress);
+        future.addListener((ChannelFuture connectFuture) -> {
+            if (!connectFuture.isSuccess()) {
+                log.error("Failed to connect to downstream server {}: {}", socketAddress, connectFuture.cause().getMessage());
+                return;
+            }
 
-        if (!future.isSuccess()) {
-            log.error("Failed to connect to downstream server {}: {}", socketAddress, future.cause().getMessage());
-            throw new RuntimeException("Downstream connection failed", future.cause());
-        }
+            Channel channel = connectFuture.channel();
+            this.clients.add(channel);
+            channel.closeFuture().addListener(closeFuture -> this.clients.remove(channel));
+        });
+        return future;
+    }
+
+    /**
+     * Applies the RakNet options used for connections to a Bedrock server.
+     */
+    public static Bootstrap configureRakClient(Bootstrap bootstrap) {
+        return bootstrap
+                .option(RakChannelOption.RAK_PROTOCOL_VERSION, ProxyPass.CODEC.getRaknetProtocolVersion())
+                .option(RakChannelOption.RAK_COMPATIBILITY_MODE, true)
+                .option(RakChannelOption.RAK_IP_DONT_FRAGMENT, true)
+                .option(RakChannelOption.RAK_MTU_SIZES, new Integer[]{1492, 1200, 576})
+                .option(RakChannelOption.RAK_CLIENT_INTERNAL_ADDRESSES, 20)
+                .option(RakChannelOption.RAK_TIME_BETWEEN_SEND_CONNECTION_ATTEMPTS_MS, 500)
+                .option(RakChannelOption.RAK_GUID, ThreadLocalRandom.current().nextLong());
+    }
 
-        Channel channel = future.channel();
-        this.clients.add(channel);
+    private void startMetrics() throws IOException {
+        this.metrics.registerGauge("proxypass_local_forwards_total",
+                "Forwarded packets queued from the event loop of the receiving peer", true, ProxyBedrockPeer::getLocalForwards);
+        this.metrics.registerGauge("proxypass_cross_loop_forwards_total",
+                "Forwarded packets handed over from another event loop", true, ProxyBedrockPeer::getCrossLoopForwards);
+        this.metrics.registerGauge("proxypass_decode_failures_total",
+                "Packets which failed to decode", true, ProxyBedrockPeer::getDecodeFailures);
+        this.metrics.start(this.eventLoopGroup);
+
+        if (this.configuration.getMetricsPort() > 0) {
+            this.metricsServer = new MetricsHttpServer(this.metrics, this.configuration.getMetricsPort());
+            this.metricsServer.start();
+        }
     }
 
     private void loop() {
@@ -444,10 +584,23 @@ public class ProxyPass {
 
         }
 
+        log.info("Forwarded packets on the same event loop: {}, handed over from another loop: {}",
+                ProxyBedrockPeer.getLocalForwards(), ProxyBedrockPeer.getCrossLoopForwards());
+
         this.clients.forEach(Channel::disconnect);
-        this.server.disconnect();
+        this.listeners.forEach(Channel::disconnect);
+
+        if (this.metricsServer != null) {
+            this.metricsServer.close();
+        }
+        this.metrics.stop();
         
         this.eventLoopGroup.shutdownGracefully();
+        // The writer is a daemon thread, unflushed logs and capture indexes would be lost on exit
+        PacketLogWriter.shutdown();
+        this.loginExecutor.shutdown();
+        this.packProcessor.close();
+        this.clientBlobCache.clear();
     }
 
     public void shutdown() {
@@ -489,7 +642,10 @@ public class ProxyPass {
     }
 
     public Object loadGzipNBT(String dataName) {
-        Path path = dataDir.resolve(dataName);
+        return loadGzipNBT(dataDir.resolve(dataName));
+    }
+
+    public static Object loadGzipNBT(Path path) {
         try (InputStream inputStream = Files.newInputStream(path);
             NBTInputStream nbtInputStream = NbtUtils.createGZIPReader(inputStream)) {
             return nbtInputStream.readTag();
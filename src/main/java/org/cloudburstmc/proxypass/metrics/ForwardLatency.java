@@ -0,0 +1,105 @@
+package org.cloudburstmc.proxypass.metrics;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Time in microseconds between a packet being decoded on one leg of the proxy and its payload being flushed on the
+ * other, per leg and per packet ID, of all sessions. Sessions record into their own {@link SessionForwardLatency},
+ * which is added here when the session closes, so the forwarding path never touches these histograms. Sessions still
+ * open are added to a snapshot of the totals when the metrics are rendered.
+ */
+public class ForwardLatency {
+    static final int PACKET_IDS = 1024;
+
+    private final LatencyHistogram[] legs = {new LatencyHistogram(), new LatencyHistogram()};
+    // Indexed by [upstream ? 0 : 1][packet ID]
+    @SuppressWarnings("unchecked")
+    private final AtomicReferenceArray<LatencyHistogram>[] packets = new AtomicReferenceArray[]{
+            new AtomicReferenceArray<>(PACKET_IDS), new AtomicReferenceArray<>(PACKET_IDS)
+    };
+    // Open sessions. A session is added to the totals and removed from here under this, so a snapshot never counts it
+    // twice.
+    private final Set<SessionForwardLatency> sessions = ConcurrentHashMap.newKeySet();
+
+    void open(SessionForwardLatency session) {
+        this.sessions.add(session);
+    }
+
+    synchronized void close(SessionForwardLatency session) {
+        if (this.sessions.remove(session)) {
+            session.addTo(this);
+        }
+    }
+
+    void add(boolean upstream, LocalHistogram leg) {
+        leg.mergeInto(this.legs[upstream ? 0 : 1]);
+    }
+
+    void add(boolean upstream, int packetId, LocalHistogram packet) {
+        AtomicReferenceArray<LatencyHistogram> histograms = this.packets[upstream ? 0 : 1];
+        LatencyHistogram histogram = histograms.get(packetId);
+        if (histogram == null) {
+            histograms.compareAndSet(packetId, null, new LatencyHistogram());
+            histogram = histograms.get(packetId);
+        }
+        packet.mergeInto(histogram);
+    }
+
+    /**
+     * @return histogram of the closed sessions
+     */
+    public LatencyHistogram getLeg(boolean upstream) {
+        return this.legs[upstream ? 0 : 1];
+    }
+
+    /**
+     * @return histogram of the packet ID in closed sessions or null if none of its packets was forwarded in this
+     * direction
+     */
+    public LatencyHistogram get(boolean upstream, int packetId) {
+        return this.packets[upstream ? 0 : 1].get(packetId & (PACKET_IDS - 1));
+    }
+
+    void appendMetrics(StringBuilder builder, ProxyMetrics metrics) {
+        LocalHistogram[] legs = new LocalHistogram[2];
+        LocalHistogram[][] packets = new LocalHistogram[2][PACKET_IDS];
+        synchronized (this) {
+            for (int direction = 0; direction < 2; direction++) {
+                legs[direction] = new LocalHistogram();
+                this.legs[direction].addTo(legs[direction]);
+                for (int id = 0; id < PACKET_IDS; id++) {
+                    LatencyHistogram histogram = this.packets[direction].get(id);
+                    if (histogram != null) {
+                        histogram.addTo(packets[direction][id] = new LocalHistogram());
+                    }
+                }
+            }
+            for (SessionForwardLatency session : this.sessions) {
+                session.addTo(legs, packets);
+            }
+        }
+
+        ProxyMetrics.header(builder, "proxypass_forward_latency_microseconds",
+                "Time from decoding a packet on one leg to flushing it on the other, sampled", "summary");
+        for (int direction = 0; direction < 2; direction++) {
+            String label = "direction=\"" + (direction == 0 ? "serverbound" : "clientbound") + '"';
+            ProxyMetrics.appendSummary(builder, "proxypass_forward_latency_microseconds", label, legs[direction]);
+        }
+
+        ProxyMetrics.header(builder, "proxypass_packet_forward_latency_microseconds",
+                "Time from decoding a packet on one leg to flushing it on the other per packet type, sampled", "summary");
+        for (int direction = 0; direction < 2; direction++) {
+            for (int id = 0; id < PACKET_IDS; id++) {
+                LocalHistogram histogram = packets[direction][id];
+                if (histogram == null) {
+                    continue;
+                }
+                String labels = "direction=\"" + (direction == 0 ? "serverbound" : "clientbound") + "\",packet=\""
+                        + metrics.getPacketName(id) + "\",id=\"" + id + '"';
+                ProxyMetrics.appendSummary(builder, "proxypass_packet_forward_latency_microseconds", labels, histogram);
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package org.cloudburstmc.proxypass.metrics;
+
+import java.util.Arrays;
+
+/**
+ * {@link LatencyHistogram} buckets recorded by a single thread, without atomics. The bucket array only grows up to the
+ * largest value recorded, so a histogram of microsecond latencies stays a few hundred longs. Other threads may read a
+ * slightly stale state.
+ */
+public class LocalHistogram {
+    private long[] counts = new long[0];
+    private long count;
+    private long sum;
+    private long max;
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        int index = LatencyHistogram.index(value);
+        long[] counts = this.counts;
+        if (index >= counts.length) {
+            counts = Arrays.copyOf(counts, Math.min(LatencyHistogram.BUCKETS, Math.max(index + 1, counts.length * 2)));
+            this.counts = counts;
+        }
+        counts[index]++;
+        this.count++;
+        this.sum += value;
+        if (value > this.max) {
+            this.max = value;
+        }
+    }
+
+    public long getCount() {
+        return this.count;
+    }
+
+    public long getMax() {
+        return this.max;
+    }
+
+    public long getSum() {
+        return this.sum;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     */
+    public long getPercentile(double percentile) {
+        long total = this.count;
+        if (total == 0) {
+            return 0;
+        }
+        long[] counts = this.counts;
+        long target = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(LatencyHistogram.value(i), this.max);
+            }
+        }
+        return this.max;
+    }
+
+    public String summary(String unit) {
+        return String.format("p50=%d%s p90=%d%s p99=%d%s p99.9=%d%s max=%d%s (n=%d)",
+                this.getPercentile(50), unit, this.getPercentile(90), unit, this.getPercentile(99), unit,
+                this.getPercentile(99.9), unit, this.max, unit, this.count);
+    }
+
+    void mergeInto(LatencyHistogram histogram) {
+        histogram.add(this.counts, this.count, this.sum, this.max);
+    }
+
+    /**
+     * Adds the values of another histogram, which may still be recorded to by its own thread.
+     */
+    void add(LocalHistogram histogram) {
+        this.add(histogram.counts, histogram.count, histogram.sum, histogram.max);
+    }
+
+    void add(long[] counts, long count, long sum, long max) {
+        if (counts.length > this.counts.length) {
+            this.counts = Arrays.copyOf(this.counts, counts.length);
+        }
+        for (int i = 0; i < counts.length; i++) {
+            this.counts[i] += counts[i];
+        }
+        this.count += count;
+        this.sum += sum;
+        this.max = Math.max(this.max, max);
+    }
+}
@@ -0,0 +1,53 @@
+package org.cloudburstmc.proxypass.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves {@link ProxyMetrics#scrape()} on {@code /metrics} of the loopback interface. Scrapes are answered from the
+ * single server thread, they only read counters.
+ */
+@Log4j2
+public class MetricsHttpServer implements AutoCloseable {
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final HttpServer server;
+
+    public MetricsHttpServer(ProxyMetrics metrics, int port) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.server.createContext("/metrics", exchange -> this.respond(exchange, metrics));
+    }
+
+    public void start() {
+        this.server.start();
+        log.info("Metrics available on http://{}:{}/metrics", this.server.getAddress().getHostString(),
+                this.server.getAddress().getPort());
+    }
+
+    private void respond(HttpExchange exchange, ProxyMetrics metrics) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = metrics.scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream stream = exchange.getResponseBody()) {
+                stream.write(body);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        this.server.stop(0);
+    }
+}
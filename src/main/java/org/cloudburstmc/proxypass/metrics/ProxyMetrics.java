@@ -0,0 +1,271 @@
+package org.cloudburstmc.proxypass.metrics;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.internal.PlatformDependent;
+import lombok.Getter;
+import org.cloudburstmc.protocol.bedrock.codec.BedrockCodec;
+import org.cloudburstmc.protocol.bedrock.codec.BedrockPacketDefinition;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleToLongFunction;
+import java.util.function.LongSupplier;
+
+/**
+ * Live counters of the proxy, rendered in the Prometheus text exposition format by {@link MetricsHttpServer}.
+ * Recording from event loops never allocates or locks.
+ */
+public class ProxyMetrics {
+    // Packet IDs are 10 bits in the packet header
+    private static final int PACKET_IDS = 1024;
+    private static final long PROBE_INTERVAL_MILLIS = 500;
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+
+    private final String[] packetNames = new String[PACKET_IDS];
+    // Indexed by [upstream ? 0 : 1][packet ID]
+    private final LongAdder[][] packets = new LongAdder[2][PACKET_IDS];
+    private final LongAdder[][] bytes = new LongAdder[2][PACKET_IDS];
+    // Indexed by [clientbound ? 0 : 1]
+    private final LongAdder[] compressionInput = {new LongAdder(), new LongAdder()};
+    private final LongAdder[] compressionOutput = {new LongAdder(), new LongAdder()};
+    private final LongAdder[] compressionNanos = {new LongAdder(), new LongAdder()};
+    @Getter
+    private final AtomicLong activeSessions = new AtomicLong();
+    @Getter
+    private final LongAdder sessions = new LongAdder();
+    @Getter
+    private final LongAdder logDropped = new LongAdder();
+    @Getter
+    private final LongAdder packChunkBytes = new LongAdder();
+    @Getter
+    private final LongAdder packDownloadBytes = new LongAdder();
+    @Getter
+    private final LongAdder packDecryptBytes = new LongAdder();
+    @Getter
+    private final LongAdder packServedBytes = new LongAdder();
+    @Getter
+    private final LongAdder packsProcessed = new LongAdder();
+    @Getter
+    private final LongAdder packFailures = new LongAdder();
+    @Getter
+    private final LatencyHistogram eventLoopLatency = new LatencyHistogram();
+    @Getter
+    private final LatencyHistogram packProcessingTime = new LatencyHistogram();
+    @Getter
+    private final ForwardLatency forwardLatency = new ForwardLatency();
+    // Sorted so the stages are scraped in a stable order
+    private final Map<String, LatencyHistogram> loginStages = new ConcurrentSkipListMap<>();
+    private final Map<String, Gauge> gauges = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService prober;
+
+    public ProxyMetrics(BedrockCodec codec) {
+        for (int id = 0; id < PACKET_IDS; id++) {
+            BedrockPacketDefinition<?> definition = id < codec.getPacketsByIdLength() ? codec.getPacketDefinition(id) : null;
+            this.packetNames[id] = definition != null ? definition.getFactory().get().getClass().getSimpleName() : "Unknown" + id;
+            for (int direction = 0; direction < 2; direction++) {
+                this.packets[direction][id] = new LongAdder();
+                this.bytes[direction][id] = new LongAdder();
+            }
+        }
+    }
+
+    /**
+     * @param length uncompressed and decrypted length of the packet including its header
+     */
+    public void onPacket(boolean upstream, int packetId, int length) {
+        int direction = upstream ? 0 : 1;
+        int id = packetId & (PACKET_IDS - 1);
+        this.packets[direction][id].increment();
+        this.bytes[direction][id].add(length);
+    }
+
+    /**
+     * @param clientbound whether the batch is sent to the client
+     * @param input       uncompressed length of the batch
+     * @param output      length of the batch as sent, equal to the input for batches sent uncompressed
+     */
+    public void onCompressed(boolean clientbound, int input, int output, long nanos) {
+        int leg = clientbound ? 0 : 1;
+        this.compressionInput[leg].add(input);
+        this.compressionOutput[leg].add(output);
+        this.compressionNanos[leg].add(nanos);
+    }
+
+    public void onSessionStarted() {
+        this.activeSessions.incrementAndGet();
+        this.sessions.increment();
+    }
+
+    public void onSessionClosed() {
+        this.activeSessions.decrementAndGet();
+    }
+
+    public long getPackets(boolean upstream, int packetId) {
+        return this.packets[upstream ? 0 : 1][packetId & (PACKET_IDS - 1)].sum();
+    }
+
+    public long getBytes(boolean upstream, int packetId) {
+        return this.bytes[upstream ? 0 : 1][packetId & (PACKET_IDS - 1)].sum();
+    }
+
+    /**
+     * @param stage label of the login stage, histograms are created on first use
+     */
+    public LatencyHistogram getLoginStageTime(String stage) {
+        return this.loginStages.computeIfAbsent(stage, ignored -> new LatencyHistogram());
+    }
+
+    public String getPacketName(int packetId) {
+        return this.packetNames[packetId & (PACKET_IDS - 1)];
+    }
+
+    /**
+     * Registers a value owned by another component. Registering a name again replaces the previous supplier.
+     *
+     * @param counter whether the value only ever increases
+     */
+    public void registerGauge(String name, String help, boolean counter, LongSupplier supplier) {
+        this.gauges.put(name, new Gauge(help, counter, supplier));
+    }
+
+    /**
+     * Starts measuring how long tasks wait in the queues of the event loops.
+     */
+    public synchronized void start(EventLoopGroup group) {
+        if (this.prober != null) {
+            return;
+        }
+        this.prober = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("proxypass-metrics", true));
+        this.prober.scheduleAtFixedRate(() -> {
+            for (EventExecutor executor : group) {
+                long submitted = System.nanoTime();
+                try {
+                    executor.execute(() -> this.eventLoopLatency.record(
+                            TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - submitted)));
+                } catch (Exception e) {
+                    // The group is shutting down
+                }
+            }
+        }, PROBE_INTERVAL_MILLIS, PROBE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (this.prober != null) {
+            this.prober.shutdownNow();
+            this.prober = null;
+        }
+    }
+
+    public String scrape() {
+        StringBuilder builder = new StringBuilder(16384);
+
+        header(builder, "proxypass_packets_total", "Packets received per direction and packet type", "counter");
+        this.appendPackets(builder, "proxypass_packets_total", this.packets);
+        header(builder, "proxypass_packet_bytes_total", "Uncompressed bytes received per direction and packet type", "counter");
+        this.appendPackets(builder, "proxypass_packet_bytes_total", this.bytes);
+
+        appendValue(builder, "proxypass_sessions_active", "Player sessions currently connected", "gauge", this.activeSessions.get());
+        appendValue(builder, "proxypass_sessions_total", "Player sessions since start", "counter", this.sessions.sum());
+        appendValue(builder, "proxypass_log_dropped_total", "Packets dropped from packet logs and captures", "counter", this.logDropped.sum());
+        appendValue(builder, "proxypass_pack_chunk_bytes_total", "Resource pack bytes received in chunks", "counter", this.packChunkBytes.sum());
+        appendValue(builder, "proxypass_pack_download_bytes_total", "Resource pack bytes downloaded from CDNs", "counter", this.packDownloadBytes.sum());
+        appendValue(builder, "proxypass_pack_decrypt_bytes_total", "Resource pack bytes decrypted", "counter", this.packDecryptBytes.sum());
+        appendValue(builder, "proxypass_pack_served_bytes_total", "Resource pack chunk bytes answered from the pack cache", "counter", this.packServedBytes.sum());
+        appendValue(builder, "proxypass_packs_processed_total", "Resource packs written and decrypted", "counter", this.packsProcessed.sum());
+        appendValue(builder, "proxypass_pack_failures_total", "Resource packs which failed to download or decrypt", "counter", this.packFailures.sum());
+        appendValue(builder, "proxypass_heap_used_bytes", "Heap in use, including garbage not collected yet", "gauge",
+                MEMORY.getHeapMemoryUsage().getUsed());
+        appendValue(builder, "proxypass_direct_memory_bytes", "Direct memory held by Netty, -1 if it is not tracked", "gauge",
+                PlatformDependent.usedDirectMemory());
+
+        header(builder, "proxypass_compression_input_bytes_total", "Bytes of outbound batches before compression", "counter");
+        appendLegs(builder, "proxypass_compression_input_bytes_total", this.compressionInput);
+        header(builder, "proxypass_compression_output_bytes_total", "Bytes of outbound batches after compression", "counter");
+        appendLegs(builder, "proxypass_compression_output_bytes_total", this.compressionOutput);
+        header(builder, "proxypass_compression_cpu_nanoseconds_total", "CPU time spent compressing outbound batches", "counter");
+        appendLegs(builder, "proxypass_compression_cpu_nanoseconds_total", this.compressionNanos);
+
+        for (Map.Entry<String, Gauge> entry : this.gauges.entrySet()) {
+            Gauge gauge = entry.getValue();
+            appendValue(builder, entry.getKey(), gauge.help(), gauge.counter() ? "counter" : "gauge", gauge.supplier().getAsLong());
+        }
+
+        header(builder, "proxypass_event_loop_delay_microseconds", "Time tasks wait in an event loop queue", "summary");
+        appendSummary(builder, "proxypass_event_loop_delay_microseconds", "", this.eventLoopLatency);
+        header(builder, "proxypass_pack_processing_milliseconds", "Time to write and decrypt a resource pack", "summary");
+        appendSummary(builder, "proxypass_pack_processing_milliseconds", "", this.packProcessingTime);
+        header(builder, "proxypass_login_stage_milliseconds", "Time each stage of a login takes", "summary");
+        for (Map.Entry<String, LatencyHistogram> entry : this.loginStages.entrySet()) {
+            appendSummary(builder, "proxypass_login_stage_milliseconds", "stage=\"" + entry.getKey() + '"', entry.getValue());
+        }
+        this.forwardLatency.appendMetrics(builder, this);
+        return builder.toString();
+    }
+
+    private void appendPackets(StringBuilder builder, String name, LongAdder[][] values) {
+        for (int direction = 0; direction < 2; direction++) {
+            for (int id = 0; id < PACKET_IDS; id++) {
+                long value = values[direction][id].sum();
+                if (value == 0) {
+                    continue;
+                }
+                builder.append(name).append("{direction=\"").append(direction == 0 ? "serverbound" : "clientbound")
+                        .append("\",packet=\"").append(this.packetNames[id]).append("\",id=\"").append(id).append("\"} ")
+                        .append(value).append('\n');
+            }
+        }
+    }
+
+    private static void appendLegs(StringBuilder builder, String name, LongAdder[] values) {
+        builder.append(name).append("{direction=\"clientbound\"} ").append(values[0].sum()).append('\n');
+        builder.append(name).append("{direction=\"serverbound\"} ").append(values[1].sum()).append('\n');
+    }
+
+    public static void header(StringBuilder builder, String name, String help, String type) {
+        builder.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        builder.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void appendValue(StringBuilder builder, String name, String help, String type, long value) {
+        header(builder, name, help, type);
+        builder.append(name).append(' ').append(value).append('\n');
+    }
+
+    /**
+     * @param labels rendered labels without braces, empty for none
+     */
+    public static void appendSummary(StringBuilder builder, String name, String labels, LatencyHistogram histogram) {
+        appendSummary(builder, name, labels, histogram::getPercentile, histogram.getSum(), histogram.getCount());
+    }
+
+    static void appendSummary(StringBuilder builder, String name, String labels, LocalHistogram histogram) {
+        appendSummary(builder, name, labels, histogram::getPercentile, histogram.getSum(), histogram.getCount());
+    }
+
+    private static void appendSummary(StringBuilder builder, String name, String labels, DoubleToLongFunction percentile,
+                                      long sum, long count) {
+        String prefix = labels.isEmpty() ? "" : labels + ',';
+        for (double quantile : QUANTILES) {
+            builder.append(name).append("{").append(prefix).append("quantile=\"").append(quantile).append("\"} ")
+                    .append(percentile.applyAsLong(quantile * 100)).append('\n');
+        }
+        String suffix = labels.isEmpty() ? "" : '{' + labels + '}';
+        builder.append(name).append("_sum").append(suffix).append(' ').append(sum).append('\n');
+        builder.append(name).append("_count").append(suffix).append(' ').append(count).append('\n');
+    }
+
+    private record Gauge(String help, boolean counter, LongSupplier supplier) {
+    }
+}
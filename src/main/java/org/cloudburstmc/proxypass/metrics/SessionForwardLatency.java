@@ -0,0 +1,119 @@
+package org.cloudburstmc.proxypass.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Forward latency of one session, recorded for one in {@code sampleRate} forwarded packets. Each direction is only
+ * recorded by the peer flushing it, on its own event loop, so the histograms are plain single writer ones. They are
+ * added to the proxy wide {@link ForwardLatency} when the session closes, and to its snapshots while it is open.
+ */
+public class SessionForwardLatency {
+    private final ForwardLatency totals;
+    private final int sampleRate;
+    private final LocalHistogram[] legs = {new LocalHistogram(), new LocalHistogram()};
+    // Indexed by [upstream ? 0 : 1][packet ID], created when first recorded
+    private final LocalHistogram[][] packets = new LocalHistogram[2][ForwardLatency.PACKET_IDS];
+
+    /**
+     * @param sampleRate records one in this many forwarded packets, at least 1
+     */
+    public SessionForwardLatency(ForwardLatency totals, int sampleRate) {
+        this.totals = totals;
+        this.sampleRate = Math.max(1, sampleRate);
+        totals.open(this);
+    }
+
+    /**
+     * @return whether the forward of the packet about to be queued should be recorded
+     */
+    public boolean sample() {
+        return this.sampleRate == 1 || ThreadLocalRandom.current().nextInt(this.sampleRate) == 0;
+    }
+
+    /**
+     * Only called from the event loop of the peer forwarding in this direction.
+     *
+     * @param upstream whether the packet was sent by the client
+     */
+    public void record(boolean upstream, int packetId, long micros) {
+        int direction = upstream ? 0 : 1;
+        this.legs[direction].record(micros);
+
+        LocalHistogram[] histograms = this.packets[direction];
+        int id = packetId & (ForwardLatency.PACKET_IDS - 1);
+        LocalHistogram histogram = histograms[id];
+        if (histogram == null) {
+            histogram = histograms[id] = new LocalHistogram();
+        }
+        histogram.record(micros);
+    }
+
+    /**
+     * Adds the session to the proxy totals, once. Packets flushed after this are not counted there.
+     */
+    public void close() {
+        this.totals.close(this);
+    }
+
+    void addTo(ForwardLatency totals) {
+        for (int direction = 0; direction < 2; direction++) {
+            boolean upstream = direction == 0;
+            totals.add(upstream, this.legs[direction]);
+            LocalHistogram[] histograms = this.packets[direction];
+            for (int id = 0; id < histograms.length; id++) {
+                if (histograms[id] != null) {
+                    totals.add(upstream, id, histograms[id]);
+                }
+            }
+        }
+    }
+
+    // Adds the session as recorded so far to a snapshot, indexed like the histograms of the session
+    void addTo(LocalHistogram[] legs, LocalHistogram[][] packets) {
+        for (int direction = 0; direction < 2; direction++) {
+            legs[direction].add(this.legs[direction]);
+            LocalHistogram[] histograms = this.packets[direction];
+            for (int id = 0; id < histograms.length; id++) {
+                LocalHistogram histogram = histograms[id];
+                if (histogram == null) {
+                    continue;
+                }
+                if (packets[direction][id] == null) {
+                    packets[direction][id] = new LocalHistogram();
+                }
+                packets[direction][id].add(histogram);
+            }
+        }
+    }
+
+    /**
+     * Renders one line per leg and per forwarded packet type, slowest first by p99.
+     */
+    public String summary(ProxyMetrics metrics) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("Sampled 1 in ").append(this.sampleRate).append(" forwarded packets").append(System.lineSeparator());
+        for (int direction = 0; direction < 2; direction++) {
+            String leg = direction == 0 ? "SERVER BOUND" : "CLIENT BOUND";
+            builder.append(leg).append(": ").append(this.legs[direction].summary("us")).append(System.lineSeparator());
+
+            LocalHistogram[] histograms = this.packets[direction];
+            Integer[] ids = new Integer[histograms.length];
+            // Taken once, the histograms may still be recorded to while sorting
+            long[] p99 = new long[histograms.length];
+            int count = 0;
+            for (int id = 0; id < histograms.length; id++) {
+                if (histograms[id] != null) {
+                    p99[id] = histograms[id].getPercentile(99);
+                    ids[count++] = id;
+                }
+            }
+            Arrays.sort(ids, 0, count, (a, b) -> Long.compare(p99[b], p99[a]));
+            for (int i = 0; i < count; i++) {
+                builder.append("    ").append(metrics.getPacketName(ids[i])).append(": ")
+                        .append(histograms[ids[i]].summary("us")).append(System.lineSeparator());
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,101 @@
+package org.cloudburstmc.proxypass.network;
+
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.DatagramChannel;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.incubator.channel.uring.IOUring;
+import io.netty.incubator.channel.uring.IOUringChannelOption;
+import io.netty.incubator.channel.uring.IOUringDatagramChannel;
+import io.netty.incubator.channel.uring.IOUringEventLoopGroup;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Netty transport used for the UDP sockets of the proxy. Native transports are only available on Linux and support
+ * SO_REUSEPORT, which lets several listener channels share one port.
+ */
+@Log4j2
+public enum IoTransport {
+    NIO,
+    EPOLL,
+    IO_URING;
+
+    public boolean isAvailable() {
+        return switch (this) {
+            case NIO -> true;
+            case EPOLL -> Epoll.isAvailable();
+            case IO_URING -> IOUring.isAvailable();
+        };
+    }
+
+    public Throwable unavailabilityCause() {
+        return switch (this) {
+            case NIO -> null;
+            case EPOLL -> Epoll.unavailabilityCause();
+            case IO_URING -> IOUring.unavailabilityCause();
+        };
+    }
+
+    public EventLoopGroup newEventLoopGroup(int threads) {
+        return switch (this) {
+            case NIO -> new NioEventLoopGroup(threads);
+            case EPOLL -> new EpollEventLoopGroup(threads);
+            case IO_URING -> new IOUringEventLoopGroup(threads);
+        };
+    }
+
+    public Class<? extends DatagramChannel> getDatagramChannel() {
+        return switch (this) {
+            case NIO -> NioDatagramChannel.class;
+            case EPOLL -> EpollDatagramChannel.class;
+            case IO_URING -> IOUringDatagramChannel.class;
+        };
+    }
+
+    /**
+     * @return the SO_REUSEPORT option of this transport or null if it is not supported
+     */
+    public ChannelOption<Boolean> getReusePortOption() {
+        return switch (this) {
+            case NIO -> null;
+            case EPOLL -> EpollChannelOption.SO_REUSEPORT;
+            case IO_URING -> IOUringChannelOption.SO_REUSEPORT;
+        };
+    }
+
+    /**
+     * Resolves the configured transport name. Unavailable native transports fall back to NIO.
+     *
+     * @param name auto, nio, epoll or io_uring
+     */
+    public static IoTransport resolve(String name) {
+        if (name == null || name.equalsIgnoreCase("auto")) {
+            if (EPOLL.isAvailable()) {
+                return EPOLL;
+            }
+            if (IO_URING.isAvailable()) {
+                return IO_URING;
+            }
+            return NIO;
+        }
+
+        IoTransport transport;
+        try {
+            transport = IoTransport.valueOf(name.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            log.warn("Unknown io-transport {}, using NIO", name);
+            return NIO;
+        }
+
+        if (!transport.isAvailable()) {
+            log.warn("{} transport is not available, using NIO", transport, transport.unavailabilityCause());
+            return NIO;
+        }
+        return transport;
+    }
+}
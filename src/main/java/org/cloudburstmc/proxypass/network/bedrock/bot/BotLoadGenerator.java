@@ -0,0 +1,336 @@
+package org.cloudburstmc.proxypass.network.bedrock.bot;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.EventLoopGroup;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import org.cloudburstmc.netty.channel.raknet.RakChannelFactory;
+import org.cloudburstmc.protocol.bedrock.BedrockClientSession;
+import org.cloudburstmc.protocol.bedrock.BedrockPeer;
+import org.cloudburstmc.protocol.bedrock.codec.BedrockCodec;
+import org.cloudburstmc.protocol.bedrock.data.auth.AuthType;
+import org.cloudburstmc.protocol.bedrock.data.auth.CertificateChainPayload;
+import org.cloudburstmc.protocol.bedrock.netty.initializer.BedrockChannelInitializer;
+import org.cloudburstmc.protocol.bedrock.packet.*;
+import org.cloudburstmc.protocol.bedrock.util.EncryptionUtils;
+import org.cloudburstmc.proxypass.ProxyPass;
+import org.cloudburstmc.proxypass.metrics.LatencyHistogram;
+import org.cloudburstmc.proxypass.network.IoTransport;
+import org.cloudburstmc.proxypass.network.bedrock.session.AuthData;
+import org.cloudburstmc.proxypass.network.bedrock.util.DecodePolicy;
+import org.cloudburstmc.proxypass.network.bedrock.util.ForgeryUtils;
+import org.jose4j.json.internal.json_simple.JSONObject;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Opens many simulated clients against a ProxyPass listener. Each bot logs in with an offline self-signed chain, then
+ * sends {@link PlayerAuthInputPacket}s at a fixed rate and a {@link NetworkStackLatencyPacket} probe every second.
+ * <p>
+ * Probes are only answered by servers which echo them, like the stand-in server. Given {@code direct=<host:port>} of
+ * that server, the same load first runs against it without the proxy and the difference between the round trip
+ * percentiles is reported as the latency the proxy adds. Given {@code metrics=<port>} of the proxy's metrics endpoint
+ * on this host, the growth of the proxy's heap and direct memory per logged in bot is reported.
+ * <p>
+ * Usage: {@code BotLoadGenerator <host:port> [bots=100] [rate=20] [duration=60] [ramp=10] [radius=4]
+ * [direct=host:port] [metrics=port]}
+ */
+@Log4j2
+@Getter
+public class BotLoadGenerator {
+    // Bots only decode what they respond to, everything else stays an UnknownPacket
+    private static final BedrockCodec CODEC = DecodePolicy.retainOnly(ProxyPass.CODEC, Set.of(
+            RequestNetworkSettingsPacket.class,
+            NetworkSettingsPacket.class,
+            LoginPacket.class,
+            ServerToClientHandshakePacket.class,
+            ClientToServerHandshakePacket.class,
+            PlayStatusPacket.class,
+            ResourcePacksInfoPacket.class,
+            ResourcePackStackPacket.class,
+            ResourcePackClientResponsePacket.class,
+            StartGamePacket.class,
+            RequestChunkRadiusPacket.class,
+            SetLocalPlayerAsInitializedPacket.class,
+            PlayerAuthInputPacket.class,
+            NetworkStackLatencyPacket.class,
+            DisconnectPacket.class
+    ));
+    private static final int REPORT_INTERVAL_SECONDS = 5;
+    private static final HttpClient HTTP = HttpClient.newHttpClient();
+
+    private final InetSocketAddress address;
+    private final int bots;
+    private final int inputRate;
+    private final int chunkRadius;
+    // Metrics endpoint of the proxy under load, null when the target is not a proxy or it is not known
+    private final URI metricsUri;
+
+    private final LatencyHistogram loginLatency = new LatencyHistogram();
+    private final LatencyHistogram roundTrip = new LatencyHistogram();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final AtomicInteger connected = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    public BotLoadGenerator(InetSocketAddress address, int bots, int inputRate, int chunkRadius, URI metricsUri) {
+        this.address = address;
+        this.bots = bots;
+        this.inputRate = inputRate;
+        this.chunkRadius = chunkRadius;
+        this.metricsUri = metricsUri;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: BotLoadGenerator <host:port> [bots=100] [rate=20] [duration=60] [ramp=10] [radius=4]"
+                    + " [direct=host:port] [metrics=port]");
+            return;
+        }
+        Map<String, String> options = new HashMap<>(Map.of(
+                "bots", "100", "rate", "20", "duration", "60", "ramp", "10", "radius", "4"));
+        for (int i = 1; i < args.length; i++) {
+            String[] option = args[i].split("=", 2);
+            options.put(option[0], option[1]);
+        }
+        int bots = Integer.parseInt(options.get("bots"));
+        int rate = Integer.parseInt(options.get("rate"));
+        int radius = Integer.parseInt(options.get("radius"));
+        int ramp = Integer.parseInt(options.get("ramp"));
+        int duration = Integer.parseInt(options.get("duration"));
+        URI metricsUri = options.containsKey("metrics")
+                ? URI.create("http://127.0.0.1:" + options.get("metrics") + "/metrics") : null;
+
+        BotLoadGenerator baseline = null;
+        if (options.containsKey("direct")) {
+            log.info("Running the baseline directly against {}", options.get("direct"));
+            baseline = new BotLoadGenerator(parseAddress(options.get("direct")), bots, rate, radius, null);
+            baseline.run(ramp, duration);
+        }
+
+        BotLoadGenerator generator = new BotLoadGenerator(parseAddress(args[0]), bots, rate, radius, metricsUri);
+        generator.run(ramp, duration);
+        if (baseline != null) {
+            log.info("Latency added by the proxy: p50 {}us, p90 {}us, p99 {}us, p99.9 {}us",
+                    generator.addedLatency(baseline, 50), generator.addedLatency(baseline, 90),
+                    generator.addedLatency(baseline, 99), generator.addedLatency(baseline, 99.9));
+        }
+    }
+
+    private static InetSocketAddress parseAddress(String address) {
+        int separator = address.lastIndexOf(':');
+        return new InetSocketAddress(address.substring(0, separator), Integer.parseInt(address.substring(separator + 1)));
+    }
+
+    public void run(int rampSeconds, int durationSeconds) throws InterruptedException {
+        IoTransport transport = IoTransport.resolve("auto");
+        EventLoopGroup group = transport.newEventLoopGroup(0);
+        List<Channel> channels = new ArrayList<>(this.bots);
+
+        long[] memoryBefore = this.scrapeProxyMemory();
+        long start = System.nanoTime();
+        try {
+            long spacingNanos = this.bots > 1 ? TimeUnit.SECONDS.toNanos(rampSeconds) / (this.bots - 1) : 0;
+            for (int i = 0; i < this.bots; i++) {
+                long due = start + i * spacingNanos;
+                long delay = due - System.nanoTime();
+                if (delay > 0) {
+                    TimeUnit.NANOSECONDS.sleep(delay);
+                }
+                ChannelFuture future = this.connect(group, transport, i);
+                future.addListener(f -> {
+                    if (!f.isSuccess()) {
+                        this.failed.incrementAndGet();
+                        log.debug("Bot failed to connect", f.cause());
+                    }
+                });
+                channels.add(future.channel());
+            }
+
+            long end = start + TimeUnit.SECONDS.toNanos(rampSeconds + durationSeconds);
+            long lastSent = 0, lastReceived = 0;
+            while (System.nanoTime() < end) {
+                TimeUnit.SECONDS.sleep(REPORT_INTERVAL_SECONDS);
+                long sent = this.sent.sum(), received = this.received.sum();
+                log.info("{}/{} bots logged in, {} failed, {} packets/sec sent, {} packets/sec received, round trip {}",
+                        this.connected.get(), this.bots, this.failed.get(),
+                        (sent - lastSent) / REPORT_INTERVAL_SECONDS, (received - lastReceived) / REPORT_INTERVAL_SECONDS,
+                        this.roundTrip.summary("us"));
+                lastSent = sent;
+                lastReceived = received;
+            }
+
+            long[] memoryAfter = this.scrapeProxyMemory();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            int sessions = Math.max(1, this.connected.get());
+            log.info("Logged in {} of {} bots, {} failed", this.connected.get(), this.bots, this.failed.get());
+            log.info("Login time: {}", this.loginLatency.summary("ms"));
+            log.info("Round trip: {}", this.roundTrip.summary("us"));
+            log.info("Packets: {} sent ({}/sec), {} received ({}/sec)", this.sent.sum(), (long) (this.sent.sum() / seconds),
+                    this.received.sum(), (long) (this.received.sum() / seconds));
+            if (memoryBefore != null && memoryAfter != null) {
+                log.info("Proxy heap per session: {} KB, proxy direct memory per session: {} KB",
+                        (memoryAfter[0] - memoryBefore[0]) / 1024 / sessions,
+                        (memoryAfter[1] - memoryBefore[1]) / 1024 / sessions);
+            }
+        } finally {
+            channels.forEach(Channel::close);
+            group.shutdownGracefully().syncUninterruptibly();
+        }
+    }
+
+    private ChannelFuture connect(EventLoopGroup group, IoTransport transport, int index) {
+        KeyPair keyPair = EncryptionUtils.createKeyPair();
+        String name = "Bot" + index;
+        AuthData authData = new AuthData(name, UUID.nameUUIDFromBytes(name.getBytes(StandardCharsets.UTF_8)), "");
+
+        LoginPacket login = new LoginPacket();
+        login.setAuthPayload(new CertificateChainPayload(List.of(ForgeryUtils.forgeOfflineAuthData(keyPair, authData)),
+                AuthType.SELF_SIGNED));
+        login.setClientJwt(ForgeryUtils.forgeOfflineSkinData(keyPair, createSkinData(name)));
+        login.setProtocolVersion(ProxyPass.PROTOCOL_VERSION);
+
+        Bootstrap bootstrap = new Bootstrap()
+                .group(group)
+                .channelFactory(RakChannelFactory.client(transport.getDatagramChannel()));
+        return ProxyPass.configureRakClient(bootstrap)
+                .handler(new BedrockChannelInitializer<BedrockClientSession>() {
+                    @Override
+                    protected BedrockClientSession createSession0(BedrockPeer peer, int subClientId) {
+                        return new BedrockClientSession(peer, subClientId);
+                    }
+
+                    @Override
+                    protected void initSession(BedrockClientSession session) {
+                        session.setCodec(CODEC);
+                        session.setPacketHandler(new BotPacketHandler(session, BotLoadGenerator.this, login, keyPair));
+
+                        RequestNetworkSettingsPacket packet = new RequestNetworkSettingsPacket();
+                        packet.setProtocolVersion(ProxyPass.PROTOCOL_VERSION);
+                        session.sendPacketImmediately(packet);
+                        sent.increment();
+                    }
+                })
+                .connect(this.address);
+    }
+
+    void onLoggedIn() {
+        this.connected.incrementAndGet();
+    }
+
+    void onDisconnect(boolean loggedIn, CharSequence reason) {
+        if (loggedIn) {
+            this.connected.decrementAndGet();
+        } else {
+            this.failed.incrementAndGet();
+        }
+        log.debug("Bot disconnected: {}", reason);
+    }
+
+    /**
+     * @return difference between the round trip percentiles of this run and the baseline, in microseconds
+     */
+    public long addedLatency(BotLoadGenerator baseline, double percentile) {
+        return this.roundTrip.getPercentile(percentile) - baseline.roundTrip.getPercentile(percentile);
+    }
+
+    // Heap and direct memory used by the proxy, null if its metrics endpoint is not known or could not be read
+    private long[] scrapeProxyMemory() throws InterruptedException {
+        if (this.metricsUri == null) {
+            return null;
+        }
+        HttpRequest request = HttpRequest.newBuilder(this.metricsUri).timeout(Duration.ofSeconds(5)).build();
+        try {
+            HttpResponse<Stream<String>> response = HTTP.send(request, HttpResponse.BodyHandlers.ofLines());
+            long[] memory = {-1, -1};
+            try (Stream<String> lines = response.body()) {
+                lines.forEach(line -> {
+                    if (line.startsWith("proxypass_heap_used_bytes ")) {
+                        memory[0] = Long.parseLong(line.substring(line.indexOf(' ') + 1));
+                    } else if (line.startsWith("proxypass_direct_memory_bytes ")) {
+                        memory[1] = Long.parseLong(line.substring(line.indexOf(' ') + 1));
+                    }
+                });
+            }
+            return memory;
+        } catch (IOException e) {
+            log.warn("Unable to read the proxy's metrics from {}", this.metricsUri, e);
+            return null;
+        }
+    }
+
+    /**
+     * Minimal client data of a classic skin which servers accept.
+     */
+    @SuppressWarnings("unchecked")
+    private static JSONObject createSkinData(String name) {
+        Base64.Encoder base64 = Base64.getEncoder();
+        JSONObject skin = new JSONObject();
+        skin.put("SkinId", "Standard_Custom");
+        skin.put("SkinData", base64.encodeToString(new byte[64 * 64 * 4]));
+        skin.put("SkinImageWidth", 64);
+        skin.put("SkinImageHeight", 64);
+        skin.put("SkinResourcePatch", base64.encodeToString(
+                "{\"geometry\":{\"default\":\"geometry.humanoid.custom\"}}".getBytes(StandardCharsets.UTF_8)));
+        skin.put("SkinGeometryData", "");
+        skin.put("SkinGeometryDataEngineVersion", "");
+        skin.put("SkinAnimationData", "");
+        skin.put("SkinColor", "#0");
+        skin.put("ArmSize", "wide");
+        skin.put("CapeData", "");
+        skin.put("CapeId", "");
+        skin.put("CapeImageWidth", 0);
+        skin.put("CapeImageHeight", 0);
+        skin.put("CapeOnClassicSkin", false);
+        skin.put("AnimatedImageData", new ArrayList<>());
+        skin.put("PersonaPieces", new ArrayList<>());
+        skin.put("PieceTintColors", new ArrayList<>());
+        skin.put("PersonaSkin", false);
+        skin.put("PremiumSkin", false);
+        skin.put("TrustedSkin", false);
+        skin.put("OverrideSkin", false);
+        skin.put("ClientRandomId", name.hashCode());
+        skin.put("SelfSignedId", UUID.randomUUID().toString());
+        skin.put("DeviceId", UUID.randomUUID().toString());
+        skin.put("DeviceModel", "ProxyPass Bot");
+        skin.put("DeviceOS", 7);
+        skin.put("GameVersion", ProxyPass.MINECRAFT_VERSION);
+        skin.put("LanguageCode", "en_US");
+        skin.put("ThirdPartyName", name);
+        skin.put("PlayFabId", "");
+        skin.put("PlatformOfflineId", "");
+        skin.put("PlatformOnlineId", "");
+        skin.put("CurrentInputMode", 1);
+        skin.put("DefaultInputMode", 1);
+        skin.put("UIProfile", 0);
+        skin.put("GuiScale", 0);
+        skin.put("GraphicsMode", 1);
+        skin.put("MaxViewDistance", 16);
+        skin.put("MemoryTier", 0);
+        skin.put("PlatformType", 0);
+        skin.put("CompatibleWithClientSideChunkGen", false);
+        skin.put("IsEditorMode", false);
+        return skin;
+    }
+}
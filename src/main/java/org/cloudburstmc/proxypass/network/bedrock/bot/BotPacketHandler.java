@@ -0,0 +1,211 @@
+package org.cloudburstmc.proxypass.network.bedrock.bot;
+
+import io.netty.util.concurrent.ScheduledFuture;
+import lombok.extern.log4j.Log4j2;
+import org.cloudburstmc.math.vector.Vector2f;
+import org.cloudburstmc.math.vector.Vector3f;
+import org.cloudburstmc.protocol.bedrock.BedrockClientSession;
+import org.cloudburstmc.protocol.bedrock.data.ClientPlayMode;
+import org.cloudburstmc.protocol.bedrock.data.InputInteractionModel;
+import org.cloudburstmc.protocol.bedrock.data.InputMode;
+import org.cloudburstmc.protocol.bedrock.data.PacketCompressionAlgorithm;
+import org.cloudburstmc.protocol.bedrock.data.PlayerAuthInputData;
+import org.cloudburstmc.protocol.bedrock.packet.*;
+import org.cloudburstmc.protocol.bedrock.util.EncryptionUtils;
+import org.cloudburstmc.protocol.bedrock.util.JsonUtils;
+import org.cloudburstmc.protocol.common.PacketSignal;
+import org.jose4j.json.JsonUtil;
+import org.jose4j.json.internal.json_simple.JSONObject;
+import org.jose4j.jws.JsonWebSignature;
+import org.jose4j.jwx.HeaderParameterNames;
+
+import javax.crypto.SecretKey;
+import java.security.KeyPair;
+import java.security.interfaces.ECPublicKey;
+import java.util.Base64;
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives one simulated client: the login sequence the proxy expects, then player input at a fixed rate and a latency
+ * probe every second. Runs entirely on the event loop of its session.
+ */
+@Log4j2
+public class BotPacketHandler implements BedrockPacketHandler {
+    private final BedrockClientSession session;
+    private final BotLoadGenerator generator;
+    private final LoginPacket loginPacket;
+    private final KeyPair keyPair;
+    private final long connectNanos = System.nanoTime();
+
+    private ScheduledFuture<?> inputTask;
+    private ScheduledFuture<?> probeTask;
+    private boolean loggedIn;
+    private Vector3f spawn = Vector3f.ZERO;
+    private long tick;
+
+    public BotPacketHandler(BedrockClientSession session, BotLoadGenerator generator, LoginPacket loginPacket, KeyPair keyPair) {
+        this.session = session;
+        this.generator = generator;
+        this.loginPacket = loginPacket;
+        this.keyPair = keyPair;
+    }
+
+    @Override
+    public PacketSignal handlePacket(BedrockPacket packet) {
+        this.generator.getReceived().increment();
+        BedrockPacketHandler.super.handlePacket(packet);
+        return PacketSignal.HANDLED;
+    }
+
+    @Override
+    public PacketSignal handle(NetworkSettingsPacket packet) {
+        if (packet.getCompressionThreshold() > 0) {
+            this.session.setCompression(packet.getCompressionAlgorithm());
+        } else {
+            this.session.setCompression(PacketCompressionAlgorithm.NONE);
+        }
+        this.send(this.loginPacket);
+        return PacketSignal.HANDLED;
+    }
+
+    @Override
+    public PacketSignal handle(ServerToClientHandshakePacket packet) {
+        try {
+            JsonWebSignature jws = new JsonWebSignature();
+            jws.setCompactSerialization(packet.getJwt());
+            JSONObject saltJwt = new JSONObject(JsonUtil.parseJson(jws.getUnverifiedPayload()));
+            ECPublicKey serverKey = EncryptionUtils.parseKey(jws.getHeader(HeaderParameterNames.X509_URL));
+            SecretKey key = EncryptionUtils.getSecretKey(this.keyPair.getPrivate(), serverKey,
+                    Base64.getDecoder().decode(JsonUtils.childAsType(saltJwt, "salt", String.class)));
+            this.session.enableEncryption(key);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        this.send(new ClientToServerHandshakePacket());
+        return PacketSignal.HANDLED;
+    }
+
+    @Override
+    public PacketSignal handle(PlayStatusPacket packet) {
+        switch (packet.getStatus()) {
+            case LOGIN_SUCCESS -> {
+                this.loggedIn = true;
+                this.generator.getLoginLatency().record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.connectNanos));
+                this.generator.onLoggedIn();
+            }
+            case PLAYER_SPAWN -> {
+                SetLocalPlayerAsInitializedPacket initialized = new SetLocalPlayerAsInitializedPacket();
+                this.send(initialized);
+            }
+            default -> log.warn("Bot login failed: {}", packet.getStatus());
+        }
+        return PacketSignal.HANDLED;
+    }
+
+    @Override
+    public PacketSignal handle(ResourcePacksInfoPacket packet) {
+        ResourcePackClientResponsePacket response = new ResourcePackClientResponsePacket();
+        response.setStatus(ResourcePackClientResponsePacket.Status.HAVE_ALL_PACKS);
+        this.send(response);
+        return PacketSignal.HANDLED;
+    }
+
+    @Override
+    public PacketSignal handle(ResourcePackStackPacket packet) {
+        ResourcePackClientResponsePacket response = new ResourcePackClientResponsePacket();
+        response.setStatus(ResourcePackClientResponsePacket.Status.COMPLETED);
+        this.send(response);
+        return PacketSignal.HANDLED;
+    }
+
+    @Override
+    public PacketSignal handle(StartGamePacket packet) {
+        this.spawn = packet.getPlayerPosition();
+
+        RequestChunkRadiusPacket radius = new RequestChunkRadiusPacket();
+        radius.setRadius(this.generator.getChunkRadius());
+        radius.setMaxRadius(this.generator.getChunkRadius());
+        this.send(radius);
+
+        this.startTraffic();
+        return PacketSignal.HANDLED;
+    }
+
+    @Override
+    public PacketSignal handle(NetworkStackLatencyPacket packet) {
+        if (packet.isFromServer()) {
+            // A real client answers the server's probes, our own come back with fromServer unset
+            NetworkStackLatencyPacket response = new NetworkStackLatencyPacket();
+            response.setTimestamp(packet.getTimestamp());
+            response.setFromServer(false);
+            this.send(response);
+        } else {
+            this.generator.getRoundTrip().record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - packet.getTimestamp()));
+        }
+        return PacketSignal.HANDLED;
+    }
+
+    @Override
+    public PacketSignal handle(DisconnectPacket packet) {
+        log.debug("Bot disconnected by server: {}", packet.getKickMessage());
+        return PacketSignal.HANDLED;
+    }
+
+    @Override
+    public void onDisconnect(CharSequence reason) {
+        if (this.inputTask != null) {
+            this.inputTask.cancel(false);
+            this.probeTask.cancel(false);
+        }
+        this.generator.onDisconnect(this.loggedIn, reason);
+    }
+
+    private void startTraffic() {
+        if (this.inputTask != null) {
+            return;
+        }
+        long periodNanos = TimeUnit.SECONDS.toNanos(1) / this.generator.getInputRate();
+        this.inputTask = this.session.getPeer().getChannel().eventLoop()
+                .scheduleAtFixedRate(this::sendInput, periodNanos, periodNanos, TimeUnit.NANOSECONDS);
+        this.probeTask = this.session.getPeer().getChannel().eventLoop()
+                .scheduleAtFixedRate(this::sendProbe, 1, 1, TimeUnit.SECONDS);
+    }
+
+    // Walks in a circle around the spawn point
+    private void sendInput() {
+        this.tick++;
+        double angle = this.tick * 0.05;
+        Vector3f position = this.spawn.add(Math.cos(angle) * 4, 0, Math.sin(angle) * 4);
+        float yaw = (float) Math.toDegrees(angle) % 360;
+
+        PlayerAuthInputPacket input = new PlayerAuthInputPacket();
+        input.setPosition(position);
+        input.setRotation(Vector3f.from(0, yaw, yaw));
+        input.setMotion(Vector2f.from(0, 1));
+        input.setDelta(Vector3f.ZERO);
+        input.setAnalogMoveVector(Vector2f.from(0, 1));
+        input.setRawMoveVector(Vector2f.from(0, 1));
+        input.setVehicleRotation(Vector2f.ZERO);
+        input.setInteractRotation(Vector2f.ZERO);
+        input.setCameraOrientation(Vector3f.ZERO);
+        input.getInputData().addAll(EnumSet.of(PlayerAuthInputData.UP, PlayerAuthInputData.VERTICAL_COLLISION));
+        input.setInputMode(InputMode.MOUSE);
+        input.setPlayMode(ClientPlayMode.NORMAL);
+        input.setInputInteractionModel(InputInteractionModel.CROSSHAIR);
+        input.setTick(this.tick);
+        this.send(input);
+    }
+
+    private void sendProbe() {
+        NetworkStackLatencyPacket probe = new NetworkStackLatencyPacket();
+        probe.setTimestamp(System.nanoTime());
+        probe.setFromServer(true);
+        this.send(probe);
+    }
+
+    private void send(BedrockPacket packet) {
+        this.session.sendPacketImmediately(packet);
+        this.generator.getSent().increment();
+    }
+}
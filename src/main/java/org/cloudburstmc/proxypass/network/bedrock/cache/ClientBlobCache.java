@@ -0,0 +1,102 @@
+package org.cloudburstmc.proxypass.network.bedrock.cache;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import org.cloudburstmc.proxypass.metrics.ProxyMetrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Blobs of the client cache seen in {@code ClientCacheMissResponsePacket}s of all sessions, keyed by their 64-bit
+ * hash, so misses the proxy has already seen the blob for are answered without the server. Blobs are copied to pooled
+ * direct buffers and the least recently used are evicted once the cache exceeds its size.
+ */
+public class ClientBlobCache {
+    private final long maxBytes;
+    // Guarded by this, in access order
+    private final Long2ObjectLinkedOpenHashMap<ByteBuf> blobs = new Long2ObjectLinkedOpenHashMap<>();
+    private long bytes;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxBytes size of all cached blobs, 0 or less disables the cache
+     */
+    public ClientBlobCache(long maxBytes, ProxyMetrics metrics) {
+        this.maxBytes = maxBytes;
+
+        metrics.registerGauge("proxypass_blob_cache_bytes", "Bytes of client cache blobs held by the proxy", false,
+                this::getBytes);
+        metrics.registerGauge("proxypass_blob_cache_blobs", "Client cache blobs held by the proxy", false,
+                this::size);
+        metrics.registerGauge("proxypass_blob_cache_hits_total", "Client cache misses answered by the proxy", true,
+                this.hits::sum);
+        metrics.registerGauge("proxypass_blob_cache_misses_total", "Client cache misses forwarded to the server", true,
+                this.misses::sum);
+        metrics.registerGauge("proxypass_blob_cache_evictions_total", "Client cache blobs evicted by the proxy", true,
+                this.evictions::sum);
+    }
+
+    public boolean isEnabled() {
+        return this.maxBytes > 0;
+    }
+
+    public synchronized long getBytes() {
+        return this.bytes;
+    }
+
+    public synchronized int size() {
+        return this.blobs.size();
+    }
+
+    /**
+     * @return a retained duplicate of the blob which the caller must release, or null if it is not cached
+     */
+    public ByteBuf get(long id) {
+        ByteBuf blob;
+        synchronized (this) {
+            blob = this.blobs.getAndMoveToLast(id);
+            if (blob != null) {
+                // Retained under the lock so an eviction can not free it first
+                blob = blob.retainedDuplicate();
+            }
+        }
+        (blob == null ? this.misses : this.hits).increment();
+        return blob;
+    }
+
+    /**
+     * Copies the blob into the cache, the given buffer is left as it is.
+     */
+    public void put(long id, ByteBuf blob) {
+        int length = blob.readableBytes();
+        if (!this.isEnabled() || length > this.maxBytes) {
+            return;
+        }
+        ByteBuf copy = PooledByteBufAllocator.DEFAULT.directBuffer(length, length);
+        copy.writeBytes(blob, blob.readerIndex(), length);
+
+        synchronized (this) {
+            ByteBuf previous = this.blobs.putAndMoveToLast(id, copy);
+            if (previous != null) {
+                this.bytes -= previous.readableBytes();
+                previous.release();
+            }
+            this.bytes += length;
+            while (this.bytes > this.maxBytes) {
+                ByteBuf evicted = this.blobs.removeFirst();
+                this.bytes -= evicted.readableBytes();
+                evicted.release();
+                this.evictions.increment();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        this.blobs.values().forEach(ByteBuf::release);
+        this.blobs.clear();
+        this.bytes = 0;
+    }
+}
@@ -0,0 +1,193 @@
+package org.cloudburstmc.proxypass.network.bedrock.capture;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.util.ReferenceCountUtil;
+import lombok.extern.log4j.Log4j2;
+import org.cloudburstmc.protocol.bedrock.codec.BedrockCodecHelper;
+import org.cloudburstmc.protocol.bedrock.data.definitions.ItemDefinition;
+import org.cloudburstmc.protocol.bedrock.data.definitions.SimpleItemDefinition;
+import org.cloudburstmc.protocol.bedrock.packet.BedrockPacket;
+import org.cloudburstmc.protocol.bedrock.packet.ItemComponentPacket;
+import org.cloudburstmc.protocol.common.SimpleDefinitionRegistry;
+import org.cloudburstmc.proxypass.ProxyPass;
+import org.cloudburstmc.proxypass.network.bedrock.util.UnknownBlockDefinitionRegistry;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Iterator;
+
+/**
+ * Renders a capture file or {@link CaptureStore} directory as text, in the same format as packets.log, or as one JSON
+ * object per line. Capture stores can be filtered by packet and by time using their index.
+ * <p>
+ * Usage: {@code CaptureDecoder <file.ppcap|capture dir> [text|json] [packet=<id|name>] [from=<seconds>] [to=<seconds>]}
+ * <p>
+ * Times are relative to the start of the capture.
+ */
+@Log4j2
+public class CaptureDecoder {
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("HH:mm:ss:SSS")
+            .withZone(ZoneId.systemDefault());
+
+    private final BedrockCodecHelper helper = ProxyPass.CODEC.createHelper();
+    private final boolean json;
+
+    public CaptureDecoder(boolean json) {
+        this.json = json;
+        this.helper.setEncodingSettings(ProxyPass.ENCODING_SETTINGS);
+        this.helper.setBlockDefinitions(new UnknownBlockDefinitionRegistry());
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: CaptureDecoder <file" + CaptureFormat.FILE_EXTENSION + "|capture dir> [text|json] " +
+                    "[packet=<id|name>] [from=<seconds>] [to=<seconds>]");
+            return;
+        }
+        Path path = Paths.get(args[0]);
+        boolean json = false;
+        int packetId = -1;
+        double from = 0;
+        double to = Double.MAX_VALUE;
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equalsIgnoreCase("json")) {
+                json = true;
+            } else if (arg.startsWith("packet=")) {
+                packetId = parsePacketId(arg.substring(7));
+            } else if (arg.startsWith("from=")) {
+                from = Double.parseDouble(arg.substring(5));
+            } else if (arg.startsWith("to=")) {
+                to = Double.parseDouble(arg.substring(3));
+            }
+        }
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        CaptureDecoder decoder = new CaptureDecoder(json);
+        if (Files.isDirectory(path)) {
+            decoder.decodeStore(path, packetId, from, to, writer);
+        } else {
+            decoder.decode(path, writer);
+        }
+        writer.flush();
+    }
+
+    private static int parsePacketId(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            try {
+                Class<?> type = Class.forName(BedrockPacket.class.getPackageName() + "." + value);
+                return ProxyPass.CODEC.getPacketDefinition(type.asSubclass(BedrockPacket.class)).getId();
+            } catch (ClassNotFoundException ex) {
+                throw new IllegalArgumentException("Unknown packet " + value);
+            }
+        }
+    }
+
+    public void decode(Path path, Writer writer) throws IOException {
+        try (CaptureReader reader = new CaptureReader(path)) {
+            CaptureFrame frame;
+            while ((frame = reader.next()) != null) {
+                this.write(frame, writer);
+            }
+        }
+    }
+
+    /**
+     * Decodes the frames of a capture store, seeking with its index.
+     *
+     * @param packetId only decode this packet or -1 for all packets
+     * @param from     start in seconds since the start of the capture
+     * @param to       end in seconds since the start of the capture
+     */
+    public void decodeStore(Path directory, int packetId, double from, double to, Writer writer) throws IOException {
+        try (CaptureStoreReader reader = new CaptureStoreReader(directory)) {
+            long start = reader.getIndex().getStartMicros();
+            long fromMicros = start + (long) (from * 1_000_000);
+            long toMicros = to == Double.MAX_VALUE ? Long.MAX_VALUE / 2 : start + (long) (to * 1_000_000);
+
+            Iterator<CaptureFrame> frames = packetId == -1 ? reader.byTime(fromMicros, toMicros) : reader.byPacketId(packetId);
+            while (frames.hasNext()) {
+                CaptureFrame frame = frames.next();
+                if (frame.timestampMicros() >= fromMicros && frame.timestampMicros() < toMicros) {
+                    this.write(frame, writer);
+                }
+            }
+        }
+    }
+
+    private void write(CaptureFrame frame, Writer writer) throws IOException {
+        if (frame.protocolVersion() != ProxyPass.PROTOCOL_VERSION) {
+            log.warn("Frame uses protocol {}, decoding with {}", frame.protocolVersion(), ProxyPass.PROTOCOL_VERSION);
+        }
+        writer.write(this.render(frame));
+        writer.write(System.lineSeparator());
+    }
+
+    public String render(CaptureFrame frame) {
+        String direction = frame.upstream() ? "SERVER BOUND" : "CLIENT BOUND";
+        Instant time = Instant.ofEpochMilli(frame.timestampMicros() / 1000);
+
+        ByteBuf buffer = Unpooled.wrappedBuffer(frame.payload());
+        BedrockPacket packet = null;
+        try {
+            packet = ProxyPass.CODEC.tryDecode(this.helper, buffer, frame.packetId());
+            this.updateDefinitions(packet);
+        } catch (Exception e) {
+            log.debug("Unable to decode packet {}", frame.packetId(), e);
+        }
+
+        try {
+            if (!this.json) {
+                Object body = packet != null ? packet : "0x" + Integer.toHexString(frame.packetId()) + " " + ByteBufUtil.hexDump(frame.payload());
+                return "[" + FORMATTER.format(time) + "] [" + direction + "] - " + body;
+            }
+
+            ObjectNode node = ProxyPass.JSON_MAPPER.createObjectNode()
+                    .put("timestamp", frame.timestampMicros())
+                    .put("direction", direction)
+                    .put("id", frame.packetId())
+                    .put("protocol", frame.protocolVersion());
+            if (packet == null) {
+                node.put("payload", ByteBufUtil.hexDump(frame.payload()));
+            } else {
+                node.put("packet", packet.getClass().getSimpleName());
+                try {
+                    node.set("data", ProxyPass.JSON_MAPPER.valueToTree(packet));
+                } catch (IllegalArgumentException e) {
+                    node.put("data", packet.toString());
+                }
+            }
+            return node.toString();
+        } finally {
+            ReferenceCountUtil.release(packet);
+            buffer.release();
+        }
+    }
+
+    // Mirrors DownstreamPacketHandler so item stacks later in the capture decode
+    private void updateDefinitions(BedrockPacket packet) {
+        if (packet instanceof ItemComponentPacket itemComponents && ProxyPass.CODEC.getProtocolVersion() >= 776) {
+            SimpleDefinitionRegistry.Builder<ItemDefinition> builder = SimpleDefinitionRegistry
+                    .<ItemDefinition>builder()
+                    .add(new SimpleItemDefinition("minecraft:empty", 0, false));
+            for (var item : itemComponents.getItems()) {
+                builder.add(new SimpleItemDefinition(item.getIdentifier(), item.getRuntimeId(), false));
+            }
+            this.helper.setItemDefinitions(builder.build());
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package org.cloudburstmc.proxypass.network.bedrock.capture;
+
+import io.netty.buffer.ByteBuf;
+import lombok.experimental.UtilityClass;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Layout of ProxyPass capture files (.ppcap).
+ * <pre>
+ * file   := magic "PPCAP" | u8 version | frame*
+ * frame  := i32 length | i64 timestamp (epoch micros) | u8 direction | u16 packet id | i32 protocol | payload
+ * </pre>
+ * The length covers everything after itself. The payload is the packet body as received, without its header.
+ */
+@UtilityClass
+public class CaptureFormat {
+    public static final String FILE_EXTENSION = ".ppcap";
+    public static final byte[] MAGIC = "PPCAP".getBytes(StandardCharsets.US_ASCII);
+    public static final int VERSION = 1;
+    public static final int FILE_HEADER_SIZE = MAGIC.length + 1;
+    /**
+     * Size of the fixed part of a frame following the length prefix.
+     */
+    public static final int FRAME_HEADER_SIZE = 8 + 1 + 2 + 4;
+
+    public static final byte SERVER_BOUND = 0;
+    public static final byte CLIENT_BOUND = 1;
+
+    public static void writeFileHeader(ByteBuf buffer) {
+        buffer.writeBytes(MAGIC);
+        buffer.writeByte(VERSION);
+    }
+
+    public static void readFileHeader(DataInput input) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        input.readFully(magic);
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (magic[i] != MAGIC[i]) {
+                throw new IOException("Not a ProxyPass capture file");
+            }
+        }
+        int version = input.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported capture version " + version);
+        }
+    }
+
+    /**
+     * Writes a complete frame into the buffer.
+     */
+    public static void writeFrame(ByteBuf buffer, long timestampMicros, boolean upstream, int packetId,
+                                  int protocolVersion, ByteBuf payload, int payloadIndex, int payloadLength) {
+        buffer.writeInt(FRAME_HEADER_SIZE + payloadLength);
+        buffer.writeLong(timestampMicros);
+        buffer.writeByte(upstream ? SERVER_BOUND : CLIENT_BOUND);
+        buffer.writeShort(packetId);
+        buffer.writeInt(protocolVersion);
+        buffer.writeBytes(payload, payloadIndex, payloadLength);
+    }
+}
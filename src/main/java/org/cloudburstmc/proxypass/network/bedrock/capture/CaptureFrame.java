@@ -0,0 +1,13 @@
+package org.cloudburstmc.proxypass.network.bedrock.capture;
+
+/**
+ * A single packet read from a capture file.
+ *
+ * @param timestampMicros epoch time in microseconds the packet was received at
+ * @param upstream        true if the packet was sent by the client
+ * @param packetId        packet ID
+ * @param protocolVersion protocol version of the session codec
+ * @param payload         packet body without its header
+ */
+public record CaptureFrame(long timestampMicros, boolean upstream, int packetId, int protocolVersion, byte[] payload) {
+}
@@ -0,0 +1,177 @@
+package org.cloudburstmc.proxypass.network.bedrock.capture;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import it.unimi.dsi.fastutil.longs.LongLists;
+import lombok.Getter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Frame positions of a {@link CaptureStore} by packet id and by time bucket. A position is the segment number in the
+ * upper and the offset of the frame within the segment in the lower 32 bits.
+ * <pre>
+ * index   := magic "PPIDX" | u8 version | i64 start (epoch micros) | i64 bucket width (micros)
+ *            | i32 segments | i32 end of last segment | i64 frames
+ *            | i32 buckets | i64 first position * buckets
+ *            | i32 ids | (u16 packet id | i32 count | i64 position * count) * ids
+ * </pre>
+ * Empty buckets hold -1.
+ */
+public class CaptureIndex {
+    public static final String FILE_NAME = "index.ppidx";
+    public static final long BUCKET_MICROS = TimeUnit.SECONDS.toMicros(1);
+
+    private static final byte[] MAGIC = "PPIDX".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+
+    private final Int2ObjectMap<LongArrayList> positionsById = new Int2ObjectOpenHashMap<>();
+    private final LongArrayList buckets = new LongArrayList();
+    @Getter
+    private final long bucketMicros;
+    @Getter
+    private long startMicros = -1;
+    @Getter
+    private long frameCount;
+    /**
+     * Position just past the last indexed frame.
+     */
+    @Getter
+    private long end;
+
+    public CaptureIndex(long bucketMicros) {
+        this.bucketMicros = bucketMicros;
+    }
+
+    public static long position(int segment, int offset) {
+        return (long) segment << 32 | offset;
+    }
+
+    public static int segment(long position) {
+        return (int) (position >>> 32);
+    }
+
+    public static int offset(long position) {
+        return (int) position;
+    }
+
+    public void add(long position, long timestampMicros, int packetId, int frameLength) {
+        if (this.startMicros < 0) {
+            this.startMicros = timestampMicros;
+        }
+        // Frames of both legs are not strictly ordered, an early frame belongs to the bucket it is written in
+        int bucket = (int) (Math.max(0, timestampMicros - this.startMicros) / this.bucketMicros);
+        while (this.buckets.size() <= bucket) {
+            this.buckets.add(-1L);
+        }
+        if (this.buckets.getLong(bucket) == -1) {
+            this.buckets.set(bucket, position);
+        }
+        this.positionsById.computeIfAbsent(packetId, id -> new LongArrayList()).add(position);
+        this.frameCount++;
+        this.end = position + 4 + frameLength;
+    }
+
+    public void skipTo(long end) {
+        this.end = end;
+    }
+
+    public LongList getPositions(int packetId) {
+        LongArrayList positions = this.positionsById.get(packetId);
+        return positions == null ? LongLists.EMPTY_LIST : LongLists.unmodifiable(positions);
+    }
+
+    /**
+     * @return the position of the first frame written at or after the given time or -1 if there is none
+     */
+    public long findPosition(long timestampMicros) {
+        int bucket = (int) (Math.max(0, timestampMicros - this.startMicros) / this.bucketMicros);
+        for (int i = bucket; i < this.buckets.size(); i++) {
+            long position = this.buckets.getLong(i);
+            if (position != -1) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    public int[] getPacketIds() {
+        return this.positionsById.keySet().toIntArray();
+    }
+
+    public void save(Path path) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+            output.write(MAGIC);
+            output.writeByte(VERSION);
+            output.writeLong(this.startMicros);
+            output.writeLong(this.bucketMicros);
+            output.writeInt(segment(this.end));
+            output.writeInt(offset(this.end));
+            output.writeLong(this.frameCount);
+
+            output.writeInt(this.buckets.size());
+            for (int i = 0; i < this.buckets.size(); i++) {
+                output.writeLong(this.buckets.getLong(i));
+            }
+
+            output.writeInt(this.positionsById.size());
+            for (Int2ObjectMap.Entry<LongArrayList> entry : this.positionsById.int2ObjectEntrySet()) {
+                LongArrayList positions = entry.getValue();
+                output.writeShort(entry.getIntKey());
+                output.writeInt(positions.size());
+                for (int i = 0; i < positions.size(); i++) {
+                    output.writeLong(positions.getLong(i));
+                }
+            }
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static CaptureIndex load(Path path) throws IOException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            byte[] magic = new byte[MAGIC.length];
+            input.readFully(magic);
+            int version = input.readUnsignedByte();
+            if (!Arrays.equals(magic, MAGIC) || version != VERSION) {
+                throw new IOException("Not a ProxyPass capture index");
+            }
+
+            long startMicros = input.readLong();
+            CaptureIndex index = new CaptureIndex(input.readLong());
+            index.startMicros = startMicros;
+            index.end = position(input.readInt(), input.readInt());
+            index.frameCount = input.readLong();
+
+            int buckets = input.readInt();
+            index.buckets.ensureCapacity(buckets);
+            for (int i = 0; i < buckets; i++) {
+                index.buckets.add(input.readLong());
+            }
+
+            int ids = input.readInt();
+            for (int i = 0; i < ids; i++) {
+                int packetId = input.readUnsignedShort();
+                int count = input.readInt();
+                LongArrayList positions = new LongArrayList(count);
+                for (int j = 0; j < count; j++) {
+                    positions.add(input.readLong());
+                }
+                index.positionsById.put(packetId, positions);
+            }
+            return index;
+        }
+    }
+}
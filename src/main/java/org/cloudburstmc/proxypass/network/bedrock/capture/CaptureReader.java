@@ -0,0 +1,47 @@
+package org.cloudburstmc.proxypass.network.bedrock.capture;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Sequentially reads the frames of a capture file.
+ */
+public class CaptureReader implements AutoCloseable {
+    private final DataInputStream input;
+
+    public CaptureReader(Path path) throws IOException {
+        this.input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16));
+        CaptureFormat.readFileHeader(this.input);
+    }
+
+    /**
+     * @return the next frame or null at the end of the file. A truncated trailing frame or the zeroed tail of a
+     * {@link CaptureStore} segment is treated as the end.
+     */
+    public CaptureFrame next() throws IOException {
+        try {
+            int length = this.input.readInt();
+            if (length < CaptureFormat.FRAME_HEADER_SIZE) {
+                return null;
+            }
+            long timestamp = this.input.readLong();
+            boolean upstream = this.input.readUnsignedByte() == CaptureFormat.SERVER_BOUND;
+            int packetId = this.input.readUnsignedShort();
+            int protocolVersion = this.input.readInt();
+            byte[] payload = new byte[length - CaptureFormat.FRAME_HEADER_SIZE];
+            this.input.readFully(payload);
+            return new CaptureFrame(timestamp, upstream, packetId, protocolVersion, payload);
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.input.close();
+    }
+}
@@ -0,0 +1,71 @@
+package org.cloudburstmc.proxypass.network.bedrock.capture;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates the frames of either a single capture file or a {@link CaptureStore} directory in capture order.
+ */
+public abstract class CaptureSource implements Iterator<CaptureFrame>, Closeable {
+
+    public static CaptureSource open(Path path) throws IOException {
+        if (Files.isDirectory(path)) {
+            CaptureStoreReader reader = new CaptureStoreReader(path);
+            Iterator<CaptureFrame> frames = reader.all();
+            return new CaptureSource() {
+                @Override
+                public boolean hasNext() {
+                    return frames.hasNext();
+                }
+
+                @Override
+                public CaptureFrame next() {
+                    return frames.next();
+                }
+
+                @Override
+                public void close() {
+                    reader.close();
+                }
+            };
+        }
+
+        CaptureReader reader = new CaptureReader(path);
+        return new CaptureSource() {
+            private CaptureFrame next = this.read();
+
+            private CaptureFrame read() {
+                try {
+                    return reader.next();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return this.next != null;
+            }
+
+            @Override
+            public CaptureFrame next() {
+                if (this.next == null) {
+                    throw new NoSuchElementException();
+                }
+                CaptureFrame frame = this.next;
+                this.next = this.read();
+                return frame;
+            }
+
+            @Override
+            public void close() throws IOException {
+                reader.close();
+            }
+        };
+    }
+}
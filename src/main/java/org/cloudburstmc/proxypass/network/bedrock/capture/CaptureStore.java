@@ -0,0 +1,95 @@
+package org.cloudburstmc.proxypass.network.bedrock.capture;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.internal.PlatformDependent;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Appends capture frames to fixed-size memory-mapped segment files and keeps a {@link CaptureIndex} of them. Every
+ * segment is a complete capture file. Segments are trimmed to their used size when they are full or the store is
+ * closed, a segment left behind by a crash ends with zeroes, which readers treat as the end of the segment.
+ * <p>
+ * Not thread safe, all frames are appended by the packet log writer thread.
+ */
+@Log4j2
+public class CaptureStore implements Closeable {
+    private static final String SEGMENT_PREFIX = "segment-";
+
+    @Getter
+    private final Path directory;
+    private final int segmentSize;
+    @Getter
+    private final CaptureIndex index = new CaptureIndex(CaptureIndex.BUCKET_MICROS);
+
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private int segmentId = -1;
+
+    public CaptureStore(Path directory, int segmentSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+    }
+
+    public static Path getSegmentPath(Path directory, int segmentId) {
+        return directory.resolve(SEGMENT_PREFIX + String.format("%06d", segmentId) + CaptureFormat.FILE_EXTENSION);
+    }
+
+    /**
+     * Copies a frame written by {@link CaptureFormat#writeFrame} into the current segment. The buffer is not released.
+     */
+    public void append(ByteBuf frame) throws IOException {
+        int length = frame.readableBytes();
+        if (this.segment == null || this.segment.remaining() < length) {
+            this.nextSegment(length);
+        }
+
+        int readerIndex = frame.readerIndex();
+        long position = CaptureIndex.position(this.segmentId, this.segment.position());
+        this.index.add(position, frame.getLong(readerIndex + 4), frame.getUnsignedShort(readerIndex + 13), length - 4);
+        // Exactly the frame, getBytes(int, ByteBuffer) would try to fill the rest of the segment
+        this.segment.put(frame.nioBuffer(readerIndex, length));
+    }
+
+    private void nextSegment(int frameLength) throws IOException {
+        this.finishSegment();
+
+        this.segmentId++;
+        int size = Math.max(this.segmentSize, CaptureFormat.FILE_HEADER_SIZE + frameLength);
+        this.channel = FileChannel.open(getSegmentPath(this.directory, this.segmentId), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.segment = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        this.segment.put(CaptureFormat.MAGIC);
+        this.segment.put((byte) CaptureFormat.VERSION);
+        this.index.skipTo(CaptureIndex.position(this.segmentId, this.segment.position()));
+    }
+
+    private void finishSegment() throws IOException {
+        if (this.segment == null) {
+            return;
+        }
+        int used = this.segment.position();
+        this.segment.force();
+        // Unmap right away instead of waiting for GC, long sessions would otherwise keep every segment mapped
+        PlatformDependent.freeDirectBuffer(this.segment);
+        this.segment = null;
+        this.channel.truncate(used);
+        this.channel.close();
+        this.channel = null;
+        this.index.save(this.directory.resolve(CaptureIndex.FILE_NAME));
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.finishSegment();
+    }
+}
@@ -0,0 +1,196 @@
+package org.cloudburstmc.proxypass.network.bedrock.capture;
+
+import io.netty.util.internal.PlatformDependent;
+import it.unimi.dsi.fastutil.longs.LongList;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Random access to the frames of a {@link CaptureStore} directory. Segments are mapped read only, frames past the
+ * saved index, for example after a crash, are indexed when the store is opened.
+ */
+@Log4j2
+public class CaptureStoreReader implements Closeable {
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    @Getter
+    private final CaptureIndex index;
+
+    public CaptureStoreReader(Path directory) throws IOException {
+        for (int i = 0; ; i++) {
+            Path path = CaptureStore.getSegmentPath(directory, i);
+            if (!Files.exists(path)) {
+                break;
+            }
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                this.segments.add(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+        }
+        if (this.segments.isEmpty()) {
+            throw new IOException("No capture segments in " + directory);
+        }
+
+        CaptureIndex index = null;
+        Path indexPath = directory.resolve(CaptureIndex.FILE_NAME);
+        if (Files.exists(indexPath)) {
+            try {
+                index = CaptureIndex.load(indexPath);
+            } catch (IOException e) {
+                log.warn("Unable to load capture index {}, rebuilding it", indexPath, e);
+            }
+        }
+        if (index == null) {
+            index = new CaptureIndex(CaptureIndex.BUCKET_MICROS);
+            index.skipTo(CaptureIndex.position(0, CaptureFormat.FILE_HEADER_SIZE));
+        }
+        this.index = index;
+        this.catchUp();
+    }
+
+    private void catchUp() {
+        long position = this.normalize(this.index.getEnd());
+        long frames = this.index.getFrameCount();
+        while (position != -1) {
+            ByteBuffer segment = this.segments.get(CaptureIndex.segment(position));
+            int offset = CaptureIndex.offset(position);
+            int length = segment.getInt(offset);
+            this.index.add(position, segment.getLong(offset + 4), segment.getShort(offset + 13) & 0xffff, length);
+            position = this.next(position);
+        }
+        if (this.index.getFrameCount() != frames) {
+            log.info("Indexed {} capture frames missing from the saved index", this.index.getFrameCount() - frames);
+        }
+    }
+
+    /**
+     * @return the position of the frame following the given one or -1 at the end of the capture
+     */
+    public long next(long position) {
+        ByteBuffer segment = this.segments.get(CaptureIndex.segment(position));
+        int offset = CaptureIndex.offset(position);
+        return this.normalize(CaptureIndex.position(CaptureIndex.segment(position), offset + 4 + segment.getInt(offset)));
+    }
+
+    // Moves a position at the end of a segment to the first frame of the next one
+    private long normalize(long position) {
+        int segmentId = CaptureIndex.segment(position);
+        int offset = CaptureIndex.offset(position);
+        while (segmentId < this.segments.size()) {
+            ByteBuffer segment = this.segments.get(segmentId);
+            if (offset + 4 + CaptureFormat.FRAME_HEADER_SIZE <= segment.limit()) {
+                int length = segment.getInt(offset);
+                if (length >= CaptureFormat.FRAME_HEADER_SIZE && offset + 4 + length <= segment.limit()) {
+                    return CaptureIndex.position(segmentId, offset);
+                }
+            }
+            segmentId++;
+            offset = CaptureFormat.FILE_HEADER_SIZE;
+        }
+        return -1;
+    }
+
+    public CaptureFrame read(long position) {
+        ByteBuffer segment = this.segments.get(CaptureIndex.segment(position));
+        int offset = CaptureIndex.offset(position);
+        int length = segment.getInt(offset);
+        byte[] payload = new byte[length - CaptureFormat.FRAME_HEADER_SIZE];
+        segment.get(offset + 4 + CaptureFormat.FRAME_HEADER_SIZE, payload);
+        return new CaptureFrame(
+                segment.getLong(offset + 4),
+                segment.get(offset + 12) == CaptureFormat.SERVER_BOUND,
+                segment.getShort(offset + 13) & 0xffff,
+                segment.getInt(offset + 15),
+                payload
+        );
+    }
+
+    /**
+     * @return all frames of the given packet id in capture order
+     */
+    public Iterator<CaptureFrame> byPacketId(int packetId) {
+        LongList positions = this.index.getPositions(packetId);
+        return new Iterator<>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return this.next < positions.size();
+            }
+
+            @Override
+            public CaptureFrame next() {
+                if (!this.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return read(positions.getLong(this.next++));
+            }
+        };
+    }
+
+    /**
+     * @param fromMicros inclusive epoch micros
+     * @param toMicros   exclusive epoch micros
+     * @return the frames captured in the given time range, starting from the matching index bucket
+     */
+    public Iterator<CaptureFrame> byTime(long fromMicros, long toMicros) {
+        long start = this.index.findPosition(fromMicros);
+        return new Iterator<>() {
+            private long position = start;
+            private CaptureFrame next = this.advance();
+
+            private CaptureFrame advance() {
+                // Buckets are at the granularity of the index, skip the frames before the exact start
+                while (this.position != -1) {
+                    CaptureFrame frame = read(this.position);
+                    this.position = CaptureStoreReader.this.next(this.position);
+                    if (frame.timestampMicros() >= toMicros + index.getBucketMicros()) {
+                        this.position = -1;
+                    } else if (frame.timestampMicros() >= fromMicros && frame.timestampMicros() < toMicros) {
+                        return frame;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return this.next != null;
+            }
+
+            @Override
+            public CaptureFrame next() {
+                if (this.next == null) {
+                    throw new NoSuchElementException();
+                }
+                CaptureFrame frame = this.next;
+                this.next = this.advance();
+                return frame;
+            }
+        };
+    }
+
+    /**
+     * @return every frame of the capture in order
+     */
+    public Iterator<CaptureFrame> all() {
+        return this.byTime(Long.MIN_VALUE / 2, Long.MAX_VALUE / 2);
+    }
+
+    @Override
+    public void close() {
+        this.segments.forEach(PlatformDependent::freeDirectBuffer);
+        this.segments.clear();
+    }
+}
@@ -0,0 +1,232 @@
+package org.cloudburstmc.proxypass.network.bedrock.compression;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import lombok.Getter;
+import org.cloudburstmc.protocol.bedrock.data.CompressionAlgorithm;
+import org.cloudburstmc.protocol.bedrock.data.PacketCompressionAlgorithm;
+import org.cloudburstmc.protocol.bedrock.netty.BedrockBatchWrapper;
+import org.cloudburstmc.protocol.bedrock.netty.codec.compression.BatchCompression;
+import org.cloudburstmc.protocol.bedrock.netty.codec.compression.CompressionStrategy;
+import org.cloudburstmc.protocol.bedrock.netty.codec.compression.NoopCompression;
+import org.cloudburstmc.proxypass.Configuration;
+import org.cloudburstmc.proxypass.metrics.ProxyMetrics;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compression of the batches sent on one leg of a session. Batches below the threshold are sent uncompressed, which
+ * the algorithm prefix allows since protocol 649. When adaptive, the zlib level and the threshold follow the bytes
+ * compression saves per millisecond of CPU time, never exceeding the configured level or going below the configured
+ * threshold.
+ * <p>
+ * Batches are compressed on the event loop of the leg, inbound batches are decompressed with whatever algorithm
+ * their prefix names.
+ */
+public class CompressionPolicy implements CompressionStrategy {
+    // Compressed batches between two adjustments
+    private static final int ADAPT_INTERVAL = 256;
+    // Chunks and other large batches stay above this, so there is always something left to measure
+    private static final int MAX_ADAPTIVE_THRESHOLD = 8192;
+    private static final int MIN_ADAPTIVE_THRESHOLD = 64;
+
+    private final boolean clientbound;
+    private final ProxyMetrics metrics;
+    private final boolean prefixed;
+    private final BatchCompression none = new NoopCompression();
+    private final PooledZlibCompression zlib = new PooledZlibCompression(true);
+    private final BatchCompression snappy = new PooledSnappyCompression();
+    private final Measured preferred;
+    private final Measured uncompressed;
+
+    private final int maxLevel;
+    private final int minThreshold;
+    private final boolean adaptive;
+    private final long minSavings;
+    @Getter
+    private volatile int level;
+    @Getter
+    private volatile int threshold;
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder uncompressedBatches = new LongAdder();
+    private final LongAdder inputBytes = new LongAdder();
+    private final LongAdder outputBytes = new LongAdder();
+    private final LongAdder cpuNanos = new LongAdder();
+    // Only accessed from the event loop of the leg
+    private int windowBatches;
+    private long windowSaved;
+    private long windowNanos;
+
+    /**
+     * @param clientbound whether the leg sends to the client
+     * @param negotiated  algorithm the peer asked for, used when the configuration leaves it as {@code negotiated}
+     */
+    public CompressionPolicy(Configuration.CompressionLeg config, boolean clientbound, PacketCompressionAlgorithm negotiated,
+                             boolean prefixed, ProxyMetrics metrics) {
+        this.clientbound = clientbound;
+        this.metrics = metrics;
+        this.prefixed = prefixed;
+        this.maxLevel = Math.max(1, Math.min(9, config.getLevel()));
+        this.minThreshold = Math.max(0, config.getThreshold());
+        this.adaptive = config.isAdaptive();
+        this.minSavings = config.getMinSavings();
+        this.level = this.maxLevel;
+        this.threshold = this.minThreshold;
+        this.zlib.setLevel(this.level);
+
+        PacketCompressionAlgorithm algorithm = getAlgorithm(config, negotiated);
+        this.preferred = new Measured(this.getCompression(algorithm), algorithm != PacketCompressionAlgorithm.NONE);
+        this.uncompressed = new Measured(this.none, false);
+    }
+
+    /**
+     * Algorithm the configuration of a leg asks for, announced to the client in the network settings.
+     */
+    public static PacketCompressionAlgorithm getAlgorithm(Configuration.CompressionLeg config, PacketCompressionAlgorithm negotiated) {
+        return switch (config.getAlgorithm().toLowerCase(Locale.ROOT)) {
+            case "zlib" -> PacketCompressionAlgorithm.ZLIB;
+            case "snappy" -> PacketCompressionAlgorithm.SNAPPY;
+            case "none" -> PacketCompressionAlgorithm.NONE;
+            case "negotiated" -> negotiated;
+            default -> throw new IllegalArgumentException("Unknown compression algorithm " + config.getAlgorithm());
+        };
+    }
+
+    /**
+     * Picks the compression of an outbound batch or frame of the given uncompressed size.
+     */
+    public BatchCompression select(int length) {
+        if (this.prefixed && length < this.threshold) {
+            return this.uncompressed;
+        }
+        return this.preferred;
+    }
+
+    @Override
+    public BatchCompression getCompression(BedrockBatchWrapper wrapper) {
+        ByteBuf batch = wrapper.getUncompressed();
+        return batch == null ? this.preferred : this.select(batch.readableBytes());
+    }
+
+    @Override
+    public BatchCompression getCompression(CompressionAlgorithm algorithm) {
+        if (algorithm == PacketCompressionAlgorithm.ZLIB) {
+            return this.zlib;
+        } else if (algorithm == PacketCompressionAlgorithm.SNAPPY) {
+            return this.snappy;
+        } else if (algorithm == PacketCompressionAlgorithm.NONE) {
+            return this.none;
+        }
+        throw new UnsupportedOperationException("Unsupported compression algorithm " + algorithm);
+    }
+
+    @Override
+    public BatchCompression getDefaultCompression() {
+        return this.preferred;
+    }
+
+    public PacketCompressionAlgorithm getAlgorithm() {
+        return (PacketCompressionAlgorithm) this.preferred.getAlgorithm();
+    }
+
+    public long getInputBytes() {
+        return this.inputBytes.sum();
+    }
+
+    public long getOutputBytes() {
+        return this.outputBytes.sum();
+    }
+
+    public long getCpuNanos() {
+        return this.cpuNanos.sum();
+    }
+
+    public String summary() {
+        long input = this.inputBytes.sum();
+        long output = this.outputBytes.sum();
+        return String.format(Locale.ROOT, "%s level %d threshold %d: %d batches (%d uncompressed), %d -> %d bytes " +
+                        "(ratio %.3f), %.1f ms CPU", this.getAlgorithm().name().toLowerCase(Locale.ROOT), this.level,
+                this.threshold, this.batches.sum(), this.uncompressedBatches.sum(), input, output,
+                input == 0 ? 1.0 : (double) output / input, this.cpuNanos.sum() / 1_000_000.0);
+    }
+
+    private void record(boolean adaptable, int input, int output, long nanos) {
+        this.batches.increment();
+        if (!adaptable) {
+            this.uncompressedBatches.increment();
+        }
+        this.inputBytes.add(input);
+        this.outputBytes.add(output);
+        this.cpuNanos.add(nanos);
+        this.metrics.onCompressed(this.clientbound, input, output, nanos);
+
+        if (!adaptable || !this.adaptive) {
+            return;
+        }
+        this.windowSaved += input - output;
+        this.windowNanos += nanos;
+        if (++this.windowBatches < ADAPT_INTERVAL) {
+            return;
+        }
+        long savedPerMilli = this.windowSaved * TimeUnit.MILLISECONDS.toNanos(1) / Math.max(1, this.windowNanos);
+        if (savedPerMilli < this.minSavings) {
+            // Not worth the CPU time, compress faster first, then compress less
+            if (this.preferred.delegate == this.zlib && this.level > 1) {
+                this.zlib.setLevel(--this.level);
+            } else {
+                this.threshold = Math.min(MAX_ADAPTIVE_THRESHOLD, Math.max(MIN_ADAPTIVE_THRESHOLD, this.threshold * 2));
+            }
+        } else if (savedPerMilli > this.minSavings * 2) {
+            if (this.threshold > this.minThreshold) {
+                this.threshold = Math.max(this.minThreshold, this.threshold / 2);
+            } else if (this.level < this.maxLevel) {
+                this.zlib.setLevel(++this.level);
+            }
+        }
+        this.windowBatches = 0;
+        this.windowSaved = 0;
+        this.windowNanos = 0;
+    }
+
+    private class Measured implements BatchCompression {
+        private final BatchCompression delegate;
+        private final boolean adaptable;
+
+        private Measured(BatchCompression delegate, boolean adaptable) {
+            this.delegate = delegate;
+            this.adaptable = adaptable;
+        }
+
+        @Override
+        public ByteBuf encode(ChannelHandlerContext ctx, ByteBuf msg) throws Exception {
+            int input = msg.readableBytes();
+            long start = System.nanoTime();
+            ByteBuf encoded = this.delegate.encode(ctx, msg);
+            CompressionPolicy.this.record(this.adaptable, input, encoded.readableBytes(), System.nanoTime() - start);
+            return encoded;
+        }
+
+        @Override
+        public ByteBuf decode(ChannelHandlerContext ctx, ByteBuf msg) throws Exception {
+            return this.delegate.decode(ctx, msg);
+        }
+
+        @Override
+        public CompressionAlgorithm getAlgorithm() {
+            return this.delegate.getAlgorithm();
+        }
+
+        @Override
+        public void setLevel(int level) {
+            this.delegate.setLevel(level);
+        }
+
+        @Override
+        public int getLevel() {
+            return this.delegate.getLevel();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package org.cloudburstmc.proxypass.network.bedrock.compression;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.compression.Snappy;
+import io.netty.util.concurrent.FastThreadLocal;
+import lombok.Getter;
+import lombok.Setter;
+import org.cloudburstmc.protocol.bedrock.data.CompressionAlgorithm;
+import org.cloudburstmc.protocol.bedrock.data.PacketCompressionAlgorithm;
+import org.cloudburstmc.protocol.bedrock.netty.codec.compression.BatchCompression;
+
+/**
+ * Snappy batch compression on one codec per thread, reset between batches. Output goes straight into the pooled
+ * buffer that is returned, sized for the worst case so it does not grow while encoding.
+ */
+public class PooledSnappyCompression implements BatchCompression {
+    private static final FastThreadLocal<Snappy> SNAPPY = new FastThreadLocal<>() {
+        @Override
+        protected Snappy initialValue() {
+            return new Snappy();
+        }
+    };
+
+    // Snappy has no levels, kept for the interface
+    @Getter
+    @Setter
+    private int level;
+
+    @Override
+    public ByteBuf encode(ChannelHandlerContext ctx, ByteBuf msg) throws Exception {
+        Snappy snappy = SNAPPY.get();
+        int length = msg.readableBytes();
+        // Preamble plus the worst case of Snappy's block format
+        ByteBuf out = ctx.alloc().ioBuffer(5 + 32 + length + length / 6);
+        try {
+            snappy.encode(msg, out, length);
+            return out;
+        } catch (Throwable t) {
+            out.release();
+            throw t;
+        } finally {
+            snappy.reset();
+        }
+    }
+
+    @Override
+    public ByteBuf decode(ChannelHandlerContext ctx, ByteBuf msg) throws Exception {
+        Snappy snappy = SNAPPY.get();
+        ByteBuf out = ctx.alloc().ioBuffer(Math.max(256, msg.readableBytes() * 2));
+        try {
+            snappy.decode(msg, out);
+            return out;
+        } catch (Throwable t) {
+            out.release();
+            throw t;
+        } finally {
+            snappy.reset();
+        }
+    }
+
+    @Override
+    public CompressionAlgorithm getAlgorithm() {
+        return PacketCompressionAlgorithm.SNAPPY;
+    }
+}
@@ -0,0 +1,180 @@
+package org.cloudburstmc.proxypass.network.bedrock.compression;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.concurrent.FastThreadLocal;
+import lombok.Getter;
+import lombok.Setter;
+import org.cloudburstmc.protocol.bedrock.data.CompressionAlgorithm;
+import org.cloudburstmc.protocol.bedrock.data.PacketCompressionAlgorithm;
+import org.cloudburstmc.protocol.bedrock.netty.codec.compression.BatchCompression;
+
+import java.nio.ByteBuffer;
+import java.util.function.Supplier;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Zlib batch compression on one {@link Deflater} and {@link Inflater} per thread, so per event loop, which are reset
+ * between batches instead of allocating and ending native zlib state for every batch. Input buffers are handed to
+ * zlib as they are and output is written straight into the pooled buffer that is returned, no byte array sits in
+ * between.
+ */
+public class PooledZlibCompression implements BatchCompression {
+    private static final int DEFAULT_MAX_DECOMPRESSED_BYTES = 10 * 1024 * 1024;
+    // Zlib streams of two different formats can not share a context
+    private static final FastThreadLocal<Deflater> RAW_DEFLATER = new ContextLocal<>(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+    private static final FastThreadLocal<Deflater> DEFLATER = new ContextLocal<>(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, false));
+    private static final FastThreadLocal<Inflater> RAW_INFLATER = new ContextLocal<>(() -> new Inflater(true));
+    private static final FastThreadLocal<Inflater> INFLATER = new ContextLocal<>(() -> new Inflater(false));
+
+    private final boolean raw;
+    @Getter
+    @Setter
+    private int level = 7;
+    @Getter
+    @Setter
+    private int maxDecompressedBytes = DEFAULT_MAX_DECOMPRESSED_BYTES;
+
+    /**
+     * @param raw whether batches are raw deflate streams without the zlib header, as the protocol has used since 1.16.220
+     */
+    public PooledZlibCompression(boolean raw) {
+        this.raw = raw;
+    }
+
+    @Override
+    public ByteBuf encode(ChannelHandlerContext ctx, ByteBuf msg) throws Exception {
+        Deflater deflater = (this.raw ? RAW_DEFLATER : DEFLATER).get();
+        deflater.reset();
+        deflater.setLevel(this.level);
+
+        int length = msg.readableBytes();
+        ByteBuf out = ctx.alloc().ioBuffer(compressBound(length));
+        try {
+            if (msg.nioBufferCount() == 1) {
+                deflater.setInput(msg.internalNioBuffer(msg.readerIndex(), length));
+            } else {
+                for (ByteBuffer input : msg.nioBuffers(msg.readerIndex(), length)) {
+                    deflater.setInput(input);
+                    deflateInput(deflater, out);
+                }
+            }
+            deflateFinish(deflater, out);
+            msg.skipBytes(length);
+            return out;
+        } catch (Throwable t) {
+            out.release();
+            throw t;
+        }
+    }
+
+    @Override
+    public ByteBuf decode(ChannelHandlerContext ctx, ByteBuf msg) throws Exception {
+        Inflater inflater = (this.raw ? RAW_INFLATER : INFLATER).get();
+        inflater.reset();
+
+        int length = msg.readableBytes();
+        ByteBuf out = ctx.alloc().ioBuffer(Math.min(this.maxDecompressedBytes, Math.max(256, length * 4)));
+        try {
+            if (msg.nioBufferCount() == 1) {
+                inflater.setInput(msg.internalNioBuffer(msg.readerIndex(), length));
+                this.inflate(inflater, out);
+            } else {
+                for (ByteBuffer input : msg.nioBuffers(msg.readerIndex(), length)) {
+                    inflater.setInput(input);
+                    if (this.inflate(inflater, out)) {
+                        break;
+                    }
+                }
+            }
+            msg.skipBytes(length);
+            return out;
+        } catch (Throwable t) {
+            out.release();
+            throw t;
+        }
+    }
+
+    @Override
+    public CompressionAlgorithm getAlgorithm() {
+        return PacketCompressionAlgorithm.ZLIB;
+    }
+
+    // Deflates until zlib has taken all of the current input
+    private static void deflateInput(Deflater deflater, ByteBuf out) {
+        while (!deflater.needsInput()) {
+            deflate(deflater, out);
+        }
+    }
+
+    // Deflates the rest of the stream
+    private static void deflateFinish(Deflater deflater, ByteBuf out) {
+        deflater.finish();
+        while (!deflater.finished()) {
+            deflate(deflater, out);
+        }
+    }
+
+    private static void deflate(Deflater deflater, ByteBuf out) {
+        if (!out.isWritable()) {
+            out.ensureWritable(Math.max(256, out.capacity() >>> 1));
+        }
+        int written = deflater.deflate(out.internalNioBuffer(out.writerIndex(), out.writableBytes()));
+        out.writerIndex(out.writerIndex() + written);
+    }
+
+    // Inflates the current input, returns whether the stream is complete
+    private boolean inflate(Inflater inflater, ByteBuf out) throws DataFormatException {
+        while (!inflater.finished()) {
+            if (!out.isWritable()) {
+                int capacity = out.capacity();
+                if (capacity >= this.maxDecompressedBytes) {
+                    throw new DataFormatException("Batch exceeds " + this.maxDecompressedBytes + " bytes when decompressed");
+                }
+                out.ensureWritable(Math.min(this.maxDecompressedBytes - capacity, Math.max(256, capacity)));
+            }
+            int written = inflater.inflate(out.internalNioBuffer(out.writerIndex(), out.writableBytes()));
+            out.writerIndex(out.writerIndex() + written);
+            if (written == 0) {
+                if (inflater.needsDictionary()) {
+                    throw new DataFormatException("Batch requires a preset dictionary");
+                }
+                if (inflater.needsInput()) {
+                    // Rest of the stream is in the next component, or the sender did not finish it
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    // Upper bound of the deflated size, from zlib's compressBound()
+    private static int compressBound(int length) {
+        return length + (length >>> 12) + (length >>> 14) + (length >>> 25) + 13;
+    }
+
+    // Ends the native state of a context when its thread is done with it
+    private static class ContextLocal<T> extends FastThreadLocal<T> {
+        private final Supplier<T> factory;
+
+        private ContextLocal(Supplier<T> factory) {
+            this.factory = factory;
+        }
+
+        @Override
+        protected T initialValue() {
+            return this.factory.get();
+        }
+
+        @Override
+        protected void onRemoval(T value) {
+            if (value instanceof Deflater deflater) {
+                deflater.end();
+            } else if (value instanceof Inflater inflater) {
+                inflater.end();
+            }
+        }
+    }
+}
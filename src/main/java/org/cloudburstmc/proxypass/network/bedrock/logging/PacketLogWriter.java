@@ -0,0 +1,345 @@
+package org.cloudburstmc.proxypass.network.bedrock.logging;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.internal.PlatformDependent;
+import lombok.extern.log4j.Log4j2;
+import org.cloudburstmc.protocol.bedrock.packet.BedrockPacket;
+import org.cloudburstmc.proxypass.metrics.ProxyMetrics;
+import org.cloudburstmc.proxypass.network.bedrock.capture.CaptureStore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes packet logs and captures of all sessions from a single background thread. Event loops only put records into
+ * a bounded lock-free queue, records which do not fit are dropped and counted. Formatting happens on the writer thread.
+ * Closed sessions go through a separate unbounded queue, so closing never waits for space. Records are taken in
+ * batches, so files are flushed and closed on time while the queue never empties.
+ */
+@Log4j2
+public final class PacketLogWriter implements Runnable {
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("HH:mm:ss:SSS")
+            .withZone(ZoneId.systemDefault());
+    private static final int FLUSH_BYTES = 256 * 1024;
+    private static final long FLUSH_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    private static final int BATCH_SIZE = 1024;
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private static PacketLogWriter instance;
+
+    private final Queue<PacketLogRecord> queue;
+    private final Queue<SessionLogger> closed = new ConcurrentLinkedQueue<>();
+    private final LongAdder dropped = new LongAdder();
+    // Only accessed by the writer thread
+    private final Map<SessionLogger, Output> outputs = new IdentityHashMap<>();
+    private final List<Closing> closing = new ArrayList<>();
+    // Records still queued when their session closed are dropped instead of opening its files again
+    private final Set<SessionLogger> closedLoggers = Collections.newSetFromMap(new WeakHashMap<>());
+    private final StringBuilder builder = new StringBuilder(512);
+    private long taken;
+    private volatile boolean running = true;
+    private Thread thread;
+
+    private PacketLogWriter(int capacity) {
+        this.queue = PlatformDependent.newFixedMpscQueue(capacity);
+    }
+
+    public static synchronized PacketLogWriter get(int capacity, ProxyMetrics metrics) {
+        if (instance == null) {
+            instance = new PacketLogWriter(capacity);
+            metrics.registerGauge("proxypass_log_queue_depth", "Packets waiting for the packet log writer", false,
+                    instance::getQueueDepth);
+            instance.thread = new Thread(instance, "proxypass-packet-log");
+            instance.thread.setDaemon(true);
+            instance.thread.start();
+        }
+        return instance;
+    }
+
+    /**
+     * Writes the records still queued and closes the files of every session, waiting for at most ten seconds.
+     */
+    public static synchronized void shutdown() {
+        if (instance == null) {
+            return;
+        }
+        instance.running = false;
+        LockSupport.unpark(instance.thread);
+        try {
+            instance.thread.join(SHUTDOWN_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (instance.thread.isAlive()) {
+            log.warn("Packet log writer did not finish within {} ms", SHUTDOWN_TIMEOUT_MILLIS);
+        }
+    }
+
+    void write(SessionLogger logger, boolean upstream, BedrockPacket packet) {
+        PacketLogRecord record = new PacketLogRecord(logger, System.currentTimeMillis(), upstream,
+                ReferenceCountUtil.retain(packet), null);
+        if (!this.queue.offer(record)) {
+            ReferenceCountUtil.release(packet);
+            this.dropped.increment();
+            logger.onDropped();
+        }
+    }
+
+    /**
+     * Queues an encoded capture frame, ownership of the buffer is transferred to the writer.
+     */
+    void capture(SessionLogger logger, ByteBuf frame) {
+        if (!this.queue.offer(new PacketLogRecord(logger, 0, false, null, frame))) {
+            frame.release();
+            this.dropped.increment();
+            logger.onDropped();
+        }
+    }
+
+    /**
+     * Closes the files of the session once the records it queued so far are written.
+     */
+    void close(SessionLogger logger) {
+        this.closed.offer(logger);
+    }
+
+    public long getDropped() {
+        return this.dropped.sum();
+    }
+
+    public int getQueueDepth() {
+        return this.queue.size();
+    }
+
+    @Override
+    public void run() {
+        while (this.running) {
+            if (this.poll()) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+
+        // Shutting down, write everything queued so far and close every file
+        while (!this.poll()) {
+            // Until the queue and the pending closes are empty
+        }
+        for (Output output : this.outputs.values()) {
+            this.closeQuietly(output);
+        }
+        this.outputs.clear();
+    }
+
+    /**
+     * Handles one batch of records and the closes whose records are all handled.
+     *
+     * @return whether there was nothing to do
+     */
+    private boolean poll() {
+        SessionLogger logger;
+        while ((logger = this.closed.poll()) != null) {
+            // The records the session queued before closing are at most the ones queued now
+            this.closing.add(new Closing(logger, this.taken + this.queue.size()));
+        }
+
+        boolean idle = true;
+        PacketLogRecord record;
+        for (int i = 0; i < BATCH_SIZE && (record = this.queue.poll()) != null; i++) {
+            idle = false;
+            this.taken++;
+            try {
+                this.handle(record);
+            } catch (Exception e) {
+                log.error("Unable to write packet log", e);
+            }
+        }
+
+        Iterator<Closing> iterator = this.closing.iterator();
+        while (iterator.hasNext()) {
+            Closing entry = iterator.next();
+            if (entry.after() > this.taken && !this.queue.isEmpty()) {
+                continue;
+            }
+            iterator.remove();
+            idle = false;
+            this.closedLoggers.add(entry.logger());
+            Output output = this.outputs.remove(entry.logger());
+            if (output != null) {
+                this.closeQuietly(output);
+            }
+        }
+
+        long now = System.nanoTime();
+        for (Output output : this.outputs.values()) {
+            output.text.flushIfNeeded(now);
+        }
+        return idle;
+    }
+
+    private void closeQuietly(Output output) {
+        try {
+            output.close();
+        } catch (Exception e) {
+            log.error("Unable to close packet log", e);
+        }
+    }
+
+    private void handle(PacketLogRecord record) throws IOException {
+        SessionLogger logger = record.logger();
+        if (this.closedLoggers.contains(logger)) {
+            ReferenceCountUtil.release(record.packet());
+            ReferenceCountUtil.release(record.frame());
+            return;
+        }
+        Output output = this.outputs.computeIfAbsent(logger, Output::new);
+        if (record.frame() != null) {
+            output.capture(record.frame());
+            return;
+        }
+
+        try {
+            this.builder.setLength(0);
+            this.builder.append('[');
+            FORMATTER.formatTo(Instant.ofEpochMilli(record.timestamp()), this.builder);
+            this.builder.append("] [").append(record.upstream() ? "SERVER BOUND" : "CLIENT BOUND").append("] - ")
+                    .append(record.packet())
+                    .append(System.lineSeparator());
+        } finally {
+            ReferenceCountUtil.release(record.packet());
+        }
+
+        if (logger.isLogToConsole()) {
+            System.out.print(this.builder);
+        }
+        output.text.add(Unpooled.wrappedBuffer(this.builder.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private record PacketLogRecord(SessionLogger logger, long timestamp, boolean upstream, BedrockPacket packet,
+                                   ByteBuf frame) {
+    }
+
+    /**
+     * @param after number of records taken from the queue once the session's records are all handled
+     */
+    private record Closing(SessionLogger logger, long after) {
+    }
+
+    private static class Output {
+        private final SessionLogger logger;
+        private final Sink text;
+        private CaptureStore capture;
+
+        Output(SessionLogger logger) {
+            this.logger = logger;
+            this.text = new Sink(logger.isLogToFile() ? logger.getLogPath() : null);
+        }
+
+        void capture(ByteBuf frame) throws IOException {
+            try {
+                if (this.capture == null) {
+                    this.capture = new CaptureStore(this.logger.getCapturePath(), this.logger.getCaptureSegmentSize());
+                }
+                this.capture.append(frame);
+            } finally {
+                frame.release();
+            }
+        }
+
+        void close() throws IOException {
+            this.text.close();
+            if (this.capture != null) {
+                this.capture.close();
+            }
+        }
+    }
+
+    /**
+     * A text file opened on first use which is appended to with gathering writes.
+     */
+    private static class Sink {
+        private final List<ByteBuf> pending = new ArrayList<>();
+        private final Path path;
+        private FileChannel channel;
+        private int pendingBytes;
+        private long lastFlush = System.nanoTime();
+
+        Sink(Path path) {
+            this.path = path;
+        }
+
+        void add(ByteBuf buffer) {
+            if (this.path == null) {
+                buffer.release();
+                return;
+            }
+            this.pending.add(buffer);
+            this.pendingBytes += buffer.readableBytes();
+            if (this.pendingBytes >= FLUSH_BYTES) {
+                this.flush(System.nanoTime());
+            }
+        }
+
+        void flushIfNeeded(long now) {
+            if (this.pendingBytes >= FLUSH_BYTES || now - this.lastFlush >= FLUSH_INTERVAL_NANOS) {
+                this.flush(now);
+            }
+        }
+
+        void flush(long now) {
+            this.lastFlush = now;
+            if (this.pending.isEmpty()) {
+                return;
+            }
+            try {
+                if (this.channel == null) {
+                    this.channel = FileChannel.open(this.path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                            StandardOpenOption.APPEND);
+                }
+                ByteBuffer[] buffers = new ByteBuffer[this.pending.size()];
+                for (int i = 0; i < buffers.length; i++) {
+                    ByteBuf buffer = this.pending.get(i);
+                    buffers[i] = buffer.nioBuffer(buffer.readerIndex(), buffer.readableBytes());
+                }
+                long remaining = this.pendingBytes;
+                while (remaining > 0) {
+                    remaining -= this.channel.write(buffers);
+                }
+            } catch (IOException e) {
+                log.error("Unable to flush {}", this.path, e);
+            } finally {
+                this.pending.forEach(ByteBuf::release);
+                this.pending.clear();
+                this.pendingBytes = 0;
+            }
+        }
+
+        void close() throws IOException {
+            this.flush(System.nanoTime());
+            if (this.channel != null) {
+                this.channel.close();
+            }
+        }
+    }
+}
@@ -5,12 +5,15 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectWriter;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
+import lombok.Getter;
 import lombok.extern.log4j.Log4j2;
 import org.cloudburstmc.protocol.bedrock.BedrockSession;
 import org.cloudburstmc.protocol.bedrock.codec.BedrockCodecHelper;
 import org.cloudburstmc.protocol.bedrock.netty.BedrockPacketWrapper;
 import org.cloudburstmc.protocol.bedrock.packet.BedrockPacket;
+import org.cloudburstmc.protocol.bedrock.packet.UnknownPacket;
 import org.cloudburstmc.proxypass.ProxyPass;
+import org.cloudburstmc.proxypass.network.bedrock.capture.CaptureFormat;
 import org.cloudburstmc.proxypass.ui.PacketInspector;
 import org.jose4j.json.internal.json_simple.JSONObject;
 
@@ -22,44 +25,40 @@ import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
-import java.time.Instant;
-import java.time.ZoneId;
-import java.time.format.DateTimeFormatter;
-import java.util.ArrayDeque;
-import java.util.Deque;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
-import java.util.function.Supplier;
+import java.util.concurrent.atomic.LongAdder;
 
 
 @Log4j2
 public class SessionLogger {
 
-    private static final String PATTERN_FORMAT = "HH:mm:ss:SSS";
-    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern(PATTERN_FORMAT)
-            .withZone(ZoneId.systemDefault());
-    private static final String LOG_FORMAT = "[%s] [%s] - %s";
-
-    private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
-
     private final ProxyPass proxy;
 
     private final Path dataPath;
 
+    @Getter
     private final Path logPath;
 
-    private final Deque<String> logBuffer = new ArrayDeque<>();
+    @Getter
+    private final Path capturePath;
+
+    private final LongAdder dropped = new LongAdder();
+
+    // Capture timestamps are the wall clock at session start plus monotonic time since then
+    private final long captureStartMicros = System.currentTimeMillis() * 1000;
+    private final long captureStartNanos = System.nanoTime();
+
+    private PacketLogWriter writer;
 
     public SessionLogger(ProxyPass proxy, Path dataPath) {
         this.proxy = proxy;
         this.dataPath = dataPath;
         this.logPath = dataPath.resolve("packets.log");
+        this.capturePath = dataPath.resolve("capture");
     }
 
     public void start() {
-        if (proxy.getConfiguration().isLoggingPackets()){
-            if (proxy.getConfiguration().getLogTo().logToFile) {
+        if (proxy.getConfiguration().isLoggingPackets() || isCapturing()) {
+            if (proxy.getConfiguration().getLogTo().logToFile || isCapturing()) {
                 log.debug("Packets will be logged under " + logPath.toString());
                 try {
                     Files.createDirectories(dataPath);
@@ -67,10 +66,40 @@ public class SessionLogger {
                     throw new RuntimeException(e);
                 }
             }
-            executor.scheduleAtFixedRate(this::flushLogBuffer, 5, 5, TimeUnit.SECONDS);
+            this.writer = PacketLogWriter.get(proxy.getConfiguration().getLogQueueSize(), proxy.getMetrics());
+        }
+    }
+
+    public void close() {
+        if (this.writer != null) {
+            this.writer.close(this);
+            if (this.dropped.sum() > 0) {
+                log.warn("Dropped {} packets from the packet log of {}, the log queue was full", this.dropped.sum(), dataPath.getFileName());
+            }
         }
     }
 
+    boolean isLogToFile() {
+        return proxy.getConfiguration().isLoggingPackets() && proxy.getConfiguration().getLogTo().logToFile;
+    }
+
+    boolean isCapturing() {
+        return proxy.getConfiguration().isCapturePackets();
+    }
+
+    int getCaptureSegmentSize() {
+        return proxy.getConfiguration().getCaptureSegmentSize() * 1024 * 1024;
+    }
+
+    boolean isLogToConsole() {
+        return proxy.getConfiguration().isLoggingPackets() && proxy.getConfiguration().getLogTo().logToConsole;
+    }
+
+    void onDropped() {
+        this.dropped.increment();
+        this.proxy.getMetrics().getLogDropped().increment();
+    }
+
     public void saveImage(String name, BufferedImage image) {
         Path path = dataPath.resolve(name + ".png");
         try (OutputStream stream = Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
@@ -101,18 +130,26 @@ public class SessionLogger {
 
     public void logPacket(BedrockSession session, BedrockPacket packet, boolean upstream) {
         String logPrefix = getLogPrefix(upstream);
+        if (this.writer != null && isCapturing()) {
+            ByteBuf buffer = ByteBufAllocator.DEFAULT.ioBuffer();
+            try {
+                ProxyPass.CODEC.tryEncode(session.getPeer().getCodecHelper(), buffer, packet);
+                int packetId = ProxyPass.CODEC.getPacketDefinition(packet.getClass()).getId();
+                this.capturePacket(session, upstream, packetId, buffer, buffer.readerIndex(), buffer.readableBytes());
+            } catch (Exception e) {
+                log.debug("Failed to capture packet", e);
+            } finally {
+                buffer.release();
+            }
+        }
+
         if (!proxy.isIgnoredPacket(packet.getClass())) {
             if (session.isLogging() && log.isTraceEnabled()) {
                 log.trace("{} {}: {}", logPrefix, session.getSocketAddress(), packet);
             }
 
-            String logMessage = String.format(LOG_FORMAT, FORMATTER.format(Instant.now()), logPrefix, packet);
-            if (proxy.getConfiguration().isLoggingPackets()) {
-                logToBuffer(() -> logMessage);
-            }
-
-            if (proxy.getConfiguration().isLoggingPackets() && proxy.getConfiguration().getLogTo().logToConsole) {
-                System.out.println(logMessage);
+            if (this.writer != null) {
+                this.writer.write(this, upstream, packet);
             }
 
             if (proxy.getConfiguration().isEnableUi()) {
@@ -138,18 +175,24 @@ public class SessionLogger {
 
     public void logPacket(BedrockSession session, BedrockPacketWrapper wrapper, boolean upstream) {
         BedrockPacket packet = wrapper.getPacket();
+        if (this.writer != null && isCapturing()) {
+            ByteBuf buffer = wrapper.getPacketBuffer();
+            int headerLength = wrapper.getHeaderLength();
+            this.capturePacket(session, upstream, wrapper.getPacketId(), buffer,
+                    buffer.readerIndex() + headerLength, buffer.readableBytes() - headerLength);
+        }
+
+        if (packet instanceof UnknownPacket && proxy.getDecodePolicy().isSkipped(wrapper.getPacketId())) {
+            // Left undecoded on purpose, only ignored packets are skipped.
+            return;
+        }
         if (!proxy.isIgnoredPacket(packet.getClass())) {
             if (session.isLogging() && log.isTraceEnabled()) {
                 log.trace("{} {}: {}", getLogPrefix(upstream), session.getSocketAddress(), packet);
             }
 
-            String logMessage = String.format(LOG_FORMAT, FORMATTER.format(Instant.now()), getLogPrefix(upstream), packet);
-            if (proxy.getConfiguration().isLoggingPackets()) {
-                logToBuffer(() -> logMessage);
-            }
-
-            if (proxy.getConfiguration().isLoggingPackets() && proxy.getConfiguration().getLogTo().logToConsole) {
-                System.out.println(logMessage);
+            if (this.writer != null) {
+                this.writer.write(this, upstream, packet);
             }
         }
 
@@ -171,27 +214,16 @@ public class SessionLogger {
         }
     }
 
-    private String getLogPrefix(boolean upstream) {
-        return upstream ? "SERVER BOUND" : "CLIENT BOUND";
-    }
-
-    private void logToBuffer(Supplier<String> supplier) {
-        synchronized (logBuffer) {
-            logBuffer.addLast(supplier.get());
-        }
+    private void capturePacket(BedrockSession session, boolean upstream, int packetId, ByteBuf payload, int index, int length) {
+        long timestamp = this.captureStartMicros + (System.nanoTime() - this.captureStartNanos) / 1000;
+        // The only copy of the payload, the frame is handed to the writer thread as is.
+        ByteBuf frame = payload.alloc().directBuffer(4 + CaptureFormat.FRAME_HEADER_SIZE + length);
+        CaptureFormat.writeFrame(frame, timestamp, upstream, packetId, session.getCodec().getProtocolVersion(),
+                payload, index, length);
+        this.writer.capture(this, frame);
     }
 
-    private void flushLogBuffer() {
-        synchronized (logBuffer) {
-            try {
-                if (proxy.getConfiguration().getLogTo().logToFile) {
-                    Files.write(logPath, logBuffer, StandardOpenOption.APPEND, StandardOpenOption.CREATE);
-                }
-                logBuffer.clear();
-            } catch (IOException e) {
-                log.error("Unable to flush packet log", e);
-            }
-        }
+    private String getLogPrefix(boolean upstream) {
+        return upstream ? "SERVER BOUND" : "CLIENT BOUND";
     }
-
 }
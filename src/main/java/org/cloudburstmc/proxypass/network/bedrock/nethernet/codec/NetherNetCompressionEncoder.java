@@ -1,15 +1,22 @@
 package org.cloudburstmc.proxypass.network.bedrock.nethernet.codec;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.MessageToByteEncoder;
+import io.netty.handler.codec.MessageToMessageEncoder;
 import lombok.extern.log4j.Log4j2;
 import org.cloudburstmc.protocol.bedrock.data.PacketCompressionAlgorithm;
 import org.cloudburstmc.protocol.bedrock.netty.codec.compression.BatchCompression;
 import org.cloudburstmc.protocol.bedrock.netty.codec.compression.CompressionStrategy;
+import org.cloudburstmc.proxypass.network.bedrock.compression.CompressionPolicy;
 
+import java.util.List;
+
+/**
+ * Compresses each frame, the algorithm prefix is prepended as a composite instead of copying the compressed data.
+ */
 @Log4j2
-public class NetherNetCompressionEncoder extends MessageToByteEncoder<ByteBuf> {
+public class NetherNetCompressionEncoder extends MessageToMessageEncoder<ByteBuf> {
     public static final String NAME = "nethernet-compression-encoder";
 
     private final CompressionStrategy strategy;
@@ -23,30 +30,35 @@ public class NetherNetCompressionEncoder extends MessageToByteEncoder<ByteBuf> {
     }
 
     @Override
-    protected void encode(ChannelHandlerContext ctx, ByteBuf msg, ByteBuf out) throws Exception {
+    protected void encode(ChannelHandlerContext ctx, ByteBuf msg, List<Object> out) throws Exception {
         BatchCompression compression;
-        if (msg.readableBytes() > this.threshold) {
+        if (this.strategy instanceof CompressionPolicy policy) {
+            compression = policy.select(msg.readableBytes());
+        } else if (msg.readableBytes() > this.threshold) {
             compression = this.strategy.getDefaultCompression();
         } else {
             compression = this.strategy.getCompression(PacketCompressionAlgorithm.NONE);
         }
 
         ByteBuf compressed = compression.encode(ctx, msg);
+        if (!this.prefixed) {
+            out.add(compressed);
+            return;
+        }
 
         try {
-            if (this.prefixed) {
-                out.writeByte(switch (compression.getAlgorithm()) {
-                    case PacketCompressionAlgorithm.ZLIB -> 0x00;
-                    case PacketCompressionAlgorithm.SNAPPY -> 0x01;
-                    default -> (byte) 0xff;
-                });
-            }
-            out.writeBytes(compressed);
+            ByteBuf prefix = ctx.alloc().ioBuffer(1).writeByte(switch (compression.getAlgorithm()) {
+                case PacketCompressionAlgorithm.ZLIB -> 0x00;
+                case PacketCompressionAlgorithm.SNAPPY -> 0x01;
+                default -> (byte) 0xff;
+            });
+            CompositeByteBuf frame = ctx.alloc().compositeDirectBuffer(2);
+            frame.addComponents(true, prefix, compressed);
+            out.add(frame);
         } catch (Exception e) {
             log.error("Error during compression encoding", e);
-            throw e;
-        } finally {
             compressed.release();
+            throw e;
         }
     }
 }
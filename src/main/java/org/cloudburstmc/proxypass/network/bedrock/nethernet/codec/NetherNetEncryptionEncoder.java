@@ -1,83 +1,78 @@
 package org.cloudburstmc.proxypass.network.bedrock.nethernet.codec;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.MessageToByteEncoder;
-import io.netty.util.concurrent.FastThreadLocal;
+import io.netty.handler.codec.MessageToMessageEncoder;
 import lombok.extern.log4j.Log4j2;
 
 import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
-import java.nio.ByteBuffer;
-import java.security.MessageDigest;
-import java.util.Arrays;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.List;
 
+/**
+ * Appends the trailer and encrypts. Buffers only referenced by this encoder are encrypted in place, anything still
+ * shared, such as a payload forwarded from the other leg that is also held by a logged packet, is encrypted into a
+ * single new buffer.
+ */
 @Log4j2
-public class NetherNetEncryptionEncoder extends MessageToByteEncoder<ByteBuf> {
+public class NetherNetEncryptionEncoder extends MessageToMessageEncoder<ByteBuf> {
     public static final String NAME = "nethernet-encryption-encoder";
 
-    private static final FastThreadLocal<MessageDigest> DIGEST = new FastThreadLocal<MessageDigest>() {
-        @Override
-        protected MessageDigest initialValue() {
-            try {
-                return MessageDigest.getInstance("SHA-256");
-            } catch (Exception e) {
-                throw new AssertionError(e);
-            }
-        }
-    };
-
-    private final AtomicLong packetCounter = new AtomicLong();
-    private final SecretKey key;
-    private final Cipher cipher;
+    private final NetherNetEncryptionState state;
 
     public NetherNetEncryptionEncoder(SecretKey key, Cipher cipher) {
-        this.key = key;
-        this.cipher = cipher;
+        this.state = new NetherNetEncryptionState(key, cipher);
     }
 
     @Override
-    protected void encode(ChannelHandlerContext ctx, ByteBuf msg, ByteBuf out) throws Exception {
-        ByteBuf buf = ctx.alloc().ioBuffer(msg.readableBytes() + 8);
-        try {
-            ByteBuffer trailer = ByteBuffer.wrap(generateTrailer(msg, this.key, this.packetCounter));
-            ByteBuffer inBuffer = msg.nioBuffer();
-            ByteBuffer outBuffer = buf.nioBuffer(0, msg.readableBytes() + 8);
+    protected void encode(ChannelHandlerContext ctx, ByteBuf msg, List<Object> out) throws Exception {
+        int index = msg.readerIndex();
+        int length = msg.readableBytes();
+        // The trailer is a digest of the plaintext, it is encrypted after the payload
+        byte[] trailer = this.state.nextTrailer(msg, index, length);
 
-            int index = this.cipher.update(inBuffer, outBuffer);
-            index += this.cipher.update(trailer, outBuffer);
+        if (!isExclusive(msg)) {
+            ByteBuf encrypted = ctx.alloc().ioBuffer(length + NetherNetEncryptionState.TRAILER_SIZE);
+            try {
+                this.state.update(msg, index, encrypted, 0, length);
+                this.state.update(trailer, 0, NetherNetEncryptionState.TRAILER_SIZE);
+                encrypted.writerIndex(length);
+                encrypted.writeBytes(trailer, 0, NetherNetEncryptionState.TRAILER_SIZE);
+            } catch (Exception e) {
+                encrypted.release();
+                throw e;
+            }
+            out.add(encrypted);
+            return;
+        }
 
-            buf.writerIndex(index);
-            
-            out.writeBytes(buf.retain());
-        } finally {
-            buf.release();
+        this.state.update(msg, index, msg, index, length);
+        this.state.update(trailer, 0, NetherNetEncryptionState.TRAILER_SIZE);
+        if (msg.writableBytes() >= NetherNetEncryptionState.TRAILER_SIZE) {
+            out.add(msg.retain().writeBytes(trailer, 0, NetherNetEncryptionState.TRAILER_SIZE));
+            return;
         }
+        CompositeByteBuf composite = ctx.alloc().compositeDirectBuffer(2);
+        composite.addComponents(true, msg.retain(),
+                ctx.alloc().ioBuffer(NetherNetEncryptionState.TRAILER_SIZE).writeBytes(trailer, 0, NetherNetEncryptionState.TRAILER_SIZE));
+        out.add(composite);
     }
 
-    static byte[] generateTrailer(ByteBuf buf, SecretKey key, AtomicLong counter) {
-        try {
-            MessageDigest digest = DIGEST.get();
-            ByteBuf counterBuf = ByteBufAllocator.DEFAULT.directBuffer(8);
-            byte[] result;
-            try {
-                counterBuf.writeLongLE(counter.getAndIncrement());
-                ByteBuffer keyBuffer = ByteBuffer.wrap(key.getEncoded());
-                
-                digest.update(counterBuf.nioBuffer(0, 8));
-                digest.update(buf.nioBuffer(buf.readerIndex(), buf.readableBytes()));
-                digest.update(keyBuffer);
-                byte[] hash = digest.digest();
-                result = Arrays.copyOf(hash, 8);
-            } finally {
-                counterBuf.release();
-                digest.reset();
+    // Whether every byte of the buffer is referenced by nothing but the message itself
+    private static boolean isExclusive(ByteBuf buffer) {
+        if (buffer.isReadOnly() || buffer.refCnt() != 1) {
+            return false;
+        }
+        if (buffer instanceof CompositeByteBuf composite) {
+            for (int i = 0; i < composite.numComponents(); i++) {
+                if (!isExclusive(composite.internalComponent(i))) {
+                    return false;
+                }
             }
-            return result;
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+            return true;
         }
+        ByteBuf unwrapped = buffer.unwrap();
+        return unwrapped == null || isExclusive(unwrapped);
     }
-}
\ No newline at end of file
+}
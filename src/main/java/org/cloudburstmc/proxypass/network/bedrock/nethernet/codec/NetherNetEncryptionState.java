@@ -0,0 +1,92 @@
+package org.cloudburstmc.proxypass.network.bedrock.nethernet.codec;
+
+import io.netty.buffer.ByteBuf;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Cipher and trailer state of one direction of a NetherNet connection. Only used from the event loop of its channel,
+ * so the digest, the key bytes and all scratch arrays are reused and nothing is allocated per packet.
+ */
+final class NetherNetEncryptionState {
+    static final int TRAILER_SIZE = 8;
+    // Direct buffers are streamed through this in chunks, the JDK would allocate a temporary array per call instead
+    private static final int SCRATCH_SIZE = 8192;
+
+    private final Cipher cipher;
+    private final MessageDigest digest;
+    // SecretKey#getEncoded() returns a new copy on every call
+    private final byte[] key;
+    private final byte[] counterBytes = new byte[8];
+    private final byte[] hash = new byte[32];
+    private final byte[] scratch = new byte[SCRATCH_SIZE];
+    private long counter;
+
+    NetherNetEncryptionState(SecretKey key, Cipher cipher) {
+        this.cipher = cipher;
+        this.key = key.getEncoded();
+        try {
+            this.digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Computes the trailer of the next packet, the first 8 bytes of SHA-256(counter || payload || key).
+     *
+     * @return scratch array holding the trailer in its first {@link #TRAILER_SIZE} bytes, valid until the next call
+     */
+    byte[] nextTrailer(ByteBuf payload, int index, int length) {
+        long counter = this.counter++;
+        for (int i = 0; i < 8; i++) {
+            this.counterBytes[i] = (byte) (counter >>> (i * 8));
+        }
+        this.digest.update(this.counterBytes);
+        if (payload.hasArray()) {
+            this.digest.update(payload.array(), payload.arrayOffset() + index, length);
+        } else if (payload.nioBufferCount() == 1) {
+            this.digest.update(payload.internalNioBuffer(index, length));
+        } else {
+            for (ByteBuffer buffer : payload.nioBuffers(index, length)) {
+                this.digest.update(buffer);
+            }
+        }
+        this.digest.update(this.key);
+        try {
+            this.digest.digest(this.hash, 0, this.hash.length);
+        } catch (DigestException e) {
+            throw new IllegalStateException(e);
+        }
+        return this.hash;
+    }
+
+    /**
+     * Runs the cipher over {@code length} bytes of {@code src} into {@code dst}, which may be the same buffer and range.
+     */
+    void update(ByteBuf src, int srcIndex, ByteBuf dst, int dstIndex, int length) throws ShortBufferException {
+        if (src.hasArray() && dst.hasArray()) {
+            this.cipher.update(src.array(), src.arrayOffset() + srcIndex, length, dst.array(), dst.arrayOffset() + dstIndex);
+            return;
+        }
+        for (int offset = 0; offset < length; offset += SCRATCH_SIZE) {
+            int chunk = Math.min(SCRATCH_SIZE, length - offset);
+            src.getBytes(srcIndex + offset, this.scratch, 0, chunk);
+            this.cipher.update(this.scratch, 0, chunk, this.scratch, 0);
+            dst.setBytes(dstIndex + offset, this.scratch, 0, chunk);
+        }
+    }
+
+    /**
+     * Runs the cipher over a range of an array in place.
+     */
+    void update(byte[] bytes, int offset, int length) throws ShortBufferException {
+        this.cipher.update(bytes, offset, length, bytes, offset);
+    }
+}
@@ -3,35 +3,62 @@ package org.cloudburstmc.proxypass.network.bedrock.nethernet.codec;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.CorruptedFrameException;
 import lombok.extern.log4j.Log4j2;
-import org.cloudburstmc.protocol.common.util.VarInts;
 
 import java.util.List;
 
+/**
+ * Splits the byte stream of the data channel into varint length prefixed frames. Data channel messages do not line up
+ * with frames, so the length read so far and the size of the pending frame are kept across calls and no byte is read
+ * twice. Frames are emitted as retained slices of the cumulation.
+ */
 @Log4j2
 public class NetherNetPacketDecoder extends ByteToMessageDecoder {
     public static final String NAME = "nethernet-decoder";
 
+    // An unsigned int takes at most 5 varint bytes
+    private static final int MAX_LENGTH_SHIFT = 35;
+
+    // Size of the frame being waited for, -1 while its length is still being read
+    private int frameLength = -1;
+    private int partialLength;
+    private int lengthShift;
+
     @Override
     protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
-        if (!in.isReadable()) return;
-
-        in.markReaderIndex();
-        int length;
-        try {
-            length = VarInts.readUnsignedInt(in);
-        } catch (Exception e) {
-            // Not enough bytes for VarInt or invalid
-            in.resetReaderIndex();
-            return;
+        while (in.isReadable()) {
+            if (this.frameLength < 0 && !this.readLength(in)) {
+                return;
+            }
+            if (in.readableBytes() < this.frameLength) {
+                return;
+            }
+            out.add(in.readRetainedSlice(this.frameLength));
+            this.frameLength = -1;
         }
+    }
 
-        if (in.readableBytes() < length) {
-            // Not enough bytes for the full packet
-            in.resetReaderIndex();
-            return;
+    // Continues reading the varint length, returns whether it is complete
+    private boolean readLength(ByteBuf in) {
+        while (in.isReadable()) {
+            byte b = in.readByte();
+            this.partialLength |= (b & 0x7f) << this.lengthShift;
+            this.lengthShift += 7;
+            if ((b & 0x80) == 0) {
+                int length = this.partialLength;
+                this.partialLength = 0;
+                this.lengthShift = 0;
+                if (length < 0) {
+                    throw new CorruptedFrameException("Frame length exceeds " + Integer.MAX_VALUE);
+                }
+                this.frameLength = length;
+                return true;
+            }
+            if (this.lengthShift >= MAX_LENGTH_SHIFT) {
+                throw new CorruptedFrameException("Frame length VarInt was too large");
+            }
         }
-
-        out.add(in.readRetainedSlice(length));
+        return false;
     }
 }
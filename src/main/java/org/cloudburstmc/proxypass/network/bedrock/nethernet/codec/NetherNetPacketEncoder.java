@@ -1,19 +1,31 @@
 package org.cloudburstmc.proxypass.network.bedrock.nethernet.codec;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.MessageToByteEncoder;
+import io.netty.handler.codec.MessageToMessageEncoder;
 import lombok.extern.log4j.Log4j2;
 import org.cloudburstmc.protocol.bedrock.netty.BedrockPacketWrapper;
 import org.cloudburstmc.protocol.common.util.VarInts;
 
+import java.util.List;
+
+/**
+ * Prefixes each packet with its length. The packet buffer is not copied, the frame is a composite of the length and
+ * the retained packet buffer.
+ */
 @Log4j2
-public class NetherNetPacketEncoder extends MessageToByteEncoder<BedrockPacketWrapper> {
+public class NetherNetPacketEncoder extends MessageToMessageEncoder<BedrockPacketWrapper> {
     public static final String NAME = "nethernet-encoder";
 
     @Override
-    protected void encode(ChannelHandlerContext ctx, BedrockPacketWrapper wrapper, ByteBuf out) throws Exception {
-        VarInts.writeUnsignedInt(out, wrapper.getPacketBuffer().readableBytes());
-        out.writeBytes(wrapper.getPacketBuffer());
+    protected void encode(ChannelHandlerContext ctx, BedrockPacketWrapper wrapper, List<Object> out) throws Exception {
+        ByteBuf packet = wrapper.getPacketBuffer();
+        ByteBuf header = ctx.alloc().ioBuffer(5);
+        VarInts.writeUnsignedInt(header, packet.readableBytes());
+
+        CompositeByteBuf frame = ctx.alloc().compositeDirectBuffer(2);
+        frame.addComponents(true, header, packet.retain());
+        out.add(frame);
     }
 }
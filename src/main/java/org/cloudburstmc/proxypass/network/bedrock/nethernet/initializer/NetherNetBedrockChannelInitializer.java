@@ -6,16 +6,15 @@ import org.cloudburstmc.protocol.bedrock.BedrockPeer;
 import org.cloudburstmc.protocol.bedrock.BedrockSession;
 import org.cloudburstmc.protocol.bedrock.netty.codec.compression.CompressionStrategy;
 import org.cloudburstmc.protocol.bedrock.netty.codec.compression.SimpleCompressionStrategy;
-import org.cloudburstmc.protocol.bedrock.netty.codec.compression.ZlibCompression;
 import org.cloudburstmc.protocol.bedrock.netty.codec.packet.BedrockPacketCodec;
 import org.cloudburstmc.protocol.bedrock.netty.codec.packet.BedrockPacketCodec_v3;
-import org.cloudburstmc.protocol.common.util.Zlib;
+import org.cloudburstmc.proxypass.network.bedrock.compression.PooledZlibCompression;
 import org.cloudburstmc.proxypass.network.bedrock.nethernet.codec.NetherNetPacketDecoder;
 import org.cloudburstmc.proxypass.network.bedrock.nethernet.codec.NetherNetPacketEncoder;
 import org.cloudburstmc.proxypass.network.bedrock.nethernet.peer.NetherNetBedrockPeer;
 
 public abstract class NetherNetBedrockChannelInitializer<T extends BedrockSession> extends ChannelInitializer<Channel> {
-    private static final CompressionStrategy ZLIB_RAW_STRATEGY = new SimpleCompressionStrategy(new ZlibCompression(Zlib.RAW));
+    private static final CompressionStrategy ZLIB_RAW_STRATEGY = new SimpleCompressionStrategy(new PooledZlibCompression(true));
 
     @Override
     protected final void initChannel(Channel channel) throws Exception {
@@ -3,7 +3,6 @@ package org.cloudburstmc.proxypass.network.bedrock.nethernet.peer;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelPipeline;
 import org.checkerframework.checker.nullness.qual.NonNull;
-import org.cloudburstmc.protocol.bedrock.BedrockPeer;
 import org.cloudburstmc.protocol.bedrock.BedrockSessionFactory;
 import org.cloudburstmc.protocol.bedrock.data.PacketCompressionAlgorithm;
 import org.cloudburstmc.protocol.bedrock.netty.codec.compression.CompressionStrategy;
@@ -15,12 +14,13 @@ import org.cloudburstmc.proxypass.network.bedrock.nethernet.codec.NetherNetEncry
 import org.cloudburstmc.proxypass.network.bedrock.nethernet.codec.NetherNetPacketDecoder;
 import org.cloudburstmc.proxypass.network.bedrock.nethernet.codec.NetherNetPacketEncoder;
 import org.cloudburstmc.proxypass.network.bedrock.nethernet.initializer.NetherNetBedrockChannelInitializer;
+import org.cloudburstmc.proxypass.network.bedrock.peer.ProxyBedrockPeer;
 
 import javax.crypto.SecretKey;
 
 import java.util.Objects;
 
-public class NetherNetBedrockPeer extends BedrockPeer {
+public class NetherNetBedrockPeer extends ProxyBedrockPeer {
     public NetherNetBedrockPeer(Channel channel, BedrockSessionFactory sessionFactory) {
         super(channel, sessionFactory);
     }
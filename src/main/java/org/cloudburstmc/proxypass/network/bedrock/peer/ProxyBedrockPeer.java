@@ -0,0 +1,154 @@
+package org.cloudburstmc.proxypass.network.bedrock.peer;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.handler.codec.DecoderException;
+import io.netty.util.internal.PlatformDependent;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import org.cloudburstmc.protocol.bedrock.BedrockPeer;
+import org.cloudburstmc.protocol.bedrock.BedrockSessionFactory;
+import org.cloudburstmc.protocol.bedrock.netty.BedrockPacketWrapper;
+import org.cloudburstmc.protocol.common.util.VarInts;
+import org.cloudburstmc.proxypass.metrics.SessionForwardLatency;
+
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+public class ProxyBedrockPeer extends BedrockPeer {
+    private static final LongAdder LOCAL_FORWARDS = new LongAdder();
+    private static final LongAdder CROSS_LOOP_FORWARDS = new LongAdder();
+    private static final LongAdder DECODE_FAILURES = new LongAdder();
+    public static final String FLUSH_LISTENER_NAME = "proxypass-flush-listener";
+
+    private volatile SessionForwardLatency forwardLatency;
+    private boolean forwardsUpstream;
+    // Packet ID and receive time pairs of queued forwards, only accessed from the event loop of this peer
+    private final LongArrayList pendingForwards = new LongArrayList();
+    private final Queue<PendingForward> crossLoopForwards = PlatformDependent.newMpscQueue();
+
+    public ProxyBedrockPeer(Channel channel, BedrockSessionFactory sessionFactory) {
+        super(channel, sessionFactory);
+        // Added before the peer itself, so it sees the flush of every batch the peer writes
+        channel.pipeline().addLast(FLUSH_LISTENER_NAME, new FlushListener());
+    }
+
+    /**
+     * Records the time from receiving a packet on the other leg until this peer flushes it.
+     *
+     * @param upstream whether this peer forwards packets sent by the client, i.e. is connected to the server
+     */
+    public void setForwardLatency(SessionForwardLatency forwardLatency, boolean upstream) {
+        this.forwardsUpstream = upstream;
+        this.forwardLatency = forwardLatency;
+    }
+
+    /**
+     * Queues a packet received on the other leg of the proxy for the next batch. The packet is not re-encoded, the
+     * batch writer picks up the original payload as a pre-encoded buffer.
+     *
+     * @param senderClientId sub-client ID of the session sending the packet
+     * @param wrapper        decoded wrapper which still holds its encoded packet buffer
+     * @param receivedNanos  {@link System#nanoTime()} at which the packet was received on the other leg
+     */
+    public void forwardPacket(int senderClientId, BedrockPacketWrapper wrapper, long receivedNanos) {
+        boolean inEventLoop = this.channel.eventLoop().inEventLoop();
+        if (inEventLoop) {
+            LOCAL_FORWARDS.increment();
+        } else {
+            CROSS_LOOP_FORWARDS.increment();
+        }
+
+        SessionForwardLatency latency = this.forwardLatency;
+        if (latency != null && latency.sample()) {
+            if (inEventLoop) {
+                this.pendingForwards.add(wrapper.getPacketId());
+                this.pendingForwards.add(receivedNanos);
+            } else {
+                this.crossLoopForwards.add(new PendingForward(wrapper.getPacketId(), receivedNanos));
+            }
+        }
+
+        ByteBuf packetBuffer = wrapper.getPacketBuffer();
+        ByteBuf encoded;
+        if (wrapper.getSenderSubClientId() == senderClientId && wrapper.getTargetSubClientId() == 0) {
+            // Header is identical to the one we would write, forward it as is.
+            encoded = packetBuffer.retainedSlice();
+        } else {
+            int headerLength = wrapper.getHeaderLength();
+            ByteBuf header = this.channel.alloc().ioBuffer(5);
+            VarInts.writeUnsignedInt(header, (wrapper.getPacketId() & 0x3ff) | ((senderClientId & 3) << 10));
+
+            CompositeByteBuf composite = this.channel.alloc().compositeDirectBuffer(2);
+            composite.addComponents(true, header, packetBuffer.retainedSlice(packetBuffer.readerIndex() + headerLength,
+                    packetBuffer.readableBytes() - headerLength));
+            encoded = composite;
+        }
+
+        this.packetQueue.add(new BedrockPacketWrapper(wrapper.getPacketId(), senderClientId, 0, null, encoded));
+    }
+
+    // Every forward queued before a flush went out with it. Packets handed over from another event loop can race the
+    // flush and be attributed to the previous one.
+    private void onFlush() {
+        SessionForwardLatency latency = this.forwardLatency;
+        if (latency == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        for (int i = 0; i < this.pendingForwards.size(); i += 2) {
+            latency.record(this.forwardsUpstream, (int) this.pendingForwards.getLong(i),
+                    TimeUnit.NANOSECONDS.toMicros(now - this.pendingForwards.getLong(i + 1)));
+        }
+        this.pendingForwards.clear();
+
+        PendingForward forward;
+        while ((forward = this.crossLoopForwards.poll()) != null) {
+            latency.record(this.forwardsUpstream, forward.packetId(),
+                    TimeUnit.NANOSECONDS.toMicros(now - forward.receivedNanos()));
+        }
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        if (cause instanceof DecoderException) {
+            DECODE_FAILURES.increment();
+        }
+        super.exceptionCaught(ctx, cause);
+    }
+
+    /**
+     * Number of forwarded packets which were queued from this peer's own event loop.
+     */
+    public static long getLocalForwards() {
+        return LOCAL_FORWARDS.sum();
+    }
+
+    /**
+     * Number of forwarded packets which had to be handed over from another event loop.
+     */
+    public static long getCrossLoopForwards() {
+        return CROSS_LOOP_FORWARDS.sum();
+    }
+
+    /**
+     * Number of packets or batches which could not be decoded.
+     */
+    public static long getDecodeFailures() {
+        return DECODE_FAILURES.sum();
+    }
+
+    private record PendingForward(int packetId, long receivedNanos) {
+    }
+
+    private class FlushListener extends ChannelOutboundHandlerAdapter {
+        @Override
+        public void flush(ChannelHandlerContext ctx) {
+            onFlush();
+            ctx.flush();
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package org.cloudburstmc.proxypass.network.bedrock.replay;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.EventLoopGroup;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import org.cloudburstmc.nbt.NbtMap;
+import org.cloudburstmc.nbt.NbtType;
+import org.cloudburstmc.netty.channel.raknet.RakChannelFactory;
+import org.cloudburstmc.protocol.bedrock.BedrockClientSession;
+import org.cloudburstmc.protocol.bedrock.BedrockPeer;
+import org.cloudburstmc.protocol.bedrock.BedrockServerSession;
+import org.cloudburstmc.protocol.bedrock.BedrockSession;
+import org.cloudburstmc.protocol.bedrock.data.auth.AuthType;
+import org.cloudburstmc.protocol.bedrock.data.auth.CertificateChainPayload;
+import org.cloudburstmc.protocol.bedrock.data.definitions.BlockDefinition;
+import org.cloudburstmc.protocol.bedrock.netty.initializer.BedrockChannelInitializer;
+import org.cloudburstmc.protocol.bedrock.packet.*;
+import org.cloudburstmc.protocol.bedrock.util.EncryptionUtils;
+import org.cloudburstmc.protocol.common.DefinitionRegistry;
+import org.cloudburstmc.proxypass.ProxyPass;
+import org.cloudburstmc.proxypass.network.IoTransport;
+import org.cloudburstmc.proxypass.network.bedrock.capture.CaptureFrame;
+import org.cloudburstmc.proxypass.network.bedrock.capture.CaptureSource;
+import org.cloudburstmc.proxypass.network.bedrock.session.AuthData;
+import org.cloudburstmc.proxypass.network.bedrock.util.ForgeryUtils;
+import org.cloudburstmc.proxypass.network.bedrock.util.NbtBlockDefinitionRegistry;
+import org.cloudburstmc.proxypass.network.bedrock.util.UnknownBlockDefinitionRegistry;
+import org.jose4j.json.JsonUtil;
+import org.jose4j.json.internal.json_simple.JSONObject;
+import org.jose4j.jws.JsonWebSignature;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.KeyPair;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Replays a recorded session.
+ * <ul>
+ *     <li>{@code server} mode connects to a live server as a client and replays the server bound stream</li>
+ *     <li>{@code client} mode listens for clients and replays the client bound stream to each of them</li>
+ * </ul>
+ * The handshake is always performed live, captured handshake packets are skipped. In {@code realtime} mode the
+ * original spacing between packets is kept, {@code fast} sends packets as fast as the connection accepts them.
+ * <p>
+ * Usage: {@code CaptureReplay <capture> <server|client> <host:port> [realtime|fast] [speed]}
+ */
+@Log4j2
+public class CaptureReplay {
+    public static final Set<Class<? extends BedrockPacket>> SERVER_BOUND_HANDSHAKE = Set.of(
+            RequestNetworkSettingsPacket.class, LoginPacket.class, ClientToServerHandshakePacket.class);
+    public static final Set<Class<? extends BedrockPacket>> CLIENT_BOUND_HANDSHAKE = Set.of(
+            NetworkSettingsPacket.class, ServerToClientHandshakePacket.class);
+
+    private final Path capture;
+    private final boolean serverBound;
+    private final boolean realTime;
+    private final double speed;
+    @Getter
+    private final DefinitionRegistry<BlockDefinition> blockDefinitions;
+    @Getter
+    private final DefinitionRegistry<BlockDefinition> blockDefinitionsHashed;
+    private final CountDownLatch finished = new CountDownLatch(1);
+
+    public CaptureReplay(Path capture, boolean serverBound, boolean realTime, double speed) {
+        this.capture = capture;
+        this.serverBound = serverBound;
+        this.realTime = realTime;
+        this.speed = speed;
+
+        Object palette = ProxyPass.loadGzipNBT(Paths.get("data", "block_palette.nbt"));
+        if (palette instanceof NbtMap map) {
+            this.blockDefinitions = new NbtBlockDefinitionRegistry(map.getList("blocks", NbtType.COMPOUND), false);
+            this.blockDefinitionsHashed = new NbtBlockDefinitionRegistry(map.getList("blocks", NbtType.COMPOUND), true);
+        } else {
+            this.blockDefinitions = this.blockDefinitionsHashed = new UnknownBlockDefinitionRegistry();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: CaptureReplay <capture> <server|client> <host:port> [realtime|fast] [speed]");
+            return;
+        }
+        Path capture = Paths.get(args[0]);
+        boolean serverBound = args[1].equalsIgnoreCase("server");
+        String[] host = args[2].split(":");
+        InetSocketAddress address = new InetSocketAddress(host[0], Integer.parseInt(host[1]));
+        boolean realTime = args.length < 4 || !args[3].equalsIgnoreCase("fast");
+        double speed = args.length > 4 ? Double.parseDouble(args[4]) : 1;
+
+        CaptureReplay replay = new CaptureReplay(capture, serverBound, realTime, speed);
+        IoTransport transport = IoTransport.resolve("auto");
+        EventLoopGroup group = transport.newEventLoopGroup(0);
+        try {
+            if (serverBound) {
+                replay.connect(address, group, transport).sync();
+                replay.finished.await();
+            } else {
+                Channel channel = replay.listen(address, group, transport).sync().channel();
+                log.info("Replaying to clients connecting to {}", address);
+                channel.closeFuture().sync();
+            }
+        } finally {
+            group.shutdownGracefully();
+        }
+    }
+
+    /**
+     * Connects to a server using the same bootstrap options as the proxy and replays the server bound stream.
+     */
+    public ChannelFuture connect(InetSocketAddress address, EventLoopGroup group, IoTransport transport) throws IOException {
+        KeyPair keyPair = EncryptionUtils.createKeyPair();
+        LoginPacket login = this.forgeLogin(keyPair);
+
+        Bootstrap bootstrap = new Bootstrap()
+                .group(group)
+                .channelFactory(RakChannelFactory.client(transport.getDatagramChannel()));
+        return ProxyPass.configureRakClient(bootstrap)
+                .handler(new BedrockChannelInitializer<BedrockClientSession>() {
+                    @Override
+                    protected BedrockClientSession createSession0(BedrockPeer peer, int subClientId) {
+                        return new BedrockClientSession(peer, subClientId);
+                    }
+
+                    @Override
+                    protected void initSession(BedrockClientSession session) {
+                        session.setCodec(ProxyPass.CODEC);
+                        session.setPacketHandler(new ReplayClientPacketHandler(session, CaptureReplay.this, login, keyPair));
+
+                        RequestNetworkSettingsPacket packet = new RequestNetworkSettingsPacket();
+                        packet.setProtocolVersion(ProxyPass.PROTOCOL_VERSION);
+                        session.sendPacketImmediately(packet);
+                    }
+                })
+                .connect(address);
+    }
+
+    /**
+     * Listens for clients and replays the client bound stream to each one.
+     */
+    public ChannelFuture listen(InetSocketAddress address, EventLoopGroup group, IoTransport transport) {
+        return new ServerBootstrap()
+                .group(group)
+                .channelFactory(RakChannelFactory.server(transport.getDatagramChannel()))
+                .childHandler(new BedrockChannelInitializer<BedrockServerSession>() {
+                    @Override
+                    protected BedrockServerSession createSession0(BedrockPeer peer, int subClientId) {
+                        return new BedrockServerSession(peer, subClientId);
+                    }
+
+                    @Override
+                    protected void initSession(BedrockServerSession session) {
+                        session.setPacketHandler(new ReplayServerPacketHandler(session, CaptureReplay.this));
+                    }
+                })
+                .bind(address);
+    }
+
+    void startStream(BedrockSession session) {
+        CaptureSource source;
+        try {
+            source = CaptureSource.open(this.capture);
+        } catch (IOException e) {
+            log.error("Unable to open capture {}", this.capture, e);
+            session.disconnect();
+            return;
+        }
+
+        Iterator<CaptureFrame> frames = ReplayStream.filter(source, this.serverBound,
+                this.serverBound ? SERVER_BOUND_HANDSHAKE : CLIENT_BOUND_HANDSHAKE);
+        ReplayStream stream = new ReplayStream(session, frames, this.realTime, this.speed);
+        stream.getFuture().whenComplete((result, throwable) -> {
+            try {
+                source.close();
+            } catch (IOException e) {
+                log.debug("Unable to close capture", e);
+            }
+            if (throwable != null) {
+                log.error("Replay to {} failed", session.getSocketAddress(), throwable);
+            } else {
+                log.info("Replayed to {}: {}", session.getSocketAddress(), result);
+            }
+            if (this.serverBound) {
+                session.disconnect();
+            }
+        });
+        stream.start();
+    }
+
+    void onDisconnect(BedrockSession session, CharSequence reason) {
+        log.info("{} disconnected: {}", session.getSocketAddress(), reason);
+        if (this.serverBound) {
+            this.finished.countDown();
+        }
+    }
+
+    /**
+     * Forges an offline login with the skin of the login found in the capture.
+     */
+    private LoginPacket forgeLogin(KeyPair keyPair) throws IOException {
+        int loginId = ProxyPass.CODEC.getPacketDefinition(LoginPacket.class).getId();
+        JSONObject skinData = null;
+        try (CaptureSource source = CaptureSource.open(this.capture)) {
+            while (source.hasNext() && skinData == null) {
+                CaptureFrame frame = source.next();
+                if (!frame.upstream() || frame.packetId() != loginId) {
+                    continue;
+                }
+                LoginPacket captured = (LoginPacket) ProxyPass.CODEC.tryDecode(ProxyPass.CODEC.createHelper(),
+                        Unpooled.wrappedBuffer(frame.payload()), loginId);
+                JsonWebSignature jws = new JsonWebSignature();
+                jws.setCompactSerialization(captured.getClientJwt());
+                skinData = new JSONObject(JsonUtil.parseJson(jws.getUnverifiedPayload()));
+            }
+        } catch (Exception e) {
+            throw new IOException("Unable to read the login of " + this.capture, e);
+        }
+        if (skinData == null) {
+            throw new IOException("No login packet in " + this.capture + ", was it captured from the start?");
+        }
+
+        String name = "Replay" + UUID.randomUUID().toString().substring(0, 6);
+        AuthData authData = new AuthData(name, UUID.nameUUIDFromBytes(name.getBytes(StandardCharsets.UTF_8)), "");
+
+        LoginPacket login = new LoginPacket();
+        login.setAuthPayload(new CertificateChainPayload(List.of(ForgeryUtils.forgeOfflineAuthData(keyPair, authData)),
+                AuthType.SELF_SIGNED));
+        login.setClientJwt(ForgeryUtils.forgeOfflineSkinData(keyPair, skinData));
+        login.setProtocolVersion(ProxyPass.PROTOCOL_VERSION);
+        return login;
+    }
+}
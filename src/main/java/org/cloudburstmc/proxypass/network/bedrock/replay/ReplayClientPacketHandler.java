@@ -0,0 +1,101 @@
+package org.cloudburstmc.proxypass.network.bedrock.replay;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.cloudburstmc.protocol.bedrock.BedrockClientSession;
+import org.cloudburstmc.protocol.bedrock.data.PacketCompressionAlgorithm;
+import org.cloudburstmc.protocol.bedrock.data.definitions.BlockDefinition;
+import org.cloudburstmc.protocol.bedrock.packet.*;
+import org.cloudburstmc.protocol.bedrock.util.EncryptionUtils;
+import org.cloudburstmc.protocol.bedrock.util.JsonUtils;
+import org.cloudburstmc.protocol.common.DefinitionRegistry;
+import org.cloudburstmc.protocol.common.PacketSignal;
+import org.jose4j.json.JsonUtil;
+import org.jose4j.json.internal.json_simple.JSONObject;
+import org.jose4j.jws.JsonWebSignature;
+import org.jose4j.jwx.HeaderParameterNames;
+
+import javax.crypto.SecretKey;
+import java.security.KeyPair;
+import java.security.interfaces.ECPublicKey;
+import java.util.Base64;
+
+/**
+ * Logs in to a live server like {@link org.cloudburstmc.proxypass.network.bedrock.session.DownstreamInitialPacketHandler}
+ * and starts replaying the captured server bound stream once the server accepts the login.
+ */
+@Log4j2
+@RequiredArgsConstructor
+public class ReplayClientPacketHandler implements BedrockPacketHandler {
+    private final BedrockClientSession session;
+    private final CaptureReplay replay;
+    private final LoginPacket loginPacket;
+    private final KeyPair keyPair;
+
+    @Override
+    public PacketSignal handle(NetworkSettingsPacket packet) {
+        if (packet.getCompressionThreshold() > 0) {
+            this.session.setCompression(packet.getCompressionAlgorithm());
+        } else {
+            this.session.setCompression(PacketCompressionAlgorithm.NONE);
+        }
+        this.session.sendPacketImmediately(this.loginPacket);
+        return PacketSignal.HANDLED;
+    }
+
+    @Override
+    public PacketSignal handle(ServerToClientHandshakePacket packet) {
+        try {
+            JsonWebSignature jws = new JsonWebSignature();
+            jws.setCompactSerialization(packet.getJwt());
+            JSONObject saltJwt = new JSONObject(JsonUtil.parseJson(jws.getUnverifiedPayload()));
+            ECPublicKey serverKey = EncryptionUtils.parseKey(jws.getHeader(HeaderParameterNames.X509_URL));
+            SecretKey key = EncryptionUtils.getSecretKey(this.keyPair.getPrivate(), serverKey,
+                    Base64.getDecoder().decode(JsonUtils.childAsType(saltJwt, "salt", String.class)));
+            this.session.enableEncryption(key);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+
+        this.session.sendPacketImmediately(new ClientToServerHandshakePacket());
+        return PacketSignal.HANDLED;
+    }
+
+    @Override
+    public PacketSignal handle(PlayStatusPacket packet) {
+        if (packet.getStatus() == PlayStatusPacket.Status.LOGIN_SUCCESS) {
+            log.info("Logged in to {}, replaying", this.session.getSocketAddress());
+            this.replay.startStream(this.session);
+        } else if (packet.getStatus() != PlayStatusPacket.Status.PLAYER_SPAWN) {
+            log.warn("Login failed: {}", packet.getStatus());
+        }
+        return PacketSignal.HANDLED;
+    }
+
+    @Override
+    public PacketSignal handle(StartGamePacket packet) {
+        DefinitionRegistry<BlockDefinition> registry = packet.isBlockNetworkIdsHashed()
+                ? this.replay.getBlockDefinitionsHashed()
+                : this.replay.getBlockDefinitions();
+        this.session.getPeer().getCodecHelper().setBlockDefinitions(registry);
+        return PacketSignal.HANDLED;
+    }
+
+    @Override
+    public PacketSignal handle(DisconnectPacket packet) {
+        log.info("Disconnected by server: {}", packet.getKickMessage());
+        return PacketSignal.HANDLED;
+    }
+
+    @Override
+    public PacketSignal handlePacket(BedrockPacket packet) {
+        // Everything the server sends is consumed, only the handshake needs a response
+        BedrockPacketHandler.super.handlePacket(packet);
+        return PacketSignal.HANDLED;
+    }
+
+    @Override
+    public void onDisconnect(CharSequence reason) {
+        this.replay.onDisconnect(this.session, reason);
+    }
+}
@@ -0,0 +1,49 @@
+package org.cloudburstmc.proxypass.network.bedrock.replay;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.cloudburstmc.protocol.bedrock.BedrockServerSession;
+import org.cloudburstmc.protocol.bedrock.data.PacketCompressionAlgorithm;
+import org.cloudburstmc.protocol.bedrock.packet.*;
+import org.cloudburstmc.protocol.common.PacketSignal;
+import org.cloudburstmc.proxypass.ProxyPass;
+
+/**
+ * Accepts a client without encryption and replays the captured client bound stream to it once it has logged in.
+ */
+@Log4j2
+@RequiredArgsConstructor
+public class ReplayServerPacketHandler implements BedrockPacketHandler {
+    private final BedrockServerSession session;
+    private final CaptureReplay replay;
+
+    @Override
+    public PacketSignal handle(RequestNetworkSettingsPacket packet) {
+        this.session.setCodec(ProxyPass.CODEC);
+
+        NetworkSettingsPacket networkSettings = new NetworkSettingsPacket();
+        networkSettings.setCompressionThreshold(0);
+        networkSettings.setCompressionAlgorithm(PacketCompressionAlgorithm.ZLIB);
+        this.session.sendPacketImmediately(networkSettings);
+        this.session.setCompression(PacketCompressionAlgorithm.ZLIB);
+        return PacketSignal.HANDLED;
+    }
+
+    @Override
+    public PacketSignal handle(LoginPacket packet) {
+        log.info("{} logged in, replaying", this.session.getSocketAddress());
+        this.replay.startStream(this.session);
+        return PacketSignal.HANDLED;
+    }
+
+    @Override
+    public PacketSignal handlePacket(BedrockPacket packet) {
+        BedrockPacketHandler.super.handlePacket(packet);
+        return PacketSignal.HANDLED;
+    }
+
+    @Override
+    public void onDisconnect(CharSequence reason) {
+        this.replay.onDisconnect(this.session, reason);
+    }
+}
@@ -0,0 +1,187 @@
+package org.cloudburstmc.proxypass.network.bedrock.replay;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoop;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import org.cloudburstmc.protocol.bedrock.BedrockSession;
+import org.cloudburstmc.protocol.bedrock.packet.BedrockPacket;
+import org.cloudburstmc.protocol.bedrock.packet.UnknownPacket;
+import org.cloudburstmc.proxypass.ProxyPass;
+import org.cloudburstmc.proxypass.network.bedrock.capture.CaptureFrame;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends captured frames to a session from its event loop. Payloads are sent as captured, without decoding them.
+ * <p>
+ * In real-time mode frames keep their original spacing, divided by the speed factor. Otherwise frames are sent as fast
+ * as the channel accepts them, in batches so the event loop can still serve other tasks.
+ */
+@Log4j2
+public class ReplayStream implements Runnable {
+    private static final int BATCH_SIZE = 256;
+
+    private final BedrockSession session;
+    private final Iterator<CaptureFrame> frames;
+    private final boolean realTime;
+    private final double speed;
+    @Getter
+    private final CompletableFuture<Result> future = new CompletableFuture<>();
+
+    private CaptureFrame pending;
+    private long firstTimestamp = -1;
+    private long startNanos;
+    private long packets;
+    private long bytes;
+    private long maxLagNanos;
+
+    public ReplayStream(BedrockSession session, Iterator<CaptureFrame> frames, boolean realTime, double speed) {
+        this.session = session;
+        this.frames = frames;
+        this.realTime = realTime;
+        this.speed = speed;
+    }
+
+    /**
+     * @return the frames of one direction without the given packets
+     */
+    public static Iterator<CaptureFrame> filter(Iterator<CaptureFrame> frames, boolean upstream,
+                                                Set<Class<? extends BedrockPacket>> skipped) {
+        int[] skippedIds = skipped.stream()
+                .mapToInt(type -> ProxyPass.CODEC.getPacketDefinition(type).getId())
+                .toArray();
+
+        return new Iterator<>() {
+            private CaptureFrame next = this.advance();
+
+            private CaptureFrame advance() {
+                while (frames.hasNext()) {
+                    CaptureFrame frame = frames.next();
+                    if (frame.upstream() == upstream && !this.isSkipped(frame.packetId())) {
+                        return frame;
+                    }
+                }
+                return null;
+            }
+
+            private boolean isSkipped(int packetId) {
+                for (int id : skippedIds) {
+                    if (id == packetId) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return this.next != null;
+            }
+
+            @Override
+            public CaptureFrame next() {
+                if (this.next == null) {
+                    throw new NoSuchElementException();
+                }
+                CaptureFrame frame = this.next;
+                this.next = this.advance();
+                return frame;
+            }
+        };
+    }
+
+    public void start() {
+        this.session.getPeer().getChannel().eventLoop().execute(this);
+    }
+
+    @Override
+    public void run() {
+        Channel channel = this.session.getPeer().getChannel();
+        EventLoop eventLoop = channel.eventLoop();
+        try {
+            int batch = 0;
+            while (true) {
+                if (!this.session.isConnected()) {
+                    this.finish();
+                    return;
+                }
+                if (this.pending == null) {
+                    if (!this.frames.hasNext()) {
+                        this.finish();
+                        return;
+                    }
+                    this.pending = this.frames.next();
+                    if (this.firstTimestamp == -1) {
+                        this.firstTimestamp = this.pending.timestampMicros();
+                        this.startNanos = System.nanoTime();
+                    }
+                }
+
+                if (this.realTime) {
+                    long due = this.startNanos + (long) ((this.pending.timestampMicros() - this.firstTimestamp) * 1000 / this.speed);
+                    long delay = due - System.nanoTime();
+                    if (delay > 0) {
+                        eventLoop.schedule(this, delay, TimeUnit.NANOSECONDS);
+                        return;
+                    }
+                    this.maxLagNanos = Math.max(this.maxLagNanos, -delay);
+                    this.send(this.pending, true);
+                } else {
+                    if (!channel.isWritable()) {
+                        // Resumed once the channel has drained, scheduling keeps this from spinning on the loop
+                        eventLoop.schedule(this, 1, TimeUnit.MILLISECONDS);
+                        return;
+                    }
+                    boolean flush = ++batch == BATCH_SIZE || !this.frames.hasNext();
+                    this.send(this.pending, flush);
+                    if (flush && batch == BATCH_SIZE) {
+                        this.pending = null;
+                        eventLoop.execute(this);
+                        return;
+                    }
+                }
+                this.pending = null;
+            }
+        } catch (Exception e) {
+            this.future.completeExceptionally(e);
+        }
+    }
+
+    private void send(CaptureFrame frame, boolean flush) {
+        UnknownPacket packet = new UnknownPacket();
+        packet.setPacketId(frame.packetId());
+        packet.setPayload(Unpooled.wrappedBuffer(frame.payload()));
+        if (flush) {
+            this.session.sendPacketImmediately(packet);
+        } else {
+            this.session.sendPacket(packet);
+        }
+        this.packets++;
+        this.bytes += frame.payload().length;
+    }
+
+    private void finish() {
+        long nanos = this.firstTimestamp == -1 ? 0 : System.nanoTime() - this.startNanos;
+        this.future.complete(new Result(this.packets, this.bytes, nanos, this.maxLagNanos));
+    }
+
+    /**
+     * @param maxLagNanos how late the most delayed frame was sent in real-time mode
+     */
+    public record Result(long packets, long bytes, long nanos, long maxLagNanos) {
+
+        @Override
+        public String toString() {
+            double seconds = Math.max(this.nanos, 1) / 1e9;
+            return String.format("%d packets, %.2f MB in %.2fs (%.0f packets/sec, %.2f MB/s, max lag %.1fms)",
+                    this.packets, this.bytes / 1e6, seconds, this.packets / seconds, this.bytes / 1e6 / seconds,
+                    this.maxLagNanos / 1e6);
+        }
+    }
+}
@@ -0,0 +1,337 @@
+package org.cloudburstmc.proxypass.network.bedrock.session;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.log4j.Log4j2;
+import org.cloudburstmc.proxypass.metrics.ProxyMetrics;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Downloads CDN hosted packs in fixed size segments over concurrent HTTP range requests, each written at its offset
+ * into a pre-sized file. Completed segments are recorded next to the partial file, so a download which failed is
+ * resumed by the next session receiving the same pack. Servers which do not announce range support are downloaded
+ * in one request.
+ */
+@Log4j2
+public class CdnDownloader {
+    private static final int SEGMENT_SIZE = 4 * 1024 * 1024;
+    private static final int ATTEMPTS = 3;
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    // Until the response headers arrive
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+    // Longest the body may go without data before the attempt fails, by default
+    private static final Duration READ_TIMEOUT = Duration.ofSeconds(30);
+
+    private final HttpClient client;
+    private final Path directory;
+    private final int connections;
+    private final ProxyMetrics metrics;
+    private final Duration readTimeout;
+    // Closes the bodies which stopped receiving data, see WatchedInputStream
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(
+            new DefaultThreadFactory("proxypass-cdn-watchdog", true));
+
+    /**
+     * @param directory   where partial downloads and their completion maps are kept
+     * @param connections concurrent range requests per pack
+     */
+    public CdnDownloader(Path directory, int connections, ProxyMetrics metrics) throws IOException {
+        this(HttpClient.newBuilder()
+                .connectTimeout(CONNECT_TIMEOUT)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build(), directory, connections, READ_TIMEOUT, metrics);
+    }
+
+    /**
+     * @param client      client the downloads are sent with, any server answering HEAD and range requests will do
+     * @param readTimeout longest a response body may go without data before the attempt fails
+     */
+    public CdnDownloader(HttpClient client, Path directory, int connections, Duration readTimeout, ProxyMetrics metrics)
+            throws IOException {
+        this.client = client;
+        this.directory = directory;
+        this.connections = Math.max(1, connections);
+        this.readTimeout = readTimeout;
+        this.metrics = metrics;
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * Downloads the file to the target, resuming an earlier partial download of the same key.
+     *
+     * @param key names the partial download, the same file must always have the same key
+     */
+    public void download(URI uri, String key, Path target) throws IOException, InterruptedException {
+        Path partial = this.directory.resolve(key + ".part");
+        Path state = this.directory.resolve(key + ".state");
+        long start = System.nanoTime();
+
+        long length = this.probe(uri);
+        long downloaded;
+        if (length > 0) {
+            downloaded = this.downloadSegments(uri, length, partial, state);
+        } else {
+            downloaded = this.downloadWhole(uri, partial);
+            length = downloaded;
+        }
+        Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING);
+        Files.deleteIfExists(state);
+
+        long nanos = Math.max(1, System.nanoTime() - start);
+        log.info("Downloaded {}: {} MB in {} ms, {} MB/s, {} MB resumed", uri,
+                String.format(Locale.ROOT, "%.1f", downloaded / 1048576.0), TimeUnit.NANOSECONDS.toMillis(nanos),
+                String.format(Locale.ROOT, "%.1f", downloaded / 1048576.0 / nanos * TimeUnit.SECONDS.toNanos(1)),
+                String.format(Locale.ROOT, "%.1f", (length - downloaded) / 1048576.0));
+    }
+
+    // Length of the file if the server serves ranges of it, otherwise -1
+    private long probe(URI uri) throws InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                .timeout(REQUEST_TIMEOUT)
+                .build();
+        try {
+            HttpResponse<Void> response = this.client.send(request, HttpResponse.BodyHandlers.discarding());
+            if (response.statusCode() / 100 != 2 || !response.headers().firstValue("Accept-Ranges")
+                    .map(value -> value.equalsIgnoreCase("bytes")).orElse(false)) {
+                return -1;
+            }
+            return response.headers().firstValueAsLong("Content-Length").orElse(-1);
+        } catch (IOException e) {
+            log.debug("HEAD request to {} failed, downloading in one request", uri, e);
+            return -1;
+        }
+    }
+
+    private long downloadWhole(URI uri, Path partial) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(uri).timeout(REQUEST_TIMEOUT).build();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                HttpResponse<InputStream> response = this.client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+                try (InputStream body = new WatchedInputStream(response.body())) {
+                    if (response.statusCode() != 200) {
+                        throw new IOException("Unexpected status " + response.statusCode());
+                    }
+                    long size = Files.copy(body, partial, StandardCopyOption.REPLACE_EXISTING);
+                    this.metrics.getPackDownloadBytes().add(size);
+                    return size;
+                }
+            } catch (IOException e) {
+                if (attempt >= ATTEMPTS) {
+                    throw e;
+                }
+                log.debug("Retrying download of {} after attempt {} failed", uri, attempt, e);
+                Thread.sleep(500L * attempt);
+            }
+        }
+    }
+
+    /**
+     * @return bytes downloaded, without the segments resumed from an earlier download
+     */
+    private long downloadSegments(URI uri, long length, Path partial, Path state) throws IOException, InterruptedException {
+        int segments = (int) ((length + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+        BitSet completed = readState(state, partial, length);
+        LongAdder downloaded = new LongAdder();
+
+        try (FileChannel channel = FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            if (channel.size() != length) {
+                completed.clear();
+                channel.truncate(0);
+                // Sparse where the file system supports it
+                channel.write(ByteBuffer.allocate(1), length - 1);
+            }
+            Queue<Integer> pending = new ConcurrentLinkedQueue<>();
+            for (int segment = completed.nextClearBit(0); segment < segments; segment = completed.nextClearBit(segment + 1)) {
+                pending.add(segment);
+            }
+
+            // Virtual threads, the lanes only wait on the network and the disk
+            int laneCount = Math.min(this.connections, pending.size());
+            List<Future<?>> lanes = new ArrayList<>(laneCount);
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (int i = 0; i < laneCount; i++) {
+                    lanes.add(executor.submit(() -> {
+                        Integer segment;
+                        while ((segment = pending.poll()) != null) {
+                            this.downloadSegment(uri, channel, segment, length, downloaded);
+                            synchronized (completed) {
+                                // Written before it is recorded, so a resumed download never skips lost data
+                                channel.force(false);
+                                completed.set(segment);
+                                writeState(state, length, completed);
+                            }
+                        }
+                        return null;
+                    }));
+                }
+            }
+            for (Future<?> lane : lanes) {
+                try {
+                    lane.get();
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+                }
+            }
+        }
+        return downloaded.sum();
+    }
+
+    private void downloadSegment(URI uri, FileChannel channel, int segment, long length, LongAdder downloaded)
+            throws IOException, InterruptedException {
+        long from = (long) segment * SEGMENT_SIZE;
+        long to = Math.min(length, from + SEGMENT_SIZE) - 1;
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .header("Range", "bytes=" + from + "-" + to)
+                .timeout(REQUEST_TIMEOUT)
+                .build();
+
+        for (int attempt = 1; ; attempt++) {
+            long position = from;
+            try {
+                HttpResponse<InputStream> response = this.client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+                try (InputStream body = new WatchedInputStream(response.body())) {
+                    if (response.statusCode() != 206) {
+                        throw new IOException("Unexpected status " + response.statusCode() + " for range " + from + "-" + to);
+                    }
+                    byte[] buffer = new byte[65536];
+                    int read;
+                    while (position <= to && (read = body.read(buffer, 0, (int) Math.min(buffer.length, to + 1 - position))) != -1) {
+                        ByteBuffer data = ByteBuffer.wrap(buffer, 0, read);
+                        while (data.hasRemaining()) {
+                            position += channel.write(data, position);
+                        }
+                    }
+                }
+                if (position <= to) {
+                    throw new IOException("Range " + from + "-" + to + " ended after " + (position - from) + " bytes");
+                }
+                // Counted once the range is complete, bytes of failed attempts are downloaded again
+                downloaded.add(position - from);
+                this.metrics.getPackDownloadBytes().add(position - from);
+                return;
+            } catch (IOException e) {
+                if (attempt >= ATTEMPTS) {
+                    throw e;
+                }
+                log.debug("Retrying range {}-{} of {} after attempt {} failed", from, to, uri, attempt, e);
+                Thread.sleep(500L * attempt);
+            }
+        }
+    }
+
+    // Completed segments of the partial download, empty if there is none or it is of a different length
+    private static BitSet readState(Path state, Path partial, long length) {
+        if (Files.notExists(state) || Files.notExists(partial)) {
+            return new BitSet();
+        }
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(state))) {
+            if (in.readLong() != length || in.readInt() != SEGMENT_SIZE) {
+                return new BitSet();
+            }
+            return BitSet.valueOf(in.readAllBytes());
+        } catch (IOException e) {
+            log.debug("Ignoring unreadable download state {}", state, e);
+            return new BitSet();
+        }
+    }
+
+    private static void writeState(Path state, long length, BitSet completed) throws IOException {
+        Path temporary = state.resolveSibling(state.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(temporary))) {
+            out.writeLong(length);
+            out.writeInt(SEGMENT_SIZE);
+            out.write(completed.toByteArray());
+        }
+        Files.move(temporary, state, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Body of a response which is closed once no data arrived for the read timeout, which fails the read waiting
+     * on it, so a stalled transfer counts as a failed attempt instead of holding the download forever.
+     */
+    private final class WatchedInputStream extends FilterInputStream {
+        private final ScheduledFuture<?> check;
+        private volatile long lastRead = System.nanoTime();
+        private volatile boolean stalled;
+
+        WatchedInputStream(InputStream body) {
+            super(body);
+            long period = Math.max(10, Math.min(1000, readTimeout.toMillis() / 4));
+            this.check = watchdog.scheduleWithFixedDelay(this::check, period, period, TimeUnit.MILLISECONDS);
+        }
+
+        private void check() {
+            if (this.stalled || System.nanoTime() - this.lastRead < readTimeout.toNanos()) {
+                return;
+            }
+            this.stalled = true;
+            try {
+                this.in.close();
+            } catch (IOException e) {
+                log.debug("Failed to close stalled response body", e);
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                return super.read();
+            } catch (IOException e) {
+                throw this.failure(e);
+            } finally {
+                this.lastRead = System.nanoTime();
+            }
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            try {
+                return super.read(buffer, offset, length);
+            } catch (IOException e) {
+                throw this.failure(e);
+            } finally {
+                this.lastRead = System.nanoTime();
+            }
+        }
+
+        private IOException failure(IOException e) {
+            return this.stalled ? new IOException("No data received for " + readTimeout.toMillis() + " ms", e) : e;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.check.cancel(false);
+            super.close();
+        }
+    }
+}
@@ -9,6 +9,7 @@ import org.cloudburstmc.protocol.bedrock.util.EncryptionUtils;
 import org.cloudburstmc.protocol.bedrock.util.JsonUtils;
 import org.cloudburstmc.protocol.common.PacketSignal;
 import org.cloudburstmc.proxypass.ProxyPass;
+import org.cloudburstmc.proxypass.network.bedrock.compression.CompressionPolicy;
 import org.jose4j.json.JsonUtil;
 import org.jose4j.json.internal.json_simple.JSONObject;
 import org.jose4j.jws.JsonWebSignature;
@@ -33,12 +34,15 @@ public class DownstreamInitialPacketHandler implements BedrockPacketHandler {
     @Override
     public PacketSignal handle(NetworkSettingsPacket packet) {
         int threshold = packet.getCompressionThreshold();
-        if (threshold > 0) {
-            this.session.setCompression(packet.getCompressionAlgorithm());
-        } else {
-            this.session.setCompression(PacketCompressionAlgorithm.NONE);
+        PacketCompressionAlgorithm negotiated = packet.getCompressionAlgorithm();
+        if (threshold <= 0) {
+            negotiated = PacketCompressionAlgorithm.NONE;
             log.info("Compression threshold set to 0");
         }
+        CompressionPolicy compression = new CompressionPolicy(this.proxy.getConfiguration().getCompression().getServer(),
+                false, negotiated, this.session.getCodec().getProtocolVersion() >= 649, this.proxy.getMetrics());
+        this.session.getPeer().setCompression(compression);
+        this.session.setCompressionPolicy(compression);
 
         this.session.sendPacketImmediately(this.loginPacket);
         this.player.logger.logPacket(this.session, this.loginPacket, true);
@@ -2,6 +2,8 @@ package org.cloudburstmc.proxypass.network.bedrock.session;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import io.netty.buffer.ByteBuf;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.RequiredArgsConstructor;
@@ -27,6 +29,7 @@ import org.cloudburstmc.protocol.common.NamedDefinition;
 import org.cloudburstmc.protocol.common.PacketSignal;
 import org.cloudburstmc.protocol.common.SimpleDefinitionRegistry;
 import org.cloudburstmc.proxypass.ProxyPass;
+import org.cloudburstmc.proxypass.network.bedrock.cache.ClientBlobCache;
 import org.cloudburstmc.proxypass.network.bedrock.util.NbtBlockDefinitionRegistry;
 import org.cloudburstmc.proxypass.network.bedrock.util.RecipeUtils;
 
@@ -237,7 +240,27 @@ public class DownstreamPacketHandler implements BedrockPacketHandler {
             return PacketSignal.UNHANDLED;
         }
         for (ResourcePacksInfoPacket.Entry entry : packet.getResourcePackInfos()) {
-            player.getPackDownloader().registerPack(entry.getPackId(), entry.getCdnUrl(), entry.getContentKey());
+            player.getPackDownloader().registerPack(entry.getPackId(), entry.getPackVersion(), entry.getCdnUrl(), entry.getContentKey());
+        }
+        return PacketSignal.UNHANDLED;
+    }
+
+    @Override
+    public PacketSignal handle(ResourcePackDataInfoPacket packet) {
+        if (!this.proxy.getConfiguration().isDownloadPacks()) {
+            return PacketSignal.UNHANDLED;
+        }
+        player.getPackDownloader().onDataInfo(packet);
+        return PacketSignal.UNHANDLED;
+    }
+
+    @Override
+    public PacketSignal handle(ClientCacheMissResponsePacket packet) {
+        ClientBlobCache blobCache = this.proxy.getClientBlobCache();
+        if (blobCache.isEnabled()) {
+            for (Long2ObjectMap.Entry<ByteBuf> blob : packet.getBlobs().long2ObjectEntrySet()) {
+                blobCache.put(blob.getLongKey(), blob.getValue());
+            }
         }
         return PacketSignal.UNHANDLED;
     }
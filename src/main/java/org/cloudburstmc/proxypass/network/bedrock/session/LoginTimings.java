@@ -0,0 +1,59 @@
+package org.cloudburstmc.proxypass.network.bedrock.session;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import org.cloudburstmc.proxypass.metrics.ProxyMetrics;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long each stage of a login takes. Stages run one after another, each one ends where the previous
+ * one ended. Each stage is recorded in the proxypass_login_stage_milliseconds summary.
+ */
+@Log4j2
+public class LoginTimings {
+    private final ProxyMetrics metrics;
+    private final long start = System.nanoTime();
+    private final long[] nanos = new long[Stage.values().length];
+    private long stageStart = this.start;
+
+    public LoginTimings(ProxyMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public void complete(Stage stage) {
+        long now = System.nanoTime();
+        long elapsed = now - this.stageStart;
+        this.stageStart = now;
+        this.nanos[stage.ordinal()] = elapsed;
+        this.metrics.getLoginStageTime(stage.getLabel()).record(TimeUnit.NANOSECONDS.toMillis(elapsed));
+    }
+
+    public void log(AuthData authData) {
+        log.debug("Login for {} took {}ms (validate {}ms, forge {}ms, connect {}ms)",
+                authData.getDisplayName(),
+                TimeUnit.NANOSECONDS.toMillis(this.stageStart - this.start),
+                TimeUnit.NANOSECONDS.toMillis(this.nanos[Stage.VALIDATE.ordinal()]),
+                TimeUnit.NANOSECONDS.toMillis(this.nanos[Stage.FORGE.ordinal()]),
+                TimeUnit.NANOSECONDS.toMillis(this.nanos[Stage.CONNECT.ordinal()]));
+    }
+
+    public enum Stage {
+        /**
+         * Chain and client JWT validation on the login executor.
+         */
+        VALIDATE,
+        /**
+         * Key pair creation and signing of the forged login on the login executor.
+         */
+        FORGE,
+        /**
+         * Downstream connect, completed on the session's event loop.
+         */
+        CONNECT;
+
+        @Getter
+        private final String label = this.name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,474 @@
+package org.cloudburstmc.proxypass.network.bedrock.session;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import lombok.extern.log4j.Log4j2;
+import org.cloudburstmc.proxypass.metrics.ProxyMetrics;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Extracted resource packs of all sessions, kept across restarts under a key derived from the pack ID, version and
+ * content key. Sessions get hard links to the cached files where the file system allows it and copies otherwise, so a
+ * pack is downloaded and decrypted once until it is evicted. The least recently used packs are evicted once the cache
+ * exceeds its size.
+ * <p>
+ * When serving archives, the pack as it was received is kept along with its SHA-256, so the proxy can answer the
+ * chunk requests of the client from a memory-mapped copy instead of the server. The archive is mapped and its hash
+ * read when the pack is stored or loaded, so serving it from an event loop needs no file access.
+ * <p>
+ * The monitor only guards the bookkeeping. Linking, moving and deleting pack directories happen outside of it, packs
+ * being linked out are pinned so an eviction leaves their directory to the last link.
+ */
+@Log4j2
+public class PackCache {
+    private static final String STAGING_SUFFIX = ".tmp";
+    private static final String CONTENT = "content";
+    private static final String ARCHIVE = "pack.zip";
+    private static final String ARCHIVE_HASH = "pack.sha256";
+
+    private final Path directory;
+    private final long maxBytes;
+    private final boolean serveArchives;
+    // Every cached pack, in access order. Guarded by this, as are the sets below.
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // Packs being moved into the cache, and dropped packs whose directory is being deleted
+    private final Set<String> storing = new HashSet<>();
+    private final Set<String> deleting = new HashSet<>();
+    private long bytes;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxBytes      disk budget of the cache, 0 or less disables it
+     * @param serveArchives whether to keep the received packs to serve their chunks
+     */
+    public PackCache(Path directory, long maxBytes, boolean serveArchives, ProxyMetrics metrics) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.serveArchives = serveArchives;
+        if (this.isEnabled()) {
+            Files.createDirectories(directory);
+            this.load();
+        }
+
+        metrics.registerGauge("proxypass_pack_cache_bytes", "Bytes of extracted resource packs in the pack cache", false,
+                this::getBytes);
+        metrics.registerGauge("proxypass_pack_cache_hits_total", "Resource packs linked from the pack cache", true,
+                this.hits::sum);
+        metrics.registerGauge("proxypass_pack_cache_misses_total", "Resource packs not found in the pack cache", true,
+                this.misses::sum);
+        metrics.registerGauge("proxypass_pack_cache_evictions_total", "Resource packs evicted from the pack cache", true,
+                this.evictions::sum);
+    }
+
+    public static String key(UUID packId, String version, byte[] contentKey) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(packId.toString().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(String.valueOf(version).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            if (contentKey != null) {
+                digest.update(contentKey);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError("SHA-256 is always available", e);
+        }
+    }
+
+    public boolean isEnabled() {
+        return this.maxBytes > 0;
+    }
+
+    public synchronized long getBytes() {
+        return this.bytes;
+    }
+
+    /**
+     * Pins the cached pack so it stays on disk until it is linked out. Only looks the pack up, so it may be called from
+     * an event loop.
+     *
+     * @return the pinned pack, which must be linked or released, or null if it is not cached
+     */
+    public synchronized Pin pin(String key) {
+        if (!this.isEnabled()) {
+            return null;
+        }
+        Entry entry = this.entries.get(key);
+        if (entry == null) {
+            this.misses.increment();
+            return null;
+        }
+        entry.pins++;
+        return new Pin(key, entry);
+    }
+
+    /**
+     * Returns the cached archive of a pack if it is the one the server announced. Only looks up the archive mapped
+     * when the pack was cached, so it may be called from an event loop.
+     *
+     * @param hash SHA-256 of the pack the server sends
+     * @param size size of the pack the server sends
+     * @return a retained duplicate of the whole archive which the caller must release, or null if it is not cached or
+     * differs
+     */
+    public ByteBuf getArchive(String key, byte[] hash, long size) {
+        if (!this.isEnabled() || !this.serveArchives || hash == null || hash.length == 0) {
+            return null;
+        }
+        synchronized (this) {
+            Entry entry = this.entries.get(key);
+            if (entry == null || entry.archive() == null || entry.archive().capacity() != size
+                    || !Arrays.equals(hash, entry.archiveHash())) {
+                return null;
+            }
+            // Retained under the lock so an eviction can not release it first
+            return entry.archive().retainedDuplicate();
+        }
+    }
+
+    /**
+     * Adds an extracted pack to the cache and evicts the least recently used packs over the budget. The extracted
+     * directory and the archive are left as they are.
+     *
+     * @param archive pack as it was received, kept if archives are served
+     * @return whether the pack is in the cache, false if it is disabled or the pack could not be added
+     */
+    public boolean store(String key, Path extracted, Path archive) {
+        if (!this.isEnabled()) {
+            return false;
+        }
+        synchronized (this) {
+            if (this.entries.containsKey(key)) {
+                // Another session stored it first
+                return true;
+            }
+            if (this.deleting.contains(key) || !this.storing.add(key)) {
+                return false;
+            }
+        }
+
+        // The staging directory is only known to this thread
+        Path staging = this.directory.resolve(key + STAGING_SUFFIX);
+        Entry entry = null;
+        try {
+            deleteTree(staging);
+            linkTree(extracted, staging.resolve(CONTENT));
+            if (this.serveArchives && Files.isRegularFile(archive)) {
+                linkTree(archive, staging.resolve(ARCHIVE));
+                Files.write(staging.resolve(ARCHIVE_HASH), sha256(archive));
+            }
+            long size = sizeOf(staging);
+            if (size > this.maxBytes) {
+                log.debug("Pack {} of {} bytes does not fit the cache", extracted, size);
+                deleteQuietly(staging);
+                return false;
+            }
+            // The mapping follows the file when the staging directory is moved
+            entry = this.entry(staging, size);
+            // Fails if the directory of an evicted copy is still being linked from
+            Files.move(staging, this.directory.resolve(key), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | UncheckedIOException e) {
+            log.warn("Unable to add pack {} to the cache", extracted, e);
+            if (entry != null) {
+                entry.release();
+            }
+            deleteQuietly(staging);
+            entry = null;
+            return false;
+        } finally {
+            if (entry == null) {
+                synchronized (this) {
+                    this.storing.remove(key);
+                }
+            }
+        }
+
+        List<String> evicted;
+        synchronized (this) {
+            this.storing.remove(key);
+            this.entries.put(key, entry);
+            this.bytes += entry.size();
+            evicted = this.evict();
+        }
+        evicted.forEach(this::delete);
+        return true;
+    }
+
+    // Maps the archive of the pack in the directory, if archives are served and it has one
+    private Entry entry(Path path, long size) {
+        if (!this.serveArchives) {
+            return new Entry(size, null, null);
+        }
+        try (FileChannel channel = FileChannel.open(path.resolve(ARCHIVE), StandardOpenOption.READ)) {
+            byte[] hash = Files.readAllBytes(path.resolve(ARCHIVE_HASH));
+            // Stays mapped after the channel is closed, until the buffer is collected
+            ByteBuf archive = Unpooled.wrappedBuffer(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            return new Entry(size, hash, archive);
+        } catch (NoSuchFileException e) {
+            return new Entry(size, null, null);
+        } catch (IOException e) {
+            log.warn("Unable to map cached pack {}", path, e);
+            return new Entry(size, null, null);
+        }
+    }
+
+    // Drops the least recently used packs over the budget, returns those whose directory can be deleted now
+    private List<String> evict() {
+        List<String> deletable = new ArrayList<>();
+        Iterator<Map.Entry<String, Entry>> iterator = this.entries.entrySet().iterator();
+        while (this.bytes > this.maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Entry> entry = iterator.next();
+            iterator.remove();
+            this.evictions.increment();
+            if (this.drop(entry.getKey(), entry.getValue())) {
+                deletable.add(entry.getKey());
+            }
+        }
+        return deletable;
+    }
+
+    // Called with the entry removed from the map, returns whether its directory can be deleted now
+    private boolean drop(String key, Entry entry) {
+        this.bytes -= entry.size();
+        entry.release();
+        entry.dropped = true;
+        if (entry.pins > 0) {
+            // Deleted once the last link is done
+            return false;
+        }
+        this.deleting.add(key);
+        return true;
+    }
+
+    // Deletes the directory of a dropped pack, outside the monitor
+    private void delete(String key) {
+        deleteQuietly(this.directory.resolve(key));
+        synchronized (this) {
+            this.deleting.remove(key);
+        }
+    }
+
+    // Picks up the packs cached before a restart, oldest modification first
+    private void load() throws IOException {
+        List<Path> cached = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory)) {
+            for (Path path : stream) {
+                if (path.getFileName().toString().endsWith(STAGING_SUFFIX)) {
+                    // Left over from a store that did not finish
+                    deleteQuietly(path);
+                } else if (Files.isDirectory(path.resolve(CONTENT))) {
+                    cached.add(path);
+                } else {
+                    deleteQuietly(path);
+                }
+            }
+        }
+        cached.sort(Comparator.comparing(path -> {
+            try {
+                return Files.getLastModifiedTime(path);
+            } catch (IOException e) {
+                return FileTime.fromMillis(0);
+            }
+        }));
+        List<String> evicted;
+        synchronized (this) {
+            for (Path path : cached) {
+                long size = sizeOf(path);
+                this.entries.put(path.getFileName().toString(), this.entry(path, size));
+                this.bytes += size;
+            }
+            evicted = this.evict();
+        }
+        evicted.forEach(this::delete);
+        log.info("Loaded {} cached packs, {} MB", this.entries.size(), this.bytes / (1024 * 1024));
+    }
+
+    /**
+     * Recreates the file or directory tree of the source at the target, hard linking every file, or copying it where hard
+     * links are not supported.
+     */
+    static void linkTree(Path source, Path target) throws IOException {
+        try (Stream<Path> walk = Files.walk(source)) {
+            for (Path path : (Iterable<Path>) walk::iterator) {
+                Path destination = target.resolve(source.relativize(path).toString());
+                if (Files.isDirectory(path)) {
+                    Files.createDirectories(destination);
+                    continue;
+                }
+                Files.deleteIfExists(destination);
+                try {
+                    Files.createLink(destination, path);
+                } catch (UnsupportedOperationException | IOException e) {
+                    // Most likely a different file store
+                    Files.copy(path, destination, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        }
+    }
+
+    private static byte[] sha256(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[65536];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError("SHA-256 is always available", e);
+        }
+    }
+
+    private static long sizeOf(Path directory) throws IOException {
+        try (Stream<Path> walk = Files.walk(directory)) {
+            return walk.filter(Files::isRegularFile).mapToLong(path -> {
+                try {
+                    return Files.size(path);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).sum();
+        }
+    }
+
+    private static void deleteTree(Path directory) throws IOException {
+        if (Files.notExists(directory)) {
+            return;
+        }
+        try (Stream<Path> walk = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) walk.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    private static void deleteQuietly(Path directory) {
+        try {
+            deleteTree(directory);
+        } catch (IOException | UncheckedIOException e) {
+            log.warn("Unable to delete {}", directory, e);
+        }
+    }
+
+    /**
+     * A cached pack which stays on disk until it is linked out or released, whichever of the two happens once.
+     */
+    public final class Pin {
+        private final String key;
+        private final Entry entry;
+
+        private Pin(String key, Entry entry) {
+            this.key = key;
+            this.entry = entry;
+        }
+
+        /**
+         * Links the pack into the target directory and releases the pin. Walks the whole pack, so it is called from a
+         * pack worker rather than an event loop.
+         *
+         * @return whether the pack was linked
+         */
+        public boolean link(Path target) {
+            Path source = directory.resolve(this.key);
+            boolean linked = false;
+            try {
+                linkTree(source.resolve(CONTENT), target);
+                // Survives restarts as the order of the cache
+                Files.setLastModifiedTime(source, FileTime.fromMillis(System.currentTimeMillis()));
+                hits.increment();
+                linked = true;
+            } catch (IOException | UncheckedIOException e) {
+                log.warn("Unable to link cached pack {} to {}, dropping it from the cache", this.key, target, e);
+                misses.increment();
+            }
+            this.unpin(!linked);
+            return linked;
+        }
+
+        public void release() {
+            this.unpin(false);
+        }
+
+        private void unpin(boolean drop) {
+            boolean delete;
+            synchronized (PackCache.this) {
+                this.entry.pins--;
+                if (drop && entries.remove(this.key, this.entry)) {
+                    delete = drop(this.key, this.entry);
+                } else {
+                    // The last link of a pack evicted meanwhile deletes it
+                    delete = this.entry.dropped && this.entry.pins == 0 && deleting.add(this.key);
+                }
+            }
+            if (delete) {
+                delete(this.key);
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final long size;
+        // SHA-256 of the archive and the mapped archive, null if it is not served
+        private final byte[] archiveHash;
+        private final ByteBuf archive;
+        // Guarded by the cache. Links in progress, and whether the pack was dropped from the cache.
+        private int pins;
+        private boolean dropped;
+
+        Entry(long size, byte[] archiveHash, ByteBuf archive) {
+            this.size = size;
+            this.archiveHash = archiveHash;
+            this.archive = archive;
+        }
+
+        long size() {
+            return this.size;
+        }
+
+        byte[] archiveHash() {
+            return this.archiveHash;
+        }
+
+        ByteBuf archive() {
+            return this.archive;
+        }
+
+        // Sessions serving the archive hold their own duplicates
+        void release() {
+            if (this.archive != null) {
+                this.archive.release();
+            }
+        }
+    }
+}
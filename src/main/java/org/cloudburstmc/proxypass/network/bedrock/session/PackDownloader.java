@@ -5,22 +5,28 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.util.concurrent.FastThreadLocal;
+import lombok.Getter;
 import lombok.extern.log4j.Log4j2;
+import org.cloudburstmc.protocol.bedrock.packet.ResourcePackChunkDataPacket;
+import org.cloudburstmc.protocol.bedrock.packet.ResourcePackChunkRequestPacket;
+import org.cloudburstmc.protocol.bedrock.packet.ResourcePackDataInfoPacket;
+import org.cloudburstmc.proxypass.metrics.ProxyMetrics;
 
-import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
-import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.NoSuchPaddingException;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryStream;
@@ -30,29 +36,48 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
-import java.security.InvalidAlgorithmParameterException;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
+import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
 
 @Log4j2
 public class PackDownloader implements AutoCloseable {
+    // Chunks waiting to be written at which the server stops being read, and at which it is read again
+    private static final int PAUSE_READ_WRITES = 64;
+    private static final int RESUME_READ_WRITES = 16;
+
     private Map<UUID, Pack> packs;
+    // Cache keys of the packs linked from the pack cache, by pack ID
+    private final Map<UUID, String> cachedPacks = new ConcurrentHashMap<>();
+    // Cached packs whose chunks the proxy answers instead of the server
+    private final Map<UUID, ServedPack> servedPacks = new ConcurrentHashMap<>();
     private final Path packsPath;
-    private final ExecutorService executor;
+    private final PackProcessor processor;
+    private final ProxyMetrics metrics;
+    // Connection to the server, which stops being read while too many of its chunks wait to be written
+    private final Channel channel;
+    private final AtomicInteger pendingWrites = new AtomicInteger();
 
-    public PackDownloader(Path dataPath) {
+    public PackDownloader(Path dataPath, PackProcessor processor, ProxyMetrics metrics, Channel channel) {
+        this.processor = processor;
+        this.metrics = metrics;
+        this.channel = channel;
         this.packsPath = dataPath.resolve("packs");
         try {
             Files.createDirectories(this.packsPath);
@@ -61,24 +86,52 @@ public class PackDownloader implements AutoCloseable {
         }
 
         this.packs = Collections.synchronizedMap(new HashMap<>());
-
-        int availableProcessors = Runtime.getRuntime().availableProcessors();
-        this.executor = Executors.newFixedThreadPool(
-                Math.max(2, availableProcessors / 2));
     }
 
+    /**
+     * A pack received in chunks is written to a file pre-sized from {@link ResourcePackDataInfoPacket}, each chunk at
+     * its own offset as soon as it arrives, so only chunks waiting for their write are held in memory.
+     */
     public static class Pack {
+        private static final Set<String> UNENCRYPTED_ENTRIES = Set.of("manifest.json", "pack_manifest.json", "pack_icon.png", "README.txt");
+        private static final FastThreadLocal<byte[]> DECRYPT_BUFFER = new FastThreadLocal<>() {
+            @Override
+            protected byte[] initialValue() {
+                return new byte[65536];
+            }
+        };
+
+        @Getter
         private UUID packId;
-        private SortedMap<Integer, ByteBuf> chunks;
+        private String version;
         private byte[] contentKey;
+        // Identifies the pack across sessions, see PackCache
+        private final String key;
         private URL cdnUrl;
+        @Getter
         private Path packPath;
+        // Decrypted contents of the pack, the downloaded zip is left as it was received
+        @Getter
+        private Path extractedPath;
+        private final ProxyMetrics metrics;
+        // Guarded by this
+        private FileChannel channel;
+        private long chunkSize;
+        private int chunkCount;
+        private BitSet received;
+        private int pendingWrites;
+        private boolean writeFailed;
+        // Incremented by every open, writes queued for an earlier file do not count towards the current one
+        private int generation;
 
-        Pack(UUID packId, String contentKey, Path packsPath, String cdnUrl) {
+        Pack(UUID packId, String version, String contentKey, Path packsPath, String cdnUrl, ProxyMetrics metrics) {
             this.packId = packId;
-            this.chunks = new TreeMap<>();
+            this.version = version;
+            this.metrics = metrics;
             this.contentKey = contentKey != null ? contentKey.getBytes() : null;
+            this.key = PackCache.key(packId, version, this.contentKey);
             this.packPath = packsPath.resolve(this.packId.toString() + ".zip");
+            this.extractedPath = packsPath.resolve(this.packId.toString());
             try {
                 this.cdnUrl = cdnUrl != null && !cdnUrl.isEmpty() ? new URI(cdnUrl).toURL() : null;
             } catch (MalformedURLException | URISyntaxException e) {
@@ -86,181 +139,421 @@ public class PackDownloader implements AutoCloseable {
             }
         }
 
-        public void addChunk(int offset, ByteBuf chunk) {
-            chunks.put(offset, chunk);
-        }
-
-        public void process() {
-            if (this.chunks.isEmpty() && this.cdnUrl == null)
-                return;
-            this.writeStream();
-            this.decryptStream();
+        synchronized void open(long chunkSize, int chunkCount, long size) throws IOException {
+            this.closeChannel();
+            FileChannel channel = FileChannel.open(this.packPath,
+                    StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            if (size > 0) {
+                // Sparse where the file system supports it
+                channel.write(ByteBuffer.allocate(1), size - 1);
+            }
+            this.channel = channel;
+            this.chunkSize = chunkSize;
+            this.chunkCount = chunkCount;
+            this.received = new BitSet(chunkCount);
+            this.pendingWrites = 0;
+            this.writeFailed = false;
+            this.generation++;
         }
 
-        private void writeStream() {
-            if (this.cdnUrl != null) {
-                try (InputStream inputStream = this.cdnUrl.openStream()) {
-                    Files.copy(inputStream, this.packPath, StandardCopyOption.REPLACE_EXISTING);
-                } catch (IOException e) {
-                    log.error("Failed to download pack {} from CDN {}", this.packId, this.cdnUrl, e);
+        /**
+         * Writes the chunk on the executor and releases it once written.
+         */
+        void addChunk(int index, ByteBuf chunk, Executor executor) {
+            FileChannel channel;
+            long position;
+            int generation;
+            synchronized (this) {
+                channel = this.channel;
+                if (channel == null || index < 0 || index >= this.chunkCount) {
+                    chunk.release();
+                    log.warn("Dropping chunk {} of pack {} received without its data info", index, this.packId);
+                    return;
                 }
-                return;
+                position = index * this.chunkSize;
+                generation = this.generation;
+                this.pendingWrites++;
+            }
+            try {
+                executor.execute(() -> this.writeChunk(channel, generation, index, position, chunk));
+            } catch (RejectedExecutionException e) {
+                // The proxy is shutting down
+                chunk.release();
+                this.onChunkWritten(generation, index, false);
             }
-            try (
-                    FileChannel channel = FileChannel.open(
-                            packPath,
-                            StandardOpenOption.WRITE, StandardOpenOption.CREATE,
-                            StandardOpenOption.TRUNCATE_EXISTING)) {
-                for (ByteBuf buf : chunks.values()) {
-                    buf.readBytes(channel, buf.readableBytes());
+        }
+
+        private void writeChunk(FileChannel channel, int generation, int index, long position, ByteBuf chunk) {
+            boolean written = false;
+            try {
+                int offset = chunk.readerIndex();
+                int length = chunk.readableBytes();
+                int done = 0;
+                while (done < length) {
+                    done += chunk.getBytes(offset + done, channel, position + done, length - done);
                 }
+                this.metrics.getPackChunkBytes().add(length);
+                written = true;
+            } catch (ClosedChannelException e) {
+                // The session closed or the pack was opened again before the pack was complete
             } catch (IOException e) {
-                log.error("Failed to write pack {} to file system", this.packId, e);
+                log.error("Failed to write chunk {} of pack {}", index, this.packId, e);
             } finally {
-                chunks.values().forEach(ByteBuf::release);
+                chunk.release();
+                this.onChunkWritten(generation, index, written);
             }
         }
 
-        private void decryptStream() {
-            try (FileSystem fs = this.orientFileSystem()) {
-                this.decryptFileSystem(fs);
-            } catch (IOException | NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException
-                    | InvalidAlgorithmParameterException | IllegalBlockSizeException | BadPaddingException e) {
-                log.error("Failed to process pack {}: {}", this.packId, e.getMessage(), e);
+        private synchronized void onChunkWritten(int generation, int index, boolean written) {
+            if (generation != this.generation) {
+                return;
+            }
+            if (written) {
+                this.received.set(index);
+            } else {
+                this.writeFailed = true;
             }
+            this.pendingWrites--;
+            this.notifyAll();
         }
 
-        private FileSystem orientFileSystem() throws IOException {
-            FileSystem fs = FileSystems.newFileSystem(this.packPath, Collections.emptyMap(), null);
-            if (!this.containsManifest(fs) && this.cdnUrl != null) {
-                for (Path path : fs.getRootDirectories()) {
-                    if (!path.endsWith((".zip")))
-                        continue;
-                    Files.copy(path, this.packPath, StandardCopyOption.REPLACE_EXISTING);
-                    fs.close();
-                    fs = FileSystems.newFileSystem(this.packPath, Collections.emptyMap(), null);
-                    break;
+        // Waits for queued chunk writes, returns whether every chunk of the pack is on disk
+        private synchronized boolean awaitChunks() throws InterruptedException {
+            while (this.pendingWrites > 0) {
+                this.wait();
+            }
+            return !this.writeFailed && this.received.cardinality() == this.chunkCount;
+        }
+
+        private synchronized void closeChannel() {
+            if (this.channel == null) {
+                return;
+            }
+            try {
+                this.channel.close();
+            } catch (IOException e) {
+                log.warn("Failed to close pack file {}", this.packPath, e);
+            }
+            this.channel = null;
+        }
+
+        // Same pack ID and version is the same content, whichever session receives it
+        String getKey() {
+            return this.key;
+        }
+
+        // Whether the pack was downloaded by this session at all, packs the client already has are not
+        synchronized boolean isDownloaded() {
+            return this.cdnUrl != null || this.channel != null;
+        }
+
+        void release() {
+            this.closeChannel();
+        }
+
+        /**
+         * @param downloader      downloads the pack if it is hosted on a CDN
+         * @param decryptExecutor runs the extraction of the entries, must not be the executor running this
+         * @return whether the pack was written and extracted
+         */
+        public boolean process(CdnDownloader downloader, Executor decryptExecutor) {
+            if (!this.isDownloaded())
+                return false;
+            if (!this.writeStream(downloader) || !this.decryptStream(decryptExecutor))
+                return false;
+            this.metrics.getPacksProcessed().increment();
+            return true;
+        }
+
+        private boolean writeStream(CdnDownloader downloader) {
+            if (this.cdnUrl != null) {
+                try {
+                    downloader.download(this.cdnUrl.toURI(), this.key, this.packPath);
+                    return true;
+                } catch (IOException | URISyntaxException e) {
+                    this.metrics.getPackFailures().increment();
+                    log.error("Failed to download pack {} from CDN {}", this.packId, this.cdnUrl, e);
+                    return false;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            try {
+                if (this.awaitChunks()) {
+                    return true;
+                }
+                this.metrics.getPackFailures().increment();
+                synchronized (this) {
+                    log.error("Pack {} is incomplete, {} of {} chunks were written", this.packId,
+                            this.received.cardinality(), this.chunkCount);
                 }
+                return false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                this.closeChannel();
             }
+        }
 
-            if (this.containsManifest(fs)) {
-                return fs;
+        private boolean decryptStream(Executor decryptExecutor) {
+            long start = System.nanoTime();
+            try (FileSystem fs = FileSystems.newFileSystem(this.packPath, Collections.emptyMap(), null)) {
+                long bytes = this.extract(fs, this.contentRoot(fs), decryptExecutor);
+                long nanos = System.nanoTime() - start;
+                log.info("Extracted pack {}: {} MB decrypted in {} ms, {} MB/s", this.packId,
+                        String.format("%.1f", bytes / 1048576.0), TimeUnit.NANOSECONDS.toMillis(nanos),
+                        String.format("%.1f", bytes / 1048576.0 / Math.max(1, nanos) * TimeUnit.SECONDS.toNanos(1)));
+                this.metrics.getPackDecryptBytes().add(bytes);
+                return true;
+            } catch (IOException | GeneralSecurityException | CompletionException e) {
+                this.metrics.getPackFailures().increment();
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                log.error("Failed to process pack {}: {}", this.packId, cause.getMessage(), cause);
+                return false;
             }
+        }
 
-            Path contentDir = null;
-            try (
-                DirectoryStream<Path> stream = Files.newDirectoryStream(fs.getPath("/"))
-            ) {
+        // Packs either have their manifest at the root or in a single directory
+        private Path contentRoot(FileSystem fs) throws IOException {
+            Path root = fs.getPath("/");
+            if (this.containsManifest(root)) {
+                return root;
+            }
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(root)) {
                 for (Path entry : stream) {
                     if (Files.isDirectory(entry)) {
-                        contentDir = entry;
-                        break;
+                        return entry;
                     }
                 }
             }
-
-            if (contentDir != null) {
-                this.moveDirectoryContents(contentDir, fs.getPath("/"));
-                Files.delete(contentDir);
-            }
-
-            return fs;
+            return root;
         }
 
-        private boolean containsManifest(FileSystem fs) {
-            return Files.exists(fs.getPath("/manifest.json")) || Files.exists(fs.getPath("/pack_manifest.json"));
+        private boolean containsManifest(Path root) {
+            return Files.exists(root.resolve("manifest.json")) || Files.exists(root.resolve("pack_manifest.json"));
         }
 
-        private void moveDirectoryContents(Path source, Path destination) throws IOException {
-            List<Path> pathsToMove = new ArrayList<>();
-            try (DirectoryStream<Path> stream = Files.newDirectoryStream(source)) {
-                for (Path path : stream) {
-                    pathsToMove.add(path);
-                }
-            }
+        /**
+         * Extracts every entry below the content root to the extracted directory, decrypting entries listed with a key
+         * in contents.json. Entries are streamed by one task per entry on the executor.
+         *
+         * @return number of bytes decrypted
+         */
+        private long extract(FileSystem fs, Path root, Executor executor) throws IOException, GeneralSecurityException {
+            Path target = this.extractedPath;
+            Files.createDirectories(target);
+
+            Map<String, byte[]> keys = new HashMap<>();
+            Path contentsPath = root.resolve("contents.json");
+            boolean encrypted = this.contentKey != null && this.contentKey.length > 0 && Files.exists(contentsPath);
+            if (encrypted) {
+                // Small enough to decrypt in one go, the content keys are needed before anything else
+                byte[] contents = Files.readAllBytes(contentsPath);
+                Cipher cipher = createCipher(this.contentKey);
+                byte[] decrypted = cipher.doFinal(contents, 256, contents.length - 256);
+                Files.write(target.resolve("contents.json"), decrypted);
 
-            for (Path path : pathsToMove) {
-                Path targetPath = destination.resolve(path.getFileName().toString());
-                if (Files.isDirectory(path)) {
-                    Files.createDirectory(targetPath);
-                    moveDirectoryContents(path, targetPath);
-                    Files.delete(path);
-                } else {
-                    Files.move(path, targetPath, StandardCopyOption.REPLACE_EXISTING);
+                JsonArray contentsArray = JsonParser.parseString(new String(decrypted, StandardCharsets.UTF_8))
+                        .getAsJsonObject().getAsJsonArray("content");
+                for (JsonElement element : contentsArray) {
+                    JsonObject contentItem = element.getAsJsonObject();
+                    if (!contentItem.has("key") || contentItem.get("key").isJsonNull())
+                        continue;
+                    String path = contentItem.get("path").getAsString();
+                    if (UNENCRYPTED_ENTRIES.contains(path))
+                        continue;
+                    keys.put(path, contentItem.get("key").getAsString().getBytes(StandardCharsets.ISO_8859_1));
                 }
             }
-        }
 
-        private void decryptFileSystem(FileSystem fs)
-                throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException,
-                InvalidAlgorithmParameterException, IOException, IllegalBlockSizeException, BadPaddingException {
-            if (this.contentKey == null || this.contentKey.length == 0 || !Files.exists(fs.getPath("/contents.json")))
-                return;
+            List<Path> entries;
+            try (Stream<Path> walk = Files.walk(root)) {
+                entries = walk.filter(Files::isRegularFile).toList();
+            }
 
-            final Cipher cipher = Cipher.getInstance("AES/CFB8/NoPadding");
-            cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(this.contentKey, "AES"),
-                    new IvParameterSpec(Arrays.copyOfRange(this.contentKey, 0, 16)));
-            final ByteBuf contents = Unpooled.wrappedBuffer(Files.readAllBytes(fs.getPath("/contents.json")));
-            contents.readerIndex(256);
-            final byte[] encryptedContents = new byte[contents.readableBytes()];
-            contents.readBytes(encryptedContents);
-            Files.write(fs.getPath("/contents.json"), cipher.doFinal(encryptedContents));
-            final JsonArray contentsArray = JsonParser.parseString(Files.readString(fs.getPath("/contents.json")))
-                    .getAsJsonObject().getAsJsonArray("content");
-
-            for (JsonElement element : contentsArray) {
-                final JsonObject contentItem = element.getAsJsonObject();
-                if (!contentItem.has("key") || contentItem.get("key").isJsonNull())
+            LongAdder decryptedBytes = new LongAdder();
+            List<CompletableFuture<Void>> tasks = new ArrayList<>(entries.size());
+            for (Path entry : entries) {
+                String relative = root.relativize(entry).toString();
+                if (encrypted && relative.equals("contents.json"))
                     continue;
-                final String key = contentItem.get("key").getAsString();
-                final String path = contentItem.get("path").getAsString();
-                final Path filePath = fs.getPath("/", path);
-                if (!Files.exists(filePath)) {
+                Path destination = target.resolve(relative).normalize();
+                if (!destination.startsWith(target)) {
+                    log.warn("Skipping entry {} of pack {} outside of the pack", relative, this.packId);
                     continue;
                 }
-                if (List.of("manifest.json", "pack_manifest.json", "pack_icon.png", "README.txt").contains(path)) {
-                    continue;
+                byte[] key = keys.get(relative);
+                tasks.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        Files.createDirectories(destination.getParent());
+                        if (key == null) {
+                            Files.copy(entry, destination, StandardCopyOption.REPLACE_EXISTING);
+                        } else {
+                            decryptedBytes.add(decryptEntry(entry, destination, key));
+                        }
+                    } catch (IOException | GeneralSecurityException e) {
+                        throw new CompletionException(e);
+                    }
+                }, executor));
+            }
+            CompletableFuture.allOf(tasks.toArray(CompletableFuture[]::new)).join();
+            return decryptedBytes.sum();
+        }
+
+        private static long decryptEntry(Path source, Path destination, byte[] key) throws IOException, GeneralSecurityException {
+            Cipher cipher = createCipher(key);
+            byte[] buffer = DECRYPT_BUFFER.get();
+            long total = 0;
+            try (InputStream in = Files.newInputStream(source);
+                 OutputStream out = Files.newOutputStream(destination)) {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    // CFB8 without padding maps every input byte to one output byte, so in place is safe
+                    int length = cipher.update(buffer, 0, read, buffer, 0);
+                    out.write(buffer, 0, length);
+                    total += read;
                 }
-                final byte[] encryptedData = Files.readAllBytes(filePath);
-                final byte[] keyBytes = key.getBytes(StandardCharsets.ISO_8859_1);
-                cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(keyBytes, "AES"),
-                        new IvParameterSpec(Arrays.copyOfRange(keyBytes, 0, 16)));
-                Files.write(filePath, cipher.doFinal(encryptedData));
+                int length = cipher.doFinal(buffer, 0);
+                out.write(buffer, 0, length);
             }
+            return total;
+        }
+
+        private static Cipher createCipher(byte[] key) throws GeneralSecurityException {
+            Cipher cipher = Cipher.getInstance("AES/CFB8/NoPadding");
+            cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, "AES"),
+                    new IvParameterSpec(Arrays.copyOfRange(key, 0, 16)));
+            return cipher;
         }
     }
 
-    public void registerPack(UUID packId, String cdnUrl, String contentKey) {
-        packs.put(packId, new Pack(packId, contentKey, packsPath, cdnUrl));
+    /**
+     * Links the pack from the pack cache if it is there, its chunks are then dropped as they arrive and it is neither
+     * downloaded nor decrypted again.
+     */
+    public void registerPack(UUID packId, String version, String cdnUrl, String contentKey) {
+        Pack pack = new Pack(packId, version, contentKey, packsPath, cdnUrl, metrics);
+        if (processor.linkCached(pack.getKey(), pack.getExtractedPath())) {
+            log.debug("Linking pack {} version {} from the pack cache", packId, version);
+            cachedPacks.put(packId, pack.getKey());
+            return;
+        }
+        packs.put(packId, pack);
     }
 
-    public void addChunk(UUID packId, int offset, ByteBuf chunk) {
+    public void onDataInfo(ResourcePackDataInfoPacket packet) {
+        String cachedKey = cachedPacks.get(packet.getPackId());
+        if (cachedKey != null) {
+            ByteBuf archive = processor.getCachedArchive(cachedKey, packet.getHash(), packet.getCompressedPackSize());
+            if (archive != null) {
+                ServedPack previous = servedPacks.put(packet.getPackId(),
+                        new ServedPack(archive, packet.getPackVersion(), packet.getMaxChunkSize(), (int) packet.getChunkCount()));
+                if (previous != null) {
+                    previous.archive().release();
+                }
+            }
+            return;
+        }
+        Pack pack = packs.get(packet.getPackId());
+        if (pack == null || processor.isProcessed(pack.getKey())) {
+            // Another session already has it, its chunks are dropped as they arrive
+            return;
+        }
+        try {
+            pack.open(packet.getMaxChunkSize(), (int) packet.getChunkCount(), packet.getCompressedPackSize());
+        } catch (IOException e) {
+            metrics.getPackFailures().increment();
+            log.error("Failed to create pack file {}", pack.getPackPath(), e);
+        }
+    }
+
+    public void addChunk(UUID packId, int chunkIndex, ByteBuf chunk) {
         Pack pack = packs.get(packId);
-        if (pack == null)
+        if (pack == null || !pack.isDownloaded()) {
+            chunk.release();
             return;
-        pack.addChunk(offset, chunk);
+        }
+        pack.addChunk(chunkIndex, chunk, this::write);
+    }
+
+    // Called on the event loop of the channel, like every autoRead change
+    private void write(Runnable task) {
+        if (pendingWrites.incrementAndGet() >= PAUSE_READ_WRITES && channel.config().isAutoRead()) {
+            channel.config().setAutoRead(false);
+        }
+        try {
+            processor.write(() -> {
+                try {
+                    task.run();
+                } finally {
+                    this.onWritten();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            this.onWritten();
+            throw e;
+        }
+    }
+
+    private void onWritten() {
+        if (pendingWrites.decrementAndGet() == RESUME_READ_WRITES) {
+            channel.eventLoop().execute(() -> {
+                if (pendingWrites.get() <= RESUME_READ_WRITES && !channel.config().isAutoRead()) {
+                    channel.config().setAutoRead(true);
+                }
+            });
+        }
+    }
+
+    /**
+     * Answers a chunk request of the client from the cached archive of the pack. The client requests chunks as it
+     * receives them, each one is now answered on the same event loop without a round trip to the server.
+     *
+     * @return the chunk, or null if the request has to go to the server
+     */
+    public ResourcePackChunkDataPacket getCachedChunk(ResourcePackChunkRequestPacket request) {
+        ServedPack pack = servedPacks.get(request.getPackId());
+        int index = request.getChunkIndex();
+        if (pack == null || index < 0 || index >= pack.chunkCount()) {
+            return null;
+        }
+        long offset = index * pack.chunkSize();
+        int length = (int) Math.min(pack.chunkSize(), pack.archive().capacity() - offset);
+        ResourcePackChunkDataPacket chunk = new ResourcePackChunkDataPacket();
+        chunk.setPackId(request.getPackId());
+        chunk.setPackVersion(pack.version());
+        chunk.setChunkIndex(index);
+        chunk.setProgress(offset);
+        // A slice of the mapping, released along with the packet once it is encoded
+        chunk.setData(pack.archive().retainedSlice((int) offset, length));
+        metrics.getPackServedBytes().add(length);
+        return chunk;
     }
 
     public void processPacks() {
-        for (Pack pack : packs.values()) {
-            executor.submit(pack::process);
+        synchronized (packs) {
+            for (Pack pack : packs.values()) {
+                processor.submit(pack);
+            }
+            packs.clear();
         }
-        packs.clear();
     }
 
+    /**
+     * Releases the chunks of packs which were never handed to the processor.
+     */
     @Override
     public void close() {
-        executor.shutdown();
-        try {
-            if (!executor.awaitTermination(60, TimeUnit.SECONDS)) {
-                executor.shutdownNow();
-                if (!executor.awaitTermination(60, TimeUnit.SECONDS)) {
-                    System.err.println("Executor did not terminate");
-                }
-            }
-        } catch (InterruptedException ie) {
-            executor.shutdownNow();
-            Thread.currentThread().interrupt();
+        synchronized (packs) {
+            packs.values().forEach(Pack::release);
+            packs.clear();
         }
+        servedPacks.values().forEach(pack -> pack.archive().release());
+        servedPacks.clear();
+    }
+
+    private record ServedPack(ByteBuf archive, String version, long chunkSize, int chunkCount) {
     }
 }
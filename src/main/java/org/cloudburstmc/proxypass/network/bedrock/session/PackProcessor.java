@@ -0,0 +1,217 @@
+package org.cloudburstmc.proxypass.network.bedrock.session;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.log4j.Log4j2;
+import org.cloudburstmc.proxypass.metrics.ProxyMetrics;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Writes and decrypts the resource packs of all sessions on one bounded pool, with the entries of each pack decrypted
+ * in parallel on a second pool. A pack is processed once per pack ID and version, sessions which receive it again get
+ * links to the first extracted directory. Extracted packs are added to the {@link PackCache}, which outlives the
+ * sessions and the processor.
+ */
+@Log4j2
+public class PackProcessor implements AutoCloseable {
+    // Bounded so a burst of joins is rejected instead of queueing up pack work without limit.
+    private static final int QUEUE_SIZE = 1024;
+
+    private final ThreadPoolExecutor executor;
+    // Chunks of packs being received are written here, apart from the pack workers which may wait on CDN downloads
+    private final ThreadPoolExecutor writeExecutor;
+    // Entries of a pack are decrypted here, so pack workers never wait on tasks queued behind themselves
+    private final ExecutorService decryptExecutor;
+    private final ProxyMetrics metrics;
+    private final PackCache cache;
+    private final CdnDownloader downloader;
+    // Result of every pack in progress, completed with null if it failed. Processed packs are left to the cache once
+    // it stores them, only those it did not take stay here to be copied from the directory of their first session.
+    private final Map<String, CompletableFuture<Path>> packs = new ConcurrentHashMap<>();
+    private final AtomicInteger inProgress = new AtomicInteger();
+    private final LongAdder deduplicated = new LongAdder();
+
+    /**
+     * @param threads number of workers, 0 for half of the available processors or 32 virtual threads
+     * @param virtual whether workers are virtual threads, which suits packs mostly waiting on CDN downloads
+     */
+    public PackProcessor(int threads, boolean virtual, PackCache cache, CdnDownloader downloader, ProxyMetrics metrics) {
+        this.metrics = metrics;
+        this.cache = cache;
+        this.downloader = downloader;
+        if (threads <= 0) {
+            threads = virtual ? 32 : Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+        }
+        ThreadFactory threadFactory = virtual
+                ? Thread.ofVirtual().name("proxypass-pack-", 0).factory()
+                : new DefaultThreadFactory("proxypass-pack", true);
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(QUEUE_SIZE), threadFactory);
+        this.decryptExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                new DefaultThreadFactory("proxypass-pack-decrypt", true));
+        // Unbounded, each session stops reading once too many of its chunks wait here, see PackDownloader
+        this.writeExecutor = new ThreadPoolExecutor(2, 2, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                new DefaultThreadFactory("proxypass-pack-write", true));
+
+        metrics.registerGauge("proxypass_pack_queue_depth", "Resource packs waiting for a pack worker", false,
+                () -> this.executor.getQueue().size());
+        metrics.registerGauge("proxypass_pack_write_queue_depth", "Resource pack chunks waiting to be written", false,
+                () -> this.writeExecutor.getQueue().size());
+        metrics.registerGauge("proxypass_packs_in_progress", "Resource packs being written and decrypted", false,
+                this.inProgress::get);
+        metrics.registerGauge("proxypass_packs_deduplicated_total",
+                "Resource packs copied from an earlier session instead of processed again", true, this.deduplicated::sum);
+    }
+
+    /**
+     * Processes the pack, or copies it once the same pack processed for another session is done. Takes over the
+     * pack file either way.
+     */
+    public void submit(PackDownloader.Pack pack) {
+        CompletableFuture<Path> result = new CompletableFuture<>();
+        CompletableFuture<Path> existing = this.packs.putIfAbsent(pack.getKey(), result);
+        if (existing != null) {
+            pack.release();
+            this.deduplicated.increment();
+            existing.thenAcceptAsync(source -> this.copy(pack, existing, source), this.executor)
+                    .exceptionally(e -> {
+                        log.warn("Unable to copy pack {} for another session", pack.getPackId(), e);
+                        return null;
+                    });
+            return;
+        }
+
+        try {
+            this.executor.execute(() -> this.process(pack, result));
+        } catch (RejectedExecutionException e) {
+            this.packs.remove(pack.getKey(), result);
+            result.complete(null);
+            pack.release();
+            this.metrics.getPackFailures().increment();
+            log.warn("Pack queue is full, skipping pack {}", pack.getPackId());
+        }
+    }
+
+    /**
+     * Runs the write of a received chunk on the write pool.
+     *
+     * @throws RejectedExecutionException if the processor is closed
+     */
+    public void write(Runnable task) {
+        this.writeExecutor.execute(task);
+    }
+
+    /**
+     * Links the pack from the cache into the target directory on a pack worker, so the session does not need its
+     * chunks at all. The calling thread only looks the pack up.
+     *
+     * @return whether the pack is cached and is being linked
+     */
+    public boolean linkCached(String key, Path target) {
+        PackCache.Pin pin = this.cache.pin(key);
+        if (pin == null) {
+            return false;
+        }
+        try {
+            this.executor.execute(() -> pin.link(target));
+            return true;
+        } catch (RejectedExecutionException e) {
+            // The session downloads the pack instead
+            pin.release();
+            return false;
+        }
+    }
+
+    /**
+     * @return the cached archive of the pack if it matches what the server announced, null otherwise
+     * @see PackCache#getArchive(String, byte[], long)
+     */
+    public ByteBuf getCachedArchive(String key, byte[] hash, long size) {
+        return this.cache.getArchive(key, hash, size);
+    }
+
+    /**
+     * @return whether the pack is processed or being processed for some session
+     */
+    public boolean isProcessed(String key) {
+        CompletableFuture<Path> result = this.packs.get(key);
+        return result != null && (!result.isDone() || result.getNow(null) != null);
+    }
+
+    private void process(PackDownloader.Pack pack, CompletableFuture<Path> result) {
+        PackCache.Pin pin = pack.isDownloaded() ? null : this.cache.pin(pack.getKey());
+        if (pin != null && pin.link(pack.getExtractedPath())) {
+            // Its chunks were dropped while another session processed it, which has cached it since
+            result.complete(pack.getExtractedPath());
+            this.packs.remove(pack.getKey(), result);
+            pack.release();
+            this.deduplicated.increment();
+            return;
+        }
+
+        this.inProgress.incrementAndGet();
+        long start = System.nanoTime();
+        boolean processed = false;
+        try {
+            processed = pack.process(this.downloader, this.decryptExecutor);
+        } catch (Throwable t) {
+            this.metrics.getPackFailures().increment();
+            log.error("Failed to process pack {}", pack.getPackId(), t);
+        } finally {
+            this.inProgress.decrementAndGet();
+            this.metrics.getPackProcessingTime().record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+
+        if (processed) {
+            boolean cached = this.cache.store(pack.getKey(), pack.getExtractedPath(), pack.getPackPath());
+            result.complete(pack.getExtractedPath());
+            if (cached) {
+                // Later sessions link it from the cache, which may evict it
+                this.packs.remove(pack.getKey(), result);
+            }
+        } else {
+            // Let the next session try again
+            this.packs.remove(pack.getKey(), result);
+            result.complete(null);
+        }
+    }
+
+    private void copy(PackDownloader.Pack pack, CompletableFuture<Path> result, Path source) {
+        Path target = pack.getExtractedPath();
+        if (source == null || source.equals(target)) {
+            return;
+        }
+        try {
+            PackCache.linkTree(source, target);
+        } catch (IOException | UncheckedIOException e) {
+            // The session directory of the first copy is gone, process the pack again next time
+            this.packs.remove(pack.getKey(), result);
+            log.warn("Unable to copy pack {} from {}", pack.getPackId(), source, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        this.executor.shutdownNow();
+        // Queued writes still run, so their chunks are released
+        this.writeExecutor.shutdown();
+        this.decryptExecutor.shutdownNow();
+    }
+}
@@ -4,8 +4,14 @@ import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.extern.log4j.Log4j2;
 import org.cloudburstmc.proxypass.ProxyPass;
+import org.cloudburstmc.proxypass.metrics.SessionForwardLatency;
+import org.cloudburstmc.proxypass.network.bedrock.compression.CompressionPolicy;
 import org.cloudburstmc.proxypass.network.bedrock.logging.SessionLogger;
+import org.cloudburstmc.proxypass.network.bedrock.peer.ProxyBedrockPeer;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.KeyPair;
 
@@ -21,6 +27,8 @@ public class ProxyPlayerSession {
     private final KeyPair proxyKeyPair;
     private final Path dataPath;
     private final PackDownloader packDownloader;
+    // Null if forward latency is not recorded
+    private final SessionForwardLatency forwardLatency;
     private volatile boolean closed = false;
 
     public final SessionLogger logger;
@@ -37,11 +45,57 @@ public class ProxyPlayerSession {
 //                this.downstream.disconnect();
 //            }
 //        });
-        this.packDownloader = new PackDownloader(this.dataPath);
+        this.packDownloader = new PackDownloader(this.dataPath, proxy.getPackProcessor(), proxy.getMetrics(),
+                downstream.getPeer().getChannel());
         this.logger = new SessionLogger(
                 proxy,
                 this.dataPath
         );
         logger.start();
+        proxy.getMetrics().onSessionStarted();
+
+        int sampleRate = proxy.getConfiguration().getForwardLatencySampleRate();
+        this.forwardLatency = sampleRate > 0
+                ? new SessionForwardLatency(proxy.getMetrics().getForwardLatency(), sampleRate)
+                : null;
+        if (this.forwardLatency != null && downstream.getPeer() instanceof ProxyBedrockPeer peer) {
+            peer.setForwardLatency(this.forwardLatency, true);
+        }
+        if (this.forwardLatency != null && upstream.getPeer() instanceof ProxyBedrockPeer peer) {
+            peer.setForwardLatency(this.forwardLatency, false);
+        }
+    }
+
+    public void close() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        this.logger.close();
+        this.packDownloader.close();
+        this.proxy.getMetrics().onSessionClosed();
+
+        if (this.forwardLatency != null) {
+            this.forwardLatency.close();
+            try {
+                Files.createDirectories(this.dataPath);
+                Files.writeString(this.dataPath.resolve("forward-latency.txt"),
+                        this.forwardLatency.summary(this.proxy.getMetrics()), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                log.warn("Unable to save forward latency of {}", this.dataPath.getFileName(), e);
+            }
+        }
+
+        CompressionPolicy clientbound = this.upstream.getCompressionPolicy();
+        CompressionPolicy serverbound = this.downstream.getCompressionPolicy();
+        String compression = "CLIENT BOUND: " + (clientbound == null ? "not negotiated" : clientbound.summary()) + System.lineSeparator()
+                + "SERVER BOUND: " + (serverbound == null ? "not negotiated" : serverbound.summary()) + System.lineSeparator();
+        log.debug("Compression of {}:{}{}", this.authData.getDisplayName(), System.lineSeparator(), compression.stripTrailing());
+        try {
+            Files.createDirectories(this.dataPath);
+            Files.writeString(this.dataPath.resolve("compression.txt"), compression, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            log.warn("Unable to save compression statistics of {}", this.dataPath.getFileName(), e);
+        }
     }
 }
@@ -1,6 +1,5 @@
 package org.cloudburstmc.proxypass.network.bedrock.session;
 
-import io.netty.buffer.ByteBuf;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.log4j.Log4j2;
@@ -9,9 +8,9 @@ import org.cloudburstmc.protocol.bedrock.BedrockServerSession;
 import org.cloudburstmc.protocol.bedrock.BedrockSession;
 import org.cloudburstmc.protocol.bedrock.netty.BedrockPacketWrapper;
 import org.cloudburstmc.protocol.bedrock.packet.BedrockPacket;
-import org.cloudburstmc.protocol.bedrock.packet.UnknownPacket;
 import org.cloudburstmc.protocol.common.PacketSignal;
 import org.cloudburstmc.proxypass.ProxyPass;
+import org.cloudburstmc.proxypass.network.bedrock.compression.CompressionPolicy;
 import org.cloudburstmc.proxypass.network.bedrock.util.TestUtils;
 
 @Getter
@@ -24,6 +23,8 @@ public class ProxyServerSession extends BedrockServerSession implements ProxySes
     @Setter
     private ProxyPlayerSession player;
     @Setter
+    private CompressionPolicy compressionPolicy;
+    @Setter
     private String connectedViaAddress;
 
     public ProxyServerSession(BedrockPeer peer, int subClientId, ProxyPass proxyPass) {
@@ -33,7 +34,9 @@ public class ProxyServerSession extends BedrockServerSession implements ProxySes
 
     @Override
     protected void onPacket(BedrockPacketWrapper wrapper) {
+        long receivedNanos = System.nanoTime();
         BedrockPacket packet = wrapper.getPacket();
+        proxyPass.getMetrics().onPacket(true, wrapper.getPacketId(), wrapper.getPacketBuffer().readableBytes());
         if (player != null) {
             player.logger.logPacket(this, wrapper, true);
         }
@@ -45,16 +48,7 @@ public class ProxyServerSession extends BedrockServerSession implements ProxySes
         if (this.packetHandler == null) {
             log.warn("Received packet without a packet handler for {}:{}: {}", new Object[]{this.getSocketAddress(), this.subClientId, packet});
         } else if (this.packetHandler.handlePacket(packet) == PacketSignal.UNHANDLED && this.sendSession != null) {
-            // this.sendSession.sendPacket(ReferenceCountUtil.retain(packet));
-
-            ByteBuf buffer = wrapper.getPacketBuffer()
-                    .retainedSlice()
-                    .skipBytes(wrapper.getHeaderLength());
-
-            UnknownPacket sendPacket = new UnknownPacket();
-            sendPacket.setPayload(buffer);
-            sendPacket.setPacketId(wrapper.getPacketId());
-            this.sendSession.sendPacket(sendPacket);
+            this.forwardPacket(wrapper, receivedNanos);
         }
     }
 }
@@ -1,7 +1,11 @@
 package org.cloudburstmc.proxypass.network.bedrock.session;
 
+import io.netty.buffer.ByteBuf;
 import org.cloudburstmc.protocol.bedrock.BedrockSession;
+import org.cloudburstmc.protocol.bedrock.netty.BedrockPacketWrapper;
+import org.cloudburstmc.protocol.bedrock.packet.UnknownPacket;
 import org.cloudburstmc.proxypass.ProxyPass;
+import org.cloudburstmc.proxypass.network.bedrock.peer.ProxyBedrockPeer;
 
 public interface ProxySession {
 
@@ -11,4 +15,26 @@ public interface ProxySession {
     BedrockSession getSendSession();
 
     void setSendSession(BedrockSession session);
+
+    /**
+     * Forwards an unhandled packet to the other leg using its original encoded payload.
+     *
+     * @param receivedNanos {@link System#nanoTime()} at which the packet was received
+     */
+    default void forwardPacket(BedrockPacketWrapper wrapper, long receivedNanos) {
+        BedrockSession sendSession = this.getSendSession();
+        if (sendSession.getPeer() instanceof ProxyBedrockPeer peer) {
+            peer.forwardPacket(sendSession.getSubClientId(), wrapper, receivedNanos);
+            return;
+        }
+
+        ByteBuf buffer = wrapper.getPacketBuffer()
+                .retainedSlice()
+                .skipBytes(wrapper.getHeaderLength());
+
+        UnknownPacket sendPacket = new UnknownPacket();
+        sendPacket.setPayload(buffer);
+        sendPacket.setPacketId(wrapper.getPacketId());
+        sendSession.sendPacket(sendPacket);
+    }
 }
@@ -1,10 +1,13 @@
 package org.cloudburstmc.proxypass.network.bedrock.session;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.EventLoop;
+import it.unimi.dsi.fastutil.longs.LongIterator;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.log4j.Log4j2;
 import net.raphimc.minecraftauth.bedrock.model.MinecraftMultiplayerToken;
-import org.cloudburstmc.protocol.bedrock.codec.BedrockCodec;
 import org.cloudburstmc.protocol.bedrock.data.PacketCompressionAlgorithm;
 import org.cloudburstmc.protocol.bedrock.data.auth.*;
 import org.cloudburstmc.protocol.bedrock.packet.*;
@@ -13,6 +16,9 @@ import org.cloudburstmc.protocol.bedrock.util.ChainValidationResult.IdentityData
 import org.cloudburstmc.protocol.bedrock.util.EncryptionUtils;
 import org.cloudburstmc.protocol.common.PacketSignal;
 import org.cloudburstmc.proxypass.ProxyPass;
+import org.cloudburstmc.proxypass.network.bedrock.cache.ClientBlobCache;
+import org.cloudburstmc.proxypass.network.bedrock.compression.CompressionPolicy;
+import org.cloudburstmc.proxypass.network.bedrock.peer.ProxyBedrockPeer;
 import org.cloudburstmc.proxypass.network.bedrock.util.ForgeryUtils;
 import org.jose4j.json.JsonUtil;
 import org.jose4j.json.internal.json_simple.JSONObject;
@@ -25,6 +31,9 @@ import java.security.PublicKey;
 import java.security.interfaces.ECPublicKey;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
 
 @Log4j2
 @RequiredArgsConstructor
@@ -34,10 +43,13 @@ public class UpstreamPacketHandler implements BedrockPacketHandler {
     private final Account account;
     private JSONObject skinData;
     private AuthData authData;
+    private KeyPair sessionKeyPair;
     private ProxyPlayerSession player;
+    // Only accessed from the event loop of the session
+    private boolean loginStarted;
 
-    private static ECPublicKey mojangPublicKey;
-    private static AuthPayload authPayload;
+    private static volatile ECPublicKey mojangPublicKey;
+    private static volatile AuthPayload authPayload;
 
     private static boolean verifyJwt(String jwt, PublicKey key) throws JoseException {
         JsonWebSignature jws = new JsonWebSignature();
@@ -59,19 +71,59 @@ public class UpstreamPacketHandler implements BedrockPacketHandler {
             session.sendPacketImmediately(status);
             return PacketSignal.HANDLED;
         }
-        session.setCodec(ProxyPass.CODEC);
+        session.setCodec(this.proxy.getDecodePolicy().getCodec());
 
+        // The client compresses what it sends with the same algorithm and threshold
+        CompressionPolicy compression = new CompressionPolicy(this.proxy.getConfiguration().getCompression().getClient(),
+                true, PacketCompressionAlgorithm.ZLIB, protocolVersion >= 649, this.proxy.getMetrics());
         NetworkSettingsPacket networkSettingsPacket = new NetworkSettingsPacket();
-        networkSettingsPacket.setCompressionThreshold(0);
-        networkSettingsPacket.setCompressionAlgorithm(PacketCompressionAlgorithm.ZLIB);
+        networkSettingsPacket.setCompressionThreshold(Math.min(compression.getThreshold(), 0xffff));
+        networkSettingsPacket.setCompressionAlgorithm(compression.getAlgorithm());
 
         session.sendPacketImmediately(networkSettingsPacket);
-        session.setCompression(PacketCompressionAlgorithm.ZLIB);
+        session.getPeer().setCompression(compression);
+        session.setCompressionPolicy(compression);
         return PacketSignal.HANDLED;
     }
 
     @Override
     public PacketSignal handle(LoginPacket packet) {
+        if (this.loginStarted) {
+            log.debug("Ignoring another login from {}", this.session.getSocketAddress());
+            return PacketSignal.HANDLED;
+        }
+        this.loginStarted = true;
+        // Validation, forging and the downstream connect all run off the event loop, see LoginTimings for the stages.
+        LoginTimings timings = new LoginTimings(this.proxy.getMetrics());
+        EventLoop eventLoop = this.session.getPeer().getChannel().eventLoop();
+        try {
+            CompletableFuture.runAsync(() -> this.validateLogin(packet), this.proxy.getLoginExecutor())
+                    .thenApplyAsync(ignored -> {
+                        timings.complete(LoginTimings.Stage.VALIDATE);
+                        return this.prepareLoginPacket();
+                    }, this.proxy.getLoginExecutor())
+                    .thenAcceptAsync(login -> {
+                        timings.complete(LoginTimings.Stage.FORGE);
+                        if (!this.session.isConnected()) {
+                            // Disconnected during validation or forging, onDisconnect had no player to close
+                            log.debug("{} disconnected before the login completed", this.session.getSocketAddress());
+                            return;
+                        }
+                        this.initializeProxySession(login, timings);
+                    }, eventLoop)
+                    .exceptionally(throwable -> {
+                        log.error("Unable to complete login", throwable);
+                        eventLoop.execute(() -> session.disconnect("disconnectionScreen.internalError.cantConnect"));
+                        return null;
+                    });
+        } catch (RejectedExecutionException e) {
+            log.warn("Too many pending logins, disconnecting {}", this.session.getSocketAddress());
+            session.disconnect("disconnectionScreen.serverFull");
+        }
+        return PacketSignal.HANDLED;
+    }
+
+    private void validateLogin(LoginPacket packet) {
         try {
             ChainValidationResult chain = EncryptionUtils.validatePayload(packet.getAuthPayload());
             ECPublicKey identityPublicKey;
@@ -108,14 +160,9 @@ public class UpstreamPacketHandler implements BedrockPacketHandler {
                 MinecraftMultiplayerToken token = account.authManager().getMinecraftMultiplayerToken().getCached();
                 this.authData = new AuthData(token.getDisplayName(), token.getUuid(), token.getXuid());
             }
-            
-            initializeProxySession();
-
         } catch (Exception e) {
-            session.disconnect("disconnectionScreen.internalError.cantConnect");
-            throw new RuntimeException("Unable to complete login", e);
+            throw new CompletionException(e);
         }
-        return PacketSignal.HANDLED;
     }
 
     @Override
@@ -131,33 +178,84 @@ public class UpstreamPacketHandler implements BedrockPacketHandler {
         return PacketSignal.UNHANDLED;
     }
 
-    private void initializeProxySession() {
+    @Override
+    public PacketSignal handle(ResourcePackChunkRequestPacket packet) {
+        if (!this.proxy.getConfiguration().isDownloadPacks() || this.player == null) {
+            return PacketSignal.UNHANDLED;
+        }
+        ResourcePackChunkDataPacket chunk = player.getPackDownloader().getCachedChunk(packet);
+        if (chunk == null) {
+            return PacketSignal.UNHANDLED;
+        }
+        this.session.sendPacketImmediately(chunk);
+        return PacketSignal.HANDLED;
+    }
+
+    @Override
+    public PacketSignal handle(ClientCacheBlobStatusPacket packet) {
+        ClientBlobCache blobCache = this.proxy.getClientBlobCache();
+        if (!blobCache.isEnabled() || this.player == null || packet.getNaks().isEmpty()) {
+            return PacketSignal.UNHANDLED;
+        }
+        // The received packet is still queued for the packet log, so the status sent on is a new one
+        ClientCacheMissResponsePacket response = new ClientCacheMissResponsePacket();
+        ClientCacheBlobStatusPacket status = new ClientCacheBlobStatusPacket();
+        status.getAcks().addAll(packet.getAcks());
+        LongIterator iterator = packet.getNaks().iterator();
+        while (iterator.hasNext()) {
+            long id = iterator.nextLong();
+            ByteBuf blob = blobCache.get(id);
+            if (blob != null) {
+                response.getBlobs().put(id, blob);
+                // The client has the blob once the response arrives, so the server stops waiting on it
+                status.getAcks().add(id);
+            } else {
+                status.getNaks().add(id);
+            }
+        }
+        if (response.getBlobs().isEmpty()) {
+            return PacketSignal.UNHANDLED;
+        }
+        this.session.sendPacket(response);
+        this.player.getDownstream().sendPacket(status);
+        return PacketSignal.HANDLED;
+    }
+
+    private void initializeProxySession(LoginPacket login, LoginTimings timings) {
         log.debug("Initializing proxy session");
 
-        this.proxy.newClient(this.proxy.getTargetAddress(), downstream -> {
-            BedrockCodec.Builder codecBuilder = ProxyPass.CODEC.toBuilder();
-            downstream.setCodec(codecBuilder.build());
+        EventLoop eventLoop = this.proxy.getDownstreamEventLoop(this.session.getPeer().getChannel().eventLoop());
+        this.proxy.newClient(this.proxy.getTargetAddress(), eventLoop, downstream -> {
+            timings.complete(LoginTimings.Stage.CONNECT);
+            if (!this.session.isConnected()) {
+                log.debug("{} disconnected while connecting downstream", this.session.getSocketAddress());
+                downstream.disconnect();
+                return;
+            }
+            timings.log(this.authData);
+
+            downstream.setCodec(this.proxy.getDecodePolicy().getCodec());
 
             downstream.setSendSession(this.session);
             this.session.setSendSession(downstream);
 
-            KeyPair sessionKeyPair = (account != null) 
-                ? account.authManager().getSessionKeyPair() 
-                : EncryptionUtils.createKeyPair();
-
             ProxyPlayerSession proxySession = new ProxyPlayerSession(
                 this.session,
                 downstream,
                 this.proxy,
                 this.authData,
-                sessionKeyPair
+                this.sessionKeyPair
             );
             this.player = proxySession;
 
             downstream.setPlayer(proxySession);
             this.session.setPlayer(proxySession);
 
-            LoginPacket login = prepareLoginPacket(proxySession);
+            try {
+                player.getLogger().saveJson("skinData", this.skinData);
+            } catch (Exception e) {
+                log.error("JSON output error: " + e.getMessage(), e);
+            }
 
             downstream.setPacketHandler(new DownstreamInitialPacketHandler(downstream, proxySession, this.proxy, login));
             downstream.setLogging(true);
@@ -166,25 +264,29 @@ public class UpstreamPacketHandler implements BedrockPacketHandler {
             packet.setProtocolVersion(ProxyPass.PROTOCOL_VERSION);
             downstream.sendPacketImmediately(packet);
             this.player.getLogger().logPacket(this.session, packet, true);
+        }).addListener((ChannelFuture future) -> {
+            if (!future.isSuccess()) {
+                this.session.disconnect("disconnectionScreen.internalError.cantConnect");
+            } else if (!this.session.isConnected()) {
+                future.channel().close();
+            }
         });
     }
 
-    private LoginPacket prepareLoginPacket(ProxyPlayerSession proxySession) {
+    private LoginPacket prepareLoginPacket() {
         String jwtSkinData;
         AuthPayload payload;
 
         if (account == null) {
-            try {
-                player.getLogger().saveJson("skinData", this.skinData);
-            } catch (Exception e) {
-                log.error("JSON output error: " + e.getMessage(), e);
-            }
+            this.sessionKeyPair = EncryptionUtils.createKeyPair();
 
-            String forgedAuth = ForgeryUtils.forgeOfflineAuthData(proxySession.getProxyKeyPair(), this.authData);
-            jwtSkinData = ForgeryUtils.forgeOfflineSkinData(proxySession.getProxyKeyPair(), this.skinData);
+            String forgedAuth = ForgeryUtils.forgeOfflineAuthData(this.sessionKeyPair, this.authData);
+            jwtSkinData = ForgeryUtils.forgeOfflineSkinData(this.sessionKeyPair, this.skinData);
             payload = new CertificateChainPayload(List.of(forgedAuth), AuthType.SELF_SIGNED);
 
         } else {
+            this.sessionKeyPair = account.authManager().getSessionKeyPair();
+
             try {
                 if (mojangPublicKey == null) {
                     mojangPublicKey = ForgeryUtils.forgeMojangPublicKey();
@@ -197,13 +299,6 @@ public class UpstreamPacketHandler implements BedrockPacketHandler {
             }
 
             jwtSkinData = ForgeryUtils.forgeOnlineSkinData(account, this.skinData, this.proxy.getTargetAddress());
-
-            try {
-                player.getLogger().saveJson("skinData", this.skinData);
-            } catch (Exception e) {
-                log.error("JSON output error: " + e.getMessage(), e);
-            }
-            
             payload = authPayload;
         }
 
@@ -216,7 +311,12 @@ public class UpstreamPacketHandler implements BedrockPacketHandler {
 
     @Override
     public void onDisconnect(CharSequence reason) {
-        if (this.session.getSendSession().isConnected()) {
+        log.debug("Forwarded packets on the same event loop: {}, handed over from another loop: {}",
+                ProxyBedrockPeer.getLocalForwards(), ProxyBedrockPeer.getCrossLoopForwards());
+        if (this.player != null) {
+            this.player.close();
+        }
+        if (this.session.getSendSession() != null && this.session.getSendSession().isConnected()) {
             this.session.getSendSession().disconnect(reason);
         }
     }
@@ -0,0 +1,184 @@
+package org.cloudburstmc.proxypass.network.bedrock.standin;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.cloudburstmc.protocol.bedrock.BedrockServerSession;
+import org.cloudburstmc.protocol.bedrock.data.PacketCompressionAlgorithm;
+import org.cloudburstmc.protocol.bedrock.data.auth.CertificateChainPayload;
+import org.cloudburstmc.protocol.bedrock.packet.*;
+import org.cloudburstmc.protocol.bedrock.util.ChainValidationResult;
+import org.cloudburstmc.protocol.bedrock.util.EncryptionUtils;
+import org.cloudburstmc.protocol.common.PacketSignal;
+import org.cloudburstmc.proxypass.ProxyPass;
+import org.cloudburstmc.proxypass.network.bedrock.capture.CaptureFrame;
+import org.cloudburstmc.proxypass.network.bedrock.capture.CaptureSource;
+import org.cloudburstmc.proxypass.network.bedrock.replay.CaptureReplay;
+import org.cloudburstmc.proxypass.network.bedrock.replay.ReplayStream;
+
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.security.KeyPair;
+import java.security.interfaces.ECPublicKey;
+import java.util.Iterator;
+import java.util.UUID;
+
+/**
+ * Server side of the stand-in login sequence. After the encryption handshake either replays a capture or starts
+ * {@link SyntheticTraffic}.
+ */
+@Log4j2
+@RequiredArgsConstructor
+public class StandInPacketHandler implements BedrockPacketHandler {
+    private final BedrockServerSession session;
+    private final StandInServer server;
+    private SyntheticTraffic traffic;
+    private CaptureSource source;
+
+    @Override
+    public PacketSignal handle(RequestNetworkSettingsPacket packet) {
+        this.session.setCodec(StandInServer.CODEC);
+
+        NetworkSettingsPacket networkSettings = new NetworkSettingsPacket();
+        networkSettings.setCompressionThreshold(1);
+        networkSettings.setCompressionAlgorithm(PacketCompressionAlgorithm.ZLIB);
+        this.session.sendPacketImmediately(networkSettings);
+        this.session.setCompression(PacketCompressionAlgorithm.ZLIB);
+        return PacketSignal.HANDLED;
+    }
+
+    @Override
+    public PacketSignal handle(LoginPacket packet) {
+        try {
+            ChainValidationResult chain = EncryptionUtils.validatePayload(packet.getAuthPayload());
+            String identityPublicKey;
+            if (packet.getAuthPayload() instanceof CertificateChainPayload) {
+                JsonNode payload = ProxyPass.JSON_MAPPER.valueToTree(chain.rawIdentityClaims());
+                identityPublicKey = payload.get("identityPublicKey").textValue();
+            } else {
+                identityPublicKey = chain.identityClaims().identityPublicKey;
+            }
+            ECPublicKey clientKey = EncryptionUtils.parseKey(identityPublicKey);
+
+            KeyPair serverKeyPair = EncryptionUtils.createKeyPair();
+            byte[] token = EncryptionUtils.generateRandomToken();
+            SecretKey key = EncryptionUtils.getSecretKey(serverKeyPair.getPrivate(), clientKey, token);
+
+            ServerToClientHandshakePacket handshake = new ServerToClientHandshakePacket();
+            handshake.setJwt(EncryptionUtils.createHandshakeJwt(serverKeyPair, token));
+            this.session.sendPacketImmediately(handshake);
+            this.session.enableEncryption(key);
+        } catch (Exception e) {
+            log.error("Unable to accept login from {}", this.session.getSocketAddress(), e);
+            this.session.disconnect("disconnectionScreen.internalError");
+        }
+        return PacketSignal.HANDLED;
+    }
+
+    @Override
+    public PacketSignal handle(ClientToServerHandshakePacket packet) {
+        int players = this.server.getPlayers().incrementAndGet();
+        log.info("{} logged in, {} player(s)", this.session.getSocketAddress(), players);
+
+        if (this.server.getCapture() != null) {
+            this.replayCapture();
+            return PacketSignal.HANDLED;
+        }
+
+        PlayStatusPacket status = new PlayStatusPacket();
+        status.setStatus(PlayStatusPacket.Status.LOGIN_SUCCESS);
+        this.session.sendPacket(status);
+
+        ResourcePacksInfoPacket info = new ResourcePacksInfoPacket();
+        info.setWorldTemplateId(new UUID(0, 0));
+        info.setWorldTemplateVersion("");
+        this.session.sendPacketImmediately(info);
+        return PacketSignal.HANDLED;
+    }
+
+    @Override
+    public PacketSignal handle(ResourcePackClientResponsePacket packet) {
+        if (this.server.getCapture() != null) {
+            return PacketSignal.HANDLED;
+        }
+        switch (packet.getStatus()) {
+            case HAVE_ALL_PACKS -> {
+                ResourcePackStackPacket stack = new ResourcePackStackPacket();
+                stack.setGameVersion(ProxyPass.MINECRAFT_VERSION);
+                this.session.sendPacketImmediately(stack);
+            }
+            case COMPLETED -> {
+                if (this.traffic == null) {
+                    this.traffic = new SyntheticTraffic(this.session, this.server);
+                    this.traffic.start();
+                }
+            }
+            default -> {
+            }
+        }
+        return PacketSignal.HANDLED;
+    }
+
+    @Override
+    public PacketSignal handle(RequestChunkRadiusPacket packet) {
+        ChunkRadiusUpdatedPacket updated = new ChunkRadiusUpdatedPacket();
+        updated.setRadius(packet.getRadius());
+        this.session.sendPacket(updated);
+        return PacketSignal.HANDLED;
+    }
+
+    @Override
+    public PacketSignal handle(NetworkStackLatencyPacket packet) {
+        if (packet.isFromServer()) {
+            NetworkStackLatencyPacket echo = new NetworkStackLatencyPacket();
+            echo.setTimestamp(packet.getTimestamp());
+            echo.setFromServer(false);
+            this.session.sendPacketImmediately(echo);
+        }
+        return PacketSignal.HANDLED;
+    }
+
+    @Override
+    public PacketSignal handlePacket(BedrockPacket packet) {
+        BedrockPacketHandler.super.handlePacket(packet);
+        return PacketSignal.HANDLED;
+    }
+
+    @Override
+    public void onDisconnect(CharSequence reason) {
+        if (this.traffic != null) {
+            this.traffic.stop();
+        }
+        this.closeSource();
+        log.info("{} disconnected: {}, {} player(s)", this.session.getSocketAddress(), reason,
+                this.server.getPlayers().decrementAndGet());
+    }
+
+    private void replayCapture() {
+        try {
+            this.source = CaptureSource.open(this.server.getCapture());
+        } catch (IOException e) {
+            log.error("Unable to open capture {}", this.server.getCapture(), e);
+            this.session.disconnect("disconnectionScreen.internalError");
+            return;
+        }
+        Iterator<CaptureFrame> frames = ReplayStream.filter(this.source, false, CaptureReplay.CLIENT_BOUND_HANDSHAKE);
+        ReplayStream stream = new ReplayStream(this.session, frames, this.server.isRealTime(), 1);
+        stream.getFuture().whenComplete((result, throwable) -> {
+            this.closeSource();
+            log.info("Replayed capture to {}: {}", this.session.getSocketAddress(), result);
+        });
+        stream.start();
+    }
+
+    private void closeSource() {
+        if (this.source != null) {
+            try {
+                this.source.close();
+            } catch (IOException e) {
+                log.debug("Unable to close capture", e);
+            }
+            this.source = null;
+        }
+    }
+}
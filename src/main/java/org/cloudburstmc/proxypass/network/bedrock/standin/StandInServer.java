@@ -0,0 +1,146 @@
+package org.cloudburstmc.proxypass.network.bedrock.standin;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.EventLoopGroup;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import org.cloudburstmc.netty.channel.raknet.RakChannelFactory;
+import org.cloudburstmc.netty.channel.raknet.config.RakChannelOption;
+import org.cloudburstmc.protocol.bedrock.BedrockPeer;
+import org.cloudburstmc.protocol.bedrock.BedrockPong;
+import org.cloudburstmc.protocol.bedrock.BedrockServerSession;
+import org.cloudburstmc.protocol.bedrock.codec.BedrockCodec;
+import org.cloudburstmc.protocol.bedrock.netty.initializer.BedrockChannelInitializer;
+import org.cloudburstmc.protocol.bedrock.packet.*;
+import org.cloudburstmc.proxypass.ProxyPass;
+import org.cloudburstmc.proxypass.network.IoTransport;
+import org.cloudburstmc.proxypass.network.bedrock.util.DecodePolicy;
+
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal offline Bedrock server for loopback benchmarks. It accepts any offline login, including the proxy's
+ * downstream connection, completes the network settings, login and encryption handshake and then streams world traffic
+ * to every player:
+ * <ul>
+ *     <li>with a capture, the client bound stream of the capture from the login onwards, see {@link org.cloudburstmc.proxypass.network.bedrock.replay.ReplayStream}</li>
+ *     <li>without, a synthetic start game followed by chunks and entity movement at a fixed rate, see {@link SyntheticTraffic}</li>
+ * </ul>
+ * {@link NetworkStackLatencyPacket} probes from clients are echoed so bots can measure the round trip.
+ * <p>
+ * Usage: {@code StandInServer <host:port> [capture=<path>] [rate=100] [entities=20] [chunk-size=8192] [fast]}
+ */
+@Log4j2
+@Getter
+public class StandInServer {
+    static final BedrockCodec CODEC = DecodePolicy.retainOnly(ProxyPass.CODEC, Set.of(
+            RequestNetworkSettingsPacket.class,
+            NetworkSettingsPacket.class,
+            LoginPacket.class,
+            ServerToClientHandshakePacket.class,
+            ClientToServerHandshakePacket.class,
+            PlayStatusPacket.class,
+            ResourcePacksInfoPacket.class,
+            ResourcePackStackPacket.class,
+            ResourcePackClientResponsePacket.class,
+            StartGamePacket.class,
+            RequestChunkRadiusPacket.class,
+            ChunkRadiusUpdatedPacket.class,
+            LevelChunkPacket.class,
+            AddEntityPacket.class,
+            MoveEntityAbsolutePacket.class,
+            NetworkStackLatencyPacket.class,
+            DisconnectPacket.class
+    ));
+
+    private final Path capture;
+    private final boolean realTime;
+    private final int rate;
+    private final int entities;
+    private final int chunkSize;
+    private final AtomicInteger players = new AtomicInteger();
+
+    public StandInServer(Path capture, boolean realTime, int rate, int entities, int chunkSize) {
+        this.capture = capture;
+        this.realTime = realTime;
+        this.rate = rate;
+        this.entities = entities;
+        this.chunkSize = chunkSize;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: StandInServer <host:port> [capture=<path>] [rate=100] [entities=20] [chunk-size=8192] [fast]");
+            return;
+        }
+        String[] host = args[0].split(":");
+        InetSocketAddress address = new InetSocketAddress(host[0], Integer.parseInt(host[1]));
+        Map<String, String> options = new HashMap<>(Map.of("rate", "100", "entities", "20", "chunk-size", "8192"));
+        boolean realTime = true;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equalsIgnoreCase("fast")) {
+                realTime = false;
+                continue;
+            }
+            String[] option = args[i].split("=", 2);
+            options.put(option[0], option[1]);
+        }
+
+        StandInServer server = new StandInServer(options.containsKey("capture") ? Paths.get(options.get("capture")) : null,
+                realTime, Integer.parseInt(options.get("rate")), Integer.parseInt(options.get("entities")),
+                Integer.parseInt(options.get("chunk-size")));
+
+        IoTransport transport = IoTransport.resolve("auto");
+        EventLoopGroup group = transport.newEventLoopGroup(0);
+        try {
+            Channel channel = server.bind(address, group, transport).sync().channel();
+            log.info("Stand-in server listening on {}", address);
+            channel.closeFuture().sync();
+        } finally {
+            group.shutdownGracefully();
+        }
+    }
+
+    /**
+     * Binds the server, it can share the event loop group of the proxy or a benchmark when embedded.
+     */
+    public ChannelFuture bind(InetSocketAddress address, EventLoopGroup group, IoTransport transport) {
+        BedrockPong pong = new BedrockPong()
+                .edition("MCPE")
+                .gameType("Survival")
+                .version(ProxyPass.MINECRAFT_VERSION)
+                .protocolVersion(ProxyPass.PROTOCOL_VERSION)
+                .motd("ProxyPass stand-in")
+                .subMotd("stand-in")
+                .playerCount(0)
+                .maximumPlayerCount(Integer.MAX_VALUE)
+                .ipv4Port(address.getPort())
+                .ipv6Port(address.getPort())
+                .nintendoLimited(false);
+
+        return new ServerBootstrap()
+                .group(group)
+                .channelFactory(RakChannelFactory.server(transport.getDatagramChannel()))
+                .option(RakChannelOption.RAK_ADVERTISEMENT, pong.toByteBuf())
+                .childHandler(new BedrockChannelInitializer<BedrockServerSession>() {
+                    @Override
+                    protected BedrockServerSession createSession0(BedrockPeer peer, int subClientId) {
+                        return new BedrockServerSession(peer, subClientId);
+                    }
+
+                    @Override
+                    protected void initSession(BedrockServerSession session) {
+                        session.setPacketHandler(new StandInPacketHandler(session, StandInServer.this));
+                    }
+                })
+                .bind(address);
+    }
+}
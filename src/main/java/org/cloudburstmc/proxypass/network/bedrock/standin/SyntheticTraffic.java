@@ -0,0 +1,184 @@
+package org.cloudburstmc.proxypass.network.bedrock.standin;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.concurrent.ScheduledFuture;
+import org.cloudburstmc.math.vector.Vector2f;
+import org.cloudburstmc.math.vector.Vector3f;
+import org.cloudburstmc.nbt.NbtMap;
+import org.cloudburstmc.protocol.bedrock.BedrockServerSession;
+import org.cloudburstmc.protocol.bedrock.data.*;
+import org.cloudburstmc.protocol.bedrock.packet.*;
+import org.cloudburstmc.protocol.common.util.OptionalBoolean;
+import org.cloudburstmc.proxypass.ProxyPass;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scripted world traffic of the stand-in server: a flat start game, then on every tick one chunk from a growing spiral
+ * around spawn and a position update for every entity. Chunk payloads are filler of a fixed size, they exercise the
+ * transport, compression and encryption but are not meant to be rendered.
+ */
+public class SyntheticTraffic {
+    private static final long PLAYER_ENTITY_ID = 1;
+    private static final Vector3f SPAWN = Vector3f.from(0, 64, 0);
+    // Shared by every session, each chunk packet sends a retained duplicate
+    private static ByteBuf chunkData;
+
+    private final BedrockServerSession session;
+    private final StandInServer server;
+    private ScheduledFuture<?> task;
+    private long tick;
+    // Position and direction in a square spiral of chunks around 0, 0
+    private int chunkX, chunkZ, directionX, directionZ = -1;
+
+    public SyntheticTraffic(BedrockServerSession session, StandInServer server) {
+        this.session = session;
+        this.server = server;
+    }
+
+    private static synchronized ByteBuf getChunkData(int size) {
+        if (chunkData == null || chunkData.capacity() != size) {
+            byte[] data = new byte[size];
+            // Half random, so compression has some but not all of the work of real chunks
+            ThreadLocalRandom.current().nextBytes(data);
+            for (int i = 0; i < size; i += 2) {
+                data[i] = 0;
+            }
+            chunkData = Unpooled.unreleasableBuffer(Unpooled.directBuffer(size).writeBytes(data));
+        }
+        return chunkData;
+    }
+
+    public void start() {
+        this.session.sendPacket(createStartGame());
+
+        for (int i = 0; i < this.server.getEntities(); i++) {
+            AddEntityPacket entity = new AddEntityPacket();
+            entity.setUniqueEntityId(PLAYER_ENTITY_ID + 1 + i);
+            entity.setRuntimeEntityId(PLAYER_ENTITY_ID + 1 + i);
+            entity.setIdentifier("minecraft:pig");
+            entity.setPosition(this.entityPosition(i));
+            entity.setMotion(Vector3f.ZERO);
+            entity.setRotation(Vector2f.ZERO);
+            this.session.sendPacket(entity);
+        }
+
+        PlayStatusPacket spawn = new PlayStatusPacket();
+        spawn.setStatus(PlayStatusPacket.Status.PLAYER_SPAWN);
+        this.session.sendPacketImmediately(spawn);
+
+        long periodNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, this.server.getRate());
+        this.task = this.session.getPeer().getChannel().eventLoop()
+                .scheduleAtFixedRate(this::tick, periodNanos, periodNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void stop() {
+        if (this.task != null) {
+            this.task.cancel(false);
+        }
+    }
+
+    private void tick() {
+        if (!this.session.isConnected()) {
+            this.stop();
+            return;
+        }
+        this.tick++;
+
+        LevelChunkPacket levelChunk = new LevelChunkPacket();
+        levelChunk.setChunkX(this.chunkX);
+        levelChunk.setChunkZ(this.chunkZ);
+        this.nextChunk();
+        levelChunk.setDimension(0);
+        levelChunk.setSubChunksLength(0);
+        levelChunk.setCachingEnabled(false);
+        levelChunk.setData(getChunkData(this.server.getChunkSize()).retainedDuplicate());
+
+        // Everything of a tick goes out as one batch, flushed with its last packet
+        int entities = this.server.getEntities();
+        this.send(levelChunk, entities == 0);
+        for (int i = 0; i < entities; i++) {
+            MoveEntityAbsolutePacket move = new MoveEntityAbsolutePacket();
+            move.setRuntimeEntityId(PLAYER_ENTITY_ID + 1 + i);
+            move.setPosition(this.entityPosition(i));
+            move.setRotation(Vector3f.from(0, (this.tick * 4) % 360, 0));
+            move.setOnGround(true);
+            this.send(move, i == entities - 1);
+        }
+    }
+
+    private void send(BedrockPacket packet, boolean flush) {
+        if (flush) {
+            this.session.sendPacketImmediately(packet);
+        } else {
+            this.session.sendPacket(packet);
+        }
+    }
+
+    private Vector3f entityPosition(int index) {
+        double angle = (this.tick + index * 10) * 0.05;
+        return SPAWN.add(Math.cos(angle) * (4 + index % 8), 0, Math.sin(angle) * (4 + index % 8));
+    }
+
+    private void nextChunk() {
+        int x = this.chunkX, z = this.chunkZ;
+        if (x == z || (x < 0 && x == -z) || (x > 0 && x == 1 - z)) {
+            int direction = this.directionX;
+            this.directionX = -this.directionZ;
+            this.directionZ = direction;
+        }
+        this.chunkX += this.directionX;
+        this.chunkZ += this.directionZ;
+    }
+
+    private static StartGamePacket createStartGame() {
+        StartGamePacket startGame = new StartGamePacket();
+        startGame.setUniqueEntityId(PLAYER_ENTITY_ID);
+        startGame.setRuntimeEntityId(PLAYER_ENTITY_ID);
+        startGame.setPlayerGameType(GameType.CREATIVE);
+        startGame.setPlayerPosition(SPAWN);
+        startGame.setRotation(Vector2f.ZERO);
+        startGame.setSeed(0);
+        startGame.setSpawnBiomeType(SpawnBiomeType.DEFAULT);
+        startGame.setCustomBiomeName("");
+        startGame.setDimensionId(0);
+        startGame.setGeneratorId(2);
+        startGame.setLevelGameType(GameType.CREATIVE);
+        startGame.setDifficulty(0);
+        startGame.setDefaultSpawn(SPAWN.toInt());
+        startGame.setDayCycleStopTime(6000);
+        startGame.setEducationProductionId("");
+        startGame.setMultiplayerGame(true);
+        startGame.setXblBroadcastMode(GamePublishSetting.PUBLIC);
+        startGame.setPlatformBroadcastMode(GamePublishSetting.PUBLIC);
+        startGame.setCommandsEnabled(true);
+        startGame.setDefaultPlayerPermission(PlayerPermission.MEMBER);
+        startGame.setServerChunkTickRange(4);
+        startGame.setVanillaVersion("*");
+        startGame.setLimitedWorldWidth(16);
+        startGame.setLimitedWorldHeight(16);
+        startGame.setEduSharedUriResource(EduSharedUriResource.EMPTY);
+        startGame.setForceExperimentalGameplay(OptionalBoolean.empty());
+        startGame.setChatRestrictionLevel(ChatRestrictionLevel.NONE);
+        startGame.setLevelId("");
+        startGame.setLevelName("ProxyPass stand-in");
+        startGame.setPremiumWorldTemplateId("00000000-0000-0000-0000-000000000000");
+        startGame.setAuthoritativeMovementMode(AuthoritativeMovementMode.SERVER);
+        startGame.setRewindHistorySize(0);
+        startGame.setServerAuthoritativeBlockBreaking(true);
+        startGame.setMultiplayerCorrelationId("");
+        startGame.setInventoriesServerAuthoritative(true);
+        startGame.setServerEngine(ProxyPass.MINECRAFT_VERSION);
+        startGame.setPlayerPropertyData(NbtMap.EMPTY);
+        startGame.setWorldTemplateId(new UUID(0, 0));
+        startGame.setNetworkPermissions(new NetworkPermissions(false));
+        startGame.setBlockNetworkIdsHashed(true);
+        startGame.setServerId("");
+        startGame.setWorldId("");
+        startGame.setScenarioId("");
+        return startGame;
+    }
+}
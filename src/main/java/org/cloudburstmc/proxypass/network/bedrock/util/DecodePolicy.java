@@ -0,0 +1,116 @@
+package org.cloudburstmc.proxypass.network.bedrock.util;
+
+import lombok.extern.log4j.Log4j2;
+import org.cloudburstmc.protocol.bedrock.codec.BedrockCodec;
+import org.cloudburstmc.protocol.bedrock.codec.BedrockPacketDefinition;
+import org.cloudburstmc.protocol.bedrock.packet.*;
+import org.cloudburstmc.proxypass.Configuration;
+import org.cloudburstmc.proxypass.ProxyPass;
+import org.cloudburstmc.proxypass.network.bedrock.session.DownstreamInitialPacketHandler;
+import org.cloudburstmc.proxypass.network.bedrock.session.DownstreamPacketHandler;
+import org.cloudburstmc.proxypass.network.bedrock.session.UpstreamPacketHandler;
+
+import java.lang.reflect.Method;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Decides which packet IDs are fully decoded into {@link BedrockPacket}s. Everything else is left registered as an
+ * {@link UnknownPacket} in the session codec, so its payload is only sliced and forwarded.
+ */
+@Log4j2
+public class DecodePolicy {
+
+    private static final List<Class<? extends BedrockPacketHandler>> HANDLERS = List.of(
+            UpstreamPacketHandler.class,
+            DownstreamInitialPacketHandler.class,
+            DownstreamPacketHandler.class
+    );
+
+    // Packets ProxyPass creates and encodes itself, these must stay registered for sending.
+    private static final Set<Class<? extends BedrockPacket>> SENT_PACKETS = Set.of(
+            RequestNetworkSettingsPacket.class,
+            NetworkSettingsPacket.class,
+            LoginPacket.class,
+            PlayStatusPacket.class,
+            ServerToClientHandshakePacket.class,
+            ClientToServerHandshakePacket.class,
+            DisconnectPacket.class,
+            TransferPacket.class
+    );
+
+    private final BedrockCodec codec;
+    private final BitSet skipped;
+
+    private DecodePolicy(BedrockCodec codec, BitSet skipped) {
+        this.codec = codec;
+        this.skipped = skipped;
+    }
+
+    public static DecodePolicy create(ProxyPass proxy, BedrockCodec codec) {
+        Configuration configuration = proxy.getConfiguration();
+        if (!configuration.isSelectiveDecode() || configuration.isPacketTesting() || configuration.isEnableUi()) {
+            return new DecodePolicy(codec, new BitSet());
+        }
+
+        Set<Class<?>> required = Collections.newSetFromMap(new IdentityHashMap<>());
+        required.addAll(SENT_PACKETS);
+        for (Class<? extends BedrockPacketHandler> handler : HANDLERS) {
+            for (Method method : handler.getDeclaredMethods()) {
+                if (method.getName().equals("handle") && method.getParameterCount() == 1
+                        && BedrockPacket.class.isAssignableFrom(method.getParameterTypes()[0])) {
+                    required.add(method.getParameterTypes()[0]);
+                }
+            }
+        }
+
+        BedrockCodec.Builder builder = codec.toBuilder();
+        BitSet skipped = new BitSet();
+        for (int id = 0; id < codec.getPacketsByIdLength(); id++) {
+            BedrockPacketDefinition<?> definition = codec.getPacketDefinition(id);
+            if (definition == null) continue;
+
+            Class<? extends BedrockPacket> packetClass = definition.getFactory().get().getClass();
+            if (required.contains(packetClass)) continue;
+            // Logged packets have to be decoded for their text representation.
+            if (configuration.isLoggingPackets() && !proxy.isIgnoredPacket(packetClass)) continue;
+
+            builder.deregisterPacket(packetClass);
+            skipped.set(id);
+        }
+
+        log.info("Selective decode enabled, {} packet types will be forwarded without decoding", skipped.cardinality());
+        return new DecodePolicy(builder.build(), skipped);
+    }
+
+    /**
+     * @return a copy of the codec in which only the given packets are registered, all others decode as {@link UnknownPacket}
+     */
+    public static BedrockCodec retainOnly(BedrockCodec codec, Set<Class<? extends BedrockPacket>> packets) {
+        BedrockCodec.Builder builder = codec.toBuilder();
+        for (int id = 0; id < codec.getPacketsByIdLength(); id++) {
+            BedrockPacketDefinition<?> definition = codec.getPacketDefinition(id);
+            if (definition == null) continue;
+
+            Class<? extends BedrockPacket> packetClass = definition.getFactory().get().getClass();
+            if (!packets.contains(packetClass)) {
+                builder.deregisterPacket(packetClass);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Codec to assign to proxied sessions. Skipped packets are not registered in it and decode as {@link UnknownPacket}.
+     */
+    public BedrockCodec getCodec() {
+        return this.codec;
+    }
+
+    public boolean isSkipped(int packetId) {
+        return this.skipped.get(packetId);
+    }
+}
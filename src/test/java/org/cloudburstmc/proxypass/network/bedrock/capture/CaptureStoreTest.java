@@ -0,0 +1,120 @@
+package org.cloudburstmc.proxypass.network.bedrock.capture;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CaptureStoreTest {
+    private static final int FRAMES = 1000;
+    private static final int SEGMENT_SIZE = 16384;
+    private static final int PROTOCOL_VERSION = 800;
+    private static final long START_MICROS = 1_700_000_000_000_000L;
+    // A hundred frames per index bucket
+    private static final long SPACING_MICROS = CaptureIndex.BUCKET_MICROS / 100;
+
+    @TempDir
+    private Path directory;
+    private final List<byte[]> payloads = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        Random random = new Random(0);
+        try (CaptureStore store = new CaptureStore(this.directory, SEGMENT_SIZE)) {
+            for (int i = 0; i < FRAMES; i++) {
+                // One frame larger than a segment, which gets a segment of its own
+                byte[] payload = new byte[i == 500 ? 2 * SEGMENT_SIZE : 1 + random.nextInt(500)];
+                random.nextBytes(payload);
+                this.payloads.add(payload);
+
+                ByteBuf frame = Unpooled.buffer();
+                CaptureFormat.writeFrame(frame, timestamp(i), (i & 1) == 0, i % 7, PROTOCOL_VERSION,
+                        Unpooled.wrappedBuffer(payload), 0, payload.length);
+                store.append(frame);
+                frame.release();
+            }
+        }
+    }
+
+    @Test
+    void rollsOverSegments() throws IOException {
+        int segments = 0;
+        long bytes = 0;
+        for (; Files.exists(CaptureStore.getSegmentPath(this.directory, segments)); segments++) {
+            bytes += Files.size(CaptureStore.getSegmentPath(this.directory, segments));
+        }
+        assertTrue(segments > 2, "only " + segments + " segments");
+        // Every segment is trimmed to its frames
+        long expected = (long) segments * CaptureFormat.FILE_HEADER_SIZE;
+        for (byte[] payload : this.payloads) {
+            expected += 4 + CaptureFormat.FRAME_HEADER_SIZE + payload.length;
+        }
+        assertEquals(expected, bytes);
+
+        try (CaptureStoreReader reader = new CaptureStoreReader(this.directory)) {
+            assertFrames(reader.all(), 0, FRAMES);
+        }
+    }
+
+    @Test
+    void findsFramesByTime() throws IOException {
+        try (CaptureStoreReader reader = new CaptureStoreReader(this.directory)) {
+            // Bounds in the middle of buckets, the frames before and after them in the same bucket are skipped
+            assertFrames(reader.byTime(timestamp(235), timestamp(517)), 235, 517);
+            assertFrames(reader.byTime(timestamp(235) + 1, timestamp(517) + 1), 236, 518);
+            assertFrames(reader.byTime(timestamp(FRAMES - 3), Long.MAX_VALUE / 2), FRAMES - 3, FRAMES);
+            assertFalse(reader.byTime(START_MICROS - 2 * CaptureIndex.BUCKET_MICROS, START_MICROS).hasNext());
+        }
+    }
+
+    @Test
+    void findsFramesByPacketId() throws IOException {
+        try (CaptureStoreReader reader = new CaptureStoreReader(this.directory)) {
+            Iterator<CaptureFrame> frames = reader.byPacketId(3);
+            for (int i = 3; i < FRAMES; i += 7) {
+                assertFrame(i, frames.next());
+            }
+            assertFalse(frames.hasNext());
+        }
+    }
+
+    @Test
+    void rebuildsMissingIndex() throws IOException {
+        Files.delete(this.directory.resolve(CaptureIndex.FILE_NAME));
+        try (CaptureStoreReader reader = new CaptureStoreReader(this.directory)) {
+            assertEquals(FRAMES, reader.getIndex().getFrameCount());
+            assertFrames(reader.byTime(timestamp(400), timestamp(600)), 400, 600);
+        }
+    }
+
+    private void assertFrames(Iterator<CaptureFrame> frames, int from, int to) {
+        for (int i = from; i < to; i++) {
+            assertTrue(frames.hasNext(), "missing frame " + i);
+            assertFrame(i, frames.next());
+        }
+        assertFalse(frames.hasNext());
+    }
+
+    private void assertFrame(int i, CaptureFrame frame) {
+        assertEquals(timestamp(i), frame.timestampMicros());
+        assertEquals((i & 1) == 0, frame.upstream());
+        assertEquals(i % 7, frame.packetId());
+        assertEquals(PROTOCOL_VERSION, frame.protocolVersion());
+        assertArrayEquals(this.payloads.get(i), frame.payload(), "payload of frame " + i);
+    }
+
+    private static long timestamp(int frame) {
+        return START_MICROS + frame * SPACING_MICROS;
+    }
+}
@@ -0,0 +1,183 @@
+package org.cloudburstmc.proxypass.network.bedrock.session;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.cloudburstmc.proxypass.ProxyPass;
+import org.cloudburstmc.proxypass.metrics.ProxyMetrics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CdnDownloaderTest {
+    private static final int SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    // Two whole segments and a partial one
+    private final byte[] content = new byte[2 * SEGMENT_SIZE + 12345];
+    private final List<String> ranges = new CopyOnWriteArrayList<>();
+    private volatile boolean acceptRanges = true;
+    // Range start that fails with a 500, or -1
+    private volatile long failingFrom = -1;
+    // Range start whose next response stalls halfway, or -1
+    private volatile long stallingFrom = -1;
+    private final AtomicInteger stalls = new AtomicInteger();
+
+    @TempDir
+    private Path directory;
+    private HttpServer server;
+    private ExecutorService executor;
+    private CdnDownloader downloader;
+    private ProxyMetrics metrics;
+    private URI uri;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        new Random(42).nextBytes(this.content);
+        this.executor = Executors.newCachedThreadPool();
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.server.createContext("/pack.zip", this::handle);
+        this.server.setExecutor(this.executor);
+        this.server.start();
+        this.uri = URI.create("http://127.0.0.1:" + this.server.getAddress().getPort() + "/pack.zip");
+
+        this.metrics = new ProxyMetrics(ProxyPass.CODEC);
+        this.downloader = new CdnDownloader(HttpClient.newHttpClient(), this.directory.resolve("downloads"), 1,
+                Duration.ofMillis(200), this.metrics);
+    }
+
+    @AfterEach
+    void tearDown() {
+        this.server.stop(0);
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    void downloadsInRanges() throws Exception {
+        Path target = this.directory.resolve("pack.zip");
+        this.downloader.download(this.uri, "pack", target);
+
+        assertArrayEquals(this.content, Files.readAllBytes(target));
+        assertEquals(List.of(range(0), range(1), range(2)), this.ranges);
+        assertEquals(this.content.length, this.metrics.getPackDownloadBytes().sum());
+        assertFalse(Files.exists(this.directory.resolve("downloads/pack.part")));
+        assertFalse(Files.exists(this.directory.resolve("downloads/pack.state")));
+    }
+
+    @Test
+    void resumesAfterFailedRange() throws Exception {
+        Path target = this.directory.resolve("pack.zip");
+        this.failingFrom = SEGMENT_SIZE;
+        assertThrows(IOException.class, () -> this.downloader.download(this.uri, "pack", target));
+        assertTrue(Files.exists(this.directory.resolve("downloads/pack.state")));
+        assertFalse(Files.exists(target));
+
+        this.failingFrom = -1;
+        this.ranges.clear();
+        this.downloader.download(this.uri, "pack", target);
+
+        assertArrayEquals(this.content, Files.readAllBytes(target));
+        // The first segment is taken from the partial download
+        assertEquals(List.of(range(1), range(2)), this.ranges);
+    }
+
+    @Test
+    void downloadsWholeWithoutRangeSupport() throws Exception {
+        Path target = this.directory.resolve("pack.zip");
+        this.acceptRanges = false;
+        this.downloader.download(this.uri, "pack", target);
+
+        assertArrayEquals(this.content, Files.readAllBytes(target));
+        assertEquals(List.of("whole"), this.ranges);
+        assertEquals(this.content.length, this.metrics.getPackDownloadBytes().sum());
+    }
+
+    @Test
+    void retriesStalledRange() throws Exception {
+        Path target = this.directory.resolve("pack.zip");
+        this.stallingFrom = SEGMENT_SIZE;
+        this.downloader.download(this.uri, "pack", target);
+
+        assertArrayEquals(this.content, Files.readAllBytes(target));
+        assertEquals(1, this.stalls.get());
+        assertEquals(List.of(range(0), range(1), range(1), range(2)), this.ranges);
+    }
+
+    @Test
+    void retriesStalledWholeDownload() throws Exception {
+        Path target = this.directory.resolve("pack.zip");
+        this.acceptRanges = false;
+        this.stallingFrom = 0;
+        this.downloader.download(this.uri, "pack", target);
+
+        assertArrayEquals(this.content, Files.readAllBytes(target));
+        assertEquals(1, this.stalls.get());
+        assertEquals(List.of("whole", "whole"), this.ranges);
+    }
+
+    private String range(int segment) {
+        long from = (long) segment * SEGMENT_SIZE;
+        return from + "-" + (Math.min(this.content.length, from + SEGMENT_SIZE) - 1);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (exchange.getRequestMethod().equals("HEAD")) {
+                if (this.acceptRanges) {
+                    exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+                }
+                exchange.getResponseHeaders().set("Content-Length", Integer.toString(this.content.length));
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            int from = 0;
+            int to = this.content.length - 1;
+            if (range != null && this.acceptRanges) {
+                String[] bounds = range.substring("bytes=".length()).split("-");
+                from = Integer.parseInt(bounds[0]);
+                to = Integer.parseInt(bounds[1]);
+                this.ranges.add(from + "-" + to);
+            } else {
+                this.ranges.add("whole");
+            }
+
+            if (from == this.failingFrom) {
+                exchange.sendResponseHeaders(500, -1);
+                return;
+            }
+            int length = to + 1 - from;
+            exchange.sendResponseHeaders(range != null ? 206 : 200, length);
+            OutputStream body = exchange.getResponseBody();
+            if (from == this.stallingFrom && this.stalls.getAndIncrement() == 0) {
+                body.write(this.content, from, length / 2);
+                body.flush();
+                try {
+                    Thread.sleep(5000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return;
+            }
+            body.write(this.content, from, length);
+        }
+    }
+}